@@ -0,0 +1,79 @@
+package org.stargate.rest.json.Cache;
+
+/**
+ * CacheEntry - A snapshot of a cache slot as returned by a lookup.
+ * Carries the value together with its version, the time the entry was last known to be current and
+ * the time it expires.
+ */
+public class CacheEntry {
+  // The cached value
+  private final CacheValue value;
+
+  // Version of the value, the Cassandra write timestamp when known, see KVCache
+  private final long version;
+
+  // Time in milliseconds the entry was written or last revalidated against Cassandra
+  private final long validatedAt;
+
+  // Expiry of a value written without TTL
+  public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+  // Time in milliseconds the value expires in Cassandra, NO_EXPIRY if it has no TTL
+  private final long expiresAt;
+
+  // Whether the version only orders the write and is not the Cassandra write timestamp, see KVCache
+  private final boolean provisional;
+
+  public CacheEntry(CacheValue value, long version, long validatedAt) {
+    this(value, version, validatedAt, NO_EXPIRY);
+  }
+
+  public CacheEntry(CacheValue value, long version, long validatedAt, long expiresAt) {
+    this(value, version, validatedAt, expiresAt, false);
+  }
+
+  public CacheEntry(
+      CacheValue value, long version, long validatedAt, long expiresAt, boolean provisional) {
+    this.value = value;
+    this.version = version;
+    this.validatedAt = validatedAt;
+    this.expiresAt = expiresAt;
+    this.provisional = provisional;
+  }
+
+  public CacheValue getValue() {
+    return this.value;
+  }
+
+  public long getVersion() {
+    return this.version;
+  }
+
+  public long getValidatedAt() {
+    return this.validatedAt;
+  }
+
+  public long getExpiresAt() {
+    return this.expiresAt;
+  }
+
+  public boolean isProvisional() {
+    return this.provisional;
+  }
+
+  /**
+   * Checks whether the value has expired, it must not be served any more.
+   *
+   * @param now The current time in milliseconds.
+   * @return boolean True if the value has expired.
+   */
+  public boolean isExpired(long now) {
+    return now >= this.expiresAt;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheEntry{value=" + value + ", version=" + version + ", validatedAt=" + validatedAt
+        + ", expiresAt=" + expiresAt + ", provisional=" + provisional + '}';
+  }
+}
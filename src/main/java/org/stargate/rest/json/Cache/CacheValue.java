@@ -0,0 +1,103 @@
+package org.stargate.rest.json.Cache;
+
+import java.util.Arrays;
+import org.stargate.rest.json.KVData;
+
+/**
+ * CacheValue - The value held by a cache slot.
+ * Small values are kept as KVData, large ones as compressed encoded bytes that are only inflated
+ * when the value is read.
+ */
+public class CacheValue {
+  // The plain value, null if the value is compressed
+  private final KVData value;
+
+  // The compressed encoded value, null if the value is plain
+  private final byte[] compressed;
+
+  // The size of the encoded value before compression
+  private final int rawSize;
+
+  // Content hash, computed on first use
+  private int hash;
+
+  private CacheValue(KVData value, byte[] compressed, int rawSize) {
+    this.value = value;
+    this.compressed = compressed;
+    this.rawSize = rawSize;
+  }
+
+  /**
+   * Creates an uncompressed cache value.
+   *
+   * @param value The value.
+   * @return CacheValue The cache value.
+   */
+  public static CacheValue plain(KVData value) {
+    return new CacheValue(value, null, -1);
+  }
+
+  /**
+   * Creates a compressed cache value.
+   *
+   * @param compressed The compressed encoded value.
+   * @param rawSize The size of the encoded value before compression.
+   * @return CacheValue The cache value.
+   */
+  public static CacheValue compressed(byte[] compressed, int rawSize) {
+    return new CacheValue(null, compressed, rawSize);
+  }
+
+  public boolean isCompressed() {
+    return this.compressed != null;
+  }
+
+  public KVData getValue() {
+    return this.value;
+  }
+
+  public byte[] getCompressed() {
+    return this.compressed;
+  }
+
+  public int getRawSize() {
+    return this.rawSize;
+  }
+
+  /**
+   * Two cache values are equal if they have the same content, used to deduplicate values in the
+   * ValuePool. Compressed values compare their compressed bytes, deflate output is deterministic.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CacheValue)) {
+      return false;
+    }
+    CacheValue other = (CacheValue) o;
+    if (isCompressed()) {
+      return rawSize == other.rawSize && Arrays.equals(compressed, other.compressed);
+    }
+    return !other.isCompressed() && value.equals(other.value);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      h = isCompressed() ? Arrays.hashCode(compressed) : value.hashCode();
+      hash = h;
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    if (isCompressed()) {
+      return "compressed(" + compressed.length + "/" + rawSize + " bytes)";
+    }
+    return String.valueOf(value);
+  }
+}
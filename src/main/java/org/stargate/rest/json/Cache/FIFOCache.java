@@ -1,11 +1,9 @@
 package org.stargate.rest.json.Cache;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -19,15 +17,20 @@ import org.stargate.rest.json.KVDataType;
  * 2. Utilizes a list of pre-allocated cache slots for storing key-value pairs.
  * 3. Maintains a map for hash to index mapping and a queue for tracking the FIFO order.
  * 4. Implements FIFO eviction when the cache is full.
+ * 5. Every entry carries a version, a write only replaces an entry with an older version and deletes
+ *    leave a tombstone behind. Readers use optimistic StampedLock reads.
+ * 6. Evicted values are handed to the StaleArea, if there is one.
  */
 public class FIFOCache {
 
 
   private final int maxSlots; // Maximum number of slots in the cache
   private final List<FIFOCacheSlot> cacheSlots; // List of pre-allocated cache slots
-  private final List<Lock> locks; // List of locks for each cache slot
+  private final List<StampedLock> locks; // List of locks for each cache slot, readers are optimistic
   private final Queue<Integer> freeList; // Queue of indices of available slots
   private final Map<Integer, Integer> hashToIndexMap; // Map of hash values to slot indices
+  private final ValuePool pool; // Pool of deduplicated values, null if deduplication is off
+  private final StaleArea stale; // Holding area of evicted values, null if disabled
   private final Queue<Integer> fifoOrder; // Queue to maintain FIFO order for eviction
 
   private long hitCount = 0; // Number of cache hits
@@ -39,6 +42,30 @@ public class FIFOCache {
    * @param maxSlots The maximum number of slots in the cache.
    */
   public FIFOCache(int maxSlots) {
+    this(maxSlots, null);
+  }
+
+  /**
+   * Constructor for FIFOCache with value deduplication. Values put into the cache must be interned
+   * in the pool, the cache releases them when they are replaced or evicted.
+   *
+   * @param maxSlots The maximum number of slots in the cache.
+   * @param pool The value pool, null to disable deduplication.
+   */
+  public FIFOCache(int maxSlots, ValuePool pool) {
+    this(maxSlots, pool, null);
+  }
+
+  /**
+   * Constructor for FIFOCache with value deduplication and a holding area for evicted values.
+   *
+   * @param maxSlots The maximum number of slots in the cache.
+   * @param pool The value pool, null to disable deduplication.
+   * @param stale The holding area of evicted values, null to drop them.
+   */
+  public FIFOCache(int maxSlots, ValuePool pool, StaleArea stale) {
+    this.pool = pool;
+    this.stale = stale;
     this.maxSlots = maxSlots;
     // (int)(freeMemory * 0.8 / (128 * 1024)); // Allocate 80% of the memory, max size ofslots is 128KB
     this.fifoOrder = new ConcurrentLinkedQueue<>();
@@ -53,7 +80,7 @@ public class FIFOCache {
                 .collect(Collectors.toList())); // All indices are initially free
     this.locks =
         IntStream.range(0, maxSlots)
-            .mapToObj(i -> new ReentrantLock())
+            .mapToObj(i -> new StampedLock())
             .collect(Collectors.toList()); // Initialize lock objects
     this.hashToIndexMap = new ConcurrentHashMap<>(); // Initialize hash to index mapping
   }
@@ -65,104 +92,136 @@ public class FIFOCache {
    * @param key The key whose associated value is to be returned.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return JsonNode The value associated with the specified key, or null if no value is found.
+   * @return CacheEntry The value associated with the specified key with its version, or null if no value is found.
    */
-  public JsonNode get(String key, String keyspace, String table) {
+  public CacheEntry get(String key, String keyspace, String table) {
     totalRead++;
     int hash = _computeHash(key, keyspace, table);
     int index = hashToIndexMap.getOrDefault(hash, -1);
-    if (index != -1) {
-      // Might need to improve to read lock afterwards
-      FIFOCacheSlot slot = cacheSlots.get(index);
-      // Check whether the hashvalue matches, if not, the value already got evicted.
-      int slotHashvalue = slot.getHashvalue();
-      if (slotHashvalue != hash) {
-        return null;
-      }
-      if (slot.isUsed()) {
-        hitCount++;
-        return slot.getValue();
+    if (index == -1) {
+      return null;
+    }
+    FIFOCacheSlot slot = cacheSlots.get(index);
+    StampedLock lock = locks.get(index);
+    // Optimistic read, only fall back to the read lock if a writer got in between
+    long stamp = lock.tryOptimisticRead();
+    int slotHashvalue = slot.getHashvalue();
+    boolean used = slot.isUsed();
+    CacheValue value = slot.getValue();
+    long version = slot.getVersion();
+    long validatedAt = slot.getValidatedAt();
+    long expiresAt = slot.getExpiresAt();
+    boolean provisional = slot.isProvisional();
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        slotHashvalue = slot.getHashvalue();
+        used = slot.isUsed();
+        value = slot.getValue();
+        version = slot.getVersion();
+        validatedAt = slot.getValidatedAt();
+        expiresAt = slot.getExpiresAt();
+        provisional = slot.isProvisional();
+      } finally {
+        lock.unlockRead(stamp);
       }
+    }
+    // Check whether the hashvalue matches, if not, the value already got evicted.
+    if (slotHashvalue != hash || !used || value == null) {
       return null;
     }
-    return null;
+    hitCount++;
+    return new CacheEntry(value, version, validatedAt, expiresAt, provisional);
   }
 
   /**
-   * Deletes a key from the cache.
+   * Deletes a key from the cache. The slot is kept as a tombstone carrying the version of the delete,
+   * so that an older write or fill that arrives late cannot bring the value back. A key without slot
+   * takes none, a tombstone must not evict a live entry.
    *
    * @param key The key to be deleted.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return boolean True if the key was deleted, false otherwise.
+   * @param version The version of the delete.
+   * @return boolean True if the key was deleted, false if it has no slot or the cache already holds a newer version.
    */
-  public boolean delete(String key, String keyspace, String table) {
-    int hash = _computeHash(key, keyspace, table);
-    int index = hashToIndexMap.getOrDefault(hash, -1);
-
-    if (index != -1) {
-      Lock lock = locks.get(index);
-      lock.lock();
-      try {
-        FIFOCacheSlot slot = cacheSlots.get(index);
-        int slotHashvalue = slot.getHashvalue();
-        // Only proceed if hash matches
-        if (slotHashvalue != hash) {
-          lock.unlock();
-          return false;
-        }
-        slot.setUsed(false);
-        _putInFreeQueue(index);
-        _removehashToIndexMap(hash); // Remove hash to index mapping
-      } finally {
-        lock.unlock();
-      }
-      return true;
-    } else {
-      return false;
-    }
+  public boolean delete(String key, String keyspace, String table, long version) {
+    return _write(key, null, keyspace, table, null, version, CacheEntry.NO_EXPIRY, false);
   }
 
   /**
-   * Puts a key-value pair into the cache.
+   * Puts a key-value pair into the cache, unless the cache already holds a newer version of the key.
    *
    * @param key The key with which the specified value is to be associated.
    * @param value The value to be associated with the specified key.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
    * @param valueType The data type of the value.
+   * @param version The version of the value.
+   * @param expiresAt The time in milliseconds the value expires, CacheEntry.NO_EXPIRY if never.
+   * @param provisional Whether the version only orders the write, see CacheEntry.
+   * @return boolean True if the value was stored, false if the cache already holds a newer version.
    */
-  public void put(
-      String key, JsonNode value, String keyspace, String table, KVDataType valueType) {
-    int hash = _computeHash(key, keyspace, table);
-    int index;
-    Lock lock;
-
-    index = hashToIndexMap.getOrDefault(hash, -1);
-    if (index == -1) { // Go to create in this case
-      _create(key, value, keyspace, table, valueType);
-      return;
-    }
-
-    assert index != -1;
+  public boolean put(
+      String key,
+      CacheValue value,
+      String keyspace,
+      String table,
+      KVDataType valueType,
+      long version,
+      long expiresAt,
+      boolean provisional) {
+    return _write(key, value, keyspace, table, valueType, version, expiresAt, provisional);
+  }
 
-    lock = locks.get(index);
-    lock.lock();
-    try {
-      FIFOCacheSlot slot = cacheSlots.get(index);
-      assert slot.isUsed();
-      int slotHashvalue = slot.getHashvalue();
-      // If hash does not match, this one got evicted, go to create logic
-      if (slotHashvalue != hash) {
-        lock.unlock();
-        _create(key, value, keyspace, table, valueType);
+  /**
+   * Marks an entry as current after it was checked against Cassandra, optionally replacing its value.
+   * Nothing happens if the entry changed since it was read, a newer write always wins.
+   *
+   * @param key The key of the entry.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param expectedVersion The version of the entry that was checked.
+   * @param value The refetched value, null to keep the cached one.
+   * @param version The version of the refetched value.
+   * @param expiresAt The time in milliseconds the refetched value expires.
+   * @return boolean True if the entry was revalidated.
+   */
+  public boolean revalidate(
+      String key,
+      String keyspace,
+      String table,
+      long expectedVersion,
+      CacheValue value,
+      long version,
+      long expiresAt) {
+    int hash = _computeHash(key, keyspace, table);
+    int index = hashToIndexMap.getOrDefault(hash, -1);
+    if (index != -1) {
+      StampedLock lock = locks.get(index);
+      long stamp = lock.writeLock();
+      try {
+        FIFOCacheSlot slot = cacheSlots.get(index);
+        if (slot.getHashvalue() == hash
+            && slot.isUsed()
+            && !slot.isTombstone()
+            && slot.getVersion() == expectedVersion) {
+          if (value != null) {
+            _release(slot.getValue());
+            slot.setValue(value);
+            slot.setVersion(version);
+            slot.setExpiresAt(expiresAt);
+            slot.setProvisional(false);
+          }
+          slot.setValidatedAt(System.currentTimeMillis());
+          return true;
+        }
+      } finally {
+        lock.unlockWrite(stamp);
       }
-      slot.setValue(value);
-      slot.setValueType(valueType);
-
-    } finally {
-      lock.unlock();
     }
+    _release(value);
+    return false;
   }
 
   /**
@@ -195,11 +254,30 @@ public class FIFOCache {
   }
 
   /**
-   * Helper function, check whether the cache is full
-   * @return true if the cache is full, false otherwise
+   * Helper function, move the value of an evicted slot to the stale area. Must hold the write lock
+   * of the slot
+   * @param slot the slot, its value is null for a free slot or a tombstone
+   */
+  private void _keepStale(FIFOCacheSlot slot) {
+    if (stale != null && slot.getValue() != null) {
+      stale.offer(
+          StaleArea.hashKey(slot.getKey(), slot.getKeyspace(), slot.getTable()),
+          slot.getValue(),
+          slot.getVersion(),
+          slot.getValidatedAt(),
+          slot.getExpiresAt(),
+          slot.isProvisional());
+    }
+  }
+
+  /**
+   * Helper function, release a value that is no longer referenced by a slot
+   * @param value the value, may be null
    */
-  private void _removehashToIndexMap(int hash) {
-    hashToIndexMap.remove(hash);
+  private void _release(CacheValue value) {
+    if (pool != null) {
+      pool.release(value);
+    }
   }
 
   /**
@@ -213,32 +291,99 @@ public class FIFOCache {
   }
 
   /**
-   * Helper function, create a new key value pair in cache
+   * Helper function, write a value or a tombstone (null value) for a key
    * @param key the key
-   * @param value the value
+   * @param value the value, null for a delete
    * @param keyspace the keyspace
    * @param table the table
    * @param valueType the value type
+   * @param version the version of the write
+   * @param expiresAt the time in milliseconds the value expires
+   * @param provisional whether the version only orders the write
+   * @return true if the write was applied, false if the slot holds a newer version
    */
-  private void _create(
-      String key, JsonNode value, String keyspace, String table, KVDataType valueType) {
+  private boolean _write(
+      String key,
+      CacheValue value,
+      String keyspace,
+      String table,
+      KVDataType valueType,
+      long version,
+      long expiresAt,
+      boolean provisional) {
     int hash = _computeHash(key, keyspace, table);
-    int index;
-    Lock lock;
+    while (true) {
+      int index = hashToIndexMap.getOrDefault(hash, -1);
+      if (index == -1) { // Go to create in this case
+        if (value == null) {
+          return false; // No tombstone for a key that is not cached
+        }
+        if (_create(
+            key, value, keyspace, table, valueType, version, expiresAt, provisional, hash)) {
+          return true;
+        }
+        continue; // Another thread created the key first, retry as an update
+      }
 
-    index = hashToIndexMap.getOrDefault(hash, -1);
-    // if (index != -1) { // Go to update in this case
-    //   this.put(key, value, keyspace, table, valueType);
-    // }
+      StampedLock lock = locks.get(index);
+      long stamp = lock.writeLock();
+      try {
+        FIFOCacheSlot slot = cacheSlots.get(index);
+        // If hash does not match, this one got evicted, go to create logic
+        if (slot.getHashvalue() != hash || !slot.isUsed()) {
+          continue;
+        }
+        // Never let an older write or fill overwrite a newer one
+        if (slot.getVersion() >= version) {
+          _release(value);
+          return false;
+        }
+        _release(slot.getValue());
+        slot.setValue(value);
+        slot.setValueType(valueType);
+        slot.setVersion(version);
+        slot.setExpiresAt(expiresAt);
+        slot.setProvisional(provisional);
+        slot.setValidatedAt(System.currentTimeMillis());
+        return true;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+  }
 
-    assert index == -1;
+  /**
+   * Helper function, create a new key value pair in cache. The slot is filled before it is published
+   * in hashToIndexMap, if another thread published the same key first the slot is given back.
+   * @param key the key
+   * @param value the value
+   * @param keyspace the keyspace
+   * @param table the table
+   * @param valueType the value type
+   * @param version the version of the value
+   * @param expiresAt the time in milliseconds the value expires
+   * @param provisional whether the version only orders the write
+   * @param hash the hash of the key
+   * @return true if the key was created, false if it already exists
+   */
+  private boolean _create(
+      String key,
+      CacheValue value,
+      String keyspace,
+      String table,
+      KVDataType valueType,
+      long version,
+      long expiresAt,
+      boolean provisional,
+      int hash) {
+    int index;
     synchronized (freeList) {
       if (!freeList.isEmpty()) {
         index = freeList.poll(); // Get a free slot index
       } else {
         // Handle cache full - eviction logic
         Integer oldestHash = null;
-        // Lazy Cleanup for issue in delete method (The element in queue might already got deleted)
+        // Lazy Cleanup, the element in queue might already got evicted or replaced
         while (oldestHash == null || !hashToIndexMap.containsKey(oldestHash)) {
           oldestHash = fifoOrder.poll(); // Get the oldest hash, might already be deleted
           if (oldestHash == null) {
@@ -250,14 +395,14 @@ public class FIFOCache {
         index = hashToIndexMap.remove(oldestHash); // Remove the oldest hash and get its index
       }
     }
-    hashToIndexMap.put(hash, index);
-
-    lock = locks.get(index);
-    lock.lock();
 
+    StampedLock lock = locks.get(index);
+    FIFOCacheSlot cacheslot = cacheSlots.get(index);
+    long stamp = lock.writeLock();
     try {
-      FIFOCacheSlot cacheslot = cacheSlots.get(index);
       // Now, you can reuse the evicted slot for the new key-value pair
+      _keepStale(cacheslot);
+      _release(cacheslot.getValue()); // The value of an evicted key, null for a free slot
       cacheslot.setUsed(true);
       cacheslot.setValue(value);
       cacheslot.setKey(key);
@@ -265,10 +410,28 @@ public class FIFOCache {
       cacheslot.setTable(table);
       cacheslot.setValueType(valueType);
       cacheslot.setHashvalue(hash);
-
-      fifoOrder.offer(hash); // Add new hash to fifo order
+      cacheslot.setVersion(version);
+      cacheslot.setExpiresAt(expiresAt);
+      cacheslot.setProvisional(provisional);
+      cacheslot.setValidatedAt(System.currentTimeMillis());
     } finally {
-      lock.unlock();
+      lock.unlockWrite(stamp);
+    }
+
+    if (hashToIndexMap.putIfAbsent(hash, index) != null) {
+      // Lost the race, release the slot again
+      stamp = lock.writeLock();
+      try {
+        cacheslot.setUsed(false);
+        cacheslot.setValue(null);
+        cacheslot.setHashvalue(-1);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+      _putInFreeQueue(index);
+      return false;
     }
+    fifoOrder.offer(hash); // Add new hash to fifo order
+    return true;
   }
 }
@@ -2,24 +2,26 @@ package org.stargate.rest.json.Cache;
 
 import org.stargate.rest.json.KVDataType;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
 /**
  * FIFOCacheSlot - Represents a single slot in the FIFOCache.
  * It encapsulates a key-value pair along with additional metadata required for cache management.
  */
 public class FIFOCacheSlot {
   private String key;
-  public JsonNode value;
+  public CacheValue value;
   private String keyspace;
   private String table;
   private KVDataType valueType;
   private boolean used;
   private int hashvalue;
+  private long version; // Version of the write that produced the value, see KVCache
+  private long validatedAt; // Time in milliseconds the value was written or last revalidated
+  private long expiresAt = CacheEntry.NO_EXPIRY; // Time in milliseconds the value expires, see CacheEntry
+  private boolean provisional; // Whether the version is not the Cassandra write timestamp, see CacheEntry
 
   public FIFOCacheSlot(
       String key,
-      JsonNode value,
+      CacheValue value,
       String keyspace,
       String table,
       KVDataType kvDataType,
@@ -34,11 +36,11 @@ public class FIFOCacheSlot {
     this.hashvalue = hashvalue;
   }
 
-  public JsonNode getValue() {
+  public CacheValue getValue() {
     return this.value;
   }
 
-  public void setValue(JsonNode value) {
+  public void setValue(CacheValue value) {
     this.value = value;
   }
 
@@ -58,14 +60,26 @@ public class FIFOCacheSlot {
     this.used = used;
   }
 
+  public String getKey() {
+    return this.key;
+  }
+
   public void setKey(String key) {
     this.key = key;
   }
 
+  public String getKeyspace() {
+    return this.keyspace;
+  }
+
   public void setKeyspace(String keyspace) {
     this.keyspace = keyspace;
   }
 
+  public String getTable() {
+    return this.table;
+  }
+
   public void setTable(String table) {
     this.table = table;
   }
@@ -78,6 +92,47 @@ public class FIFOCacheSlot {
     return this.hashvalue;
   }
 
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  public long getVersion() {
+    return this.version;
+  }
+
+  public void setValidatedAt(long validatedAt) {
+    this.validatedAt = validatedAt;
+  }
+
+  public long getValidatedAt() {
+    return this.validatedAt;
+  }
+
+  public void setExpiresAt(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  public long getExpiresAt() {
+    return this.expiresAt;
+  }
+
+  public void setProvisional(boolean provisional) {
+    this.provisional = provisional;
+  }
+
+  public boolean isProvisional() {
+    return this.provisional;
+  }
+
+  /**
+   * A used slot without value marks a deleted key.
+   *
+   * @return boolean True if the slot holds a delete marker.
+   */
+  public boolean isTombstone() {
+    return this.used && this.value == null;
+  }
+
   @Override
   public String toString() {
     return "KVCacheSlot{"
@@ -98,6 +153,14 @@ public class FIFOCacheSlot {
         + used
         + ", hashvalue="
         + hashvalue
+        + ", version="
+        + version
+        + ", validatedAt="
+        + validatedAt
+        + ", expiresAt="
+        + expiresAt
+        + ", provisional="
+        + provisional
         + '}';
   }
 }
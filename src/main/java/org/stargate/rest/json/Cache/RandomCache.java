@@ -1,10 +1,8 @@
 package org.stargate.rest.json.Cache;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -16,6 +14,9 @@ import java.util.stream.IntStream;
  * 2. Utilizes an array of cacheSlots to store key-value pairs.
  * 3. Maintains a map for hash value to index mapping.
  * 4. Implements simple random eviction when the cache is full.
+ * 5. Every entry carries a version, a write only replaces an entry with an older version and deletes
+ *    leave a tombstone behind. Slots are immutable and readers use optimistic StampedLock reads.
+ * 6. Evicted values are handed to the StaleArea, if there is one.
  */
 
 public class RandomCache {
@@ -23,10 +24,11 @@ public class RandomCache {
   private final int maxSize; // Maximum size of the cache
   private final Map<String, Integer> hashToIndexMap; // Map to store hash to index mapping
   private final List<RandomCacheSlot> cacheSlots; // Array of cache slots
-  private final List<Lock> locks; // Lock for each slot
-  private final Lock sizeLock; // Lock for managing the size of the cache
+  private final StampedLock lock; // Guards the slots and the size, readers are optimistic
   private int size; // Current size of the cache
   private Random rand; // Random number generator for eviction policy
+  private final ValuePool pool; // Pool of deduplicated values, null if deduplication is off
+  private final StaleArea stale; // Holding area of evicted values, null if disabled
 
   // Cache hit and read statistics
   long hitCount = 0;
@@ -38,19 +40,38 @@ public class RandomCache {
    * @param maxSize The maximum size of the cache.
    */
   public RandomCache(int maxSize) {
+    this(maxSize, null);
+  }
+
+  /**
+   * Constructor for RandomCache with value deduplication. Values put into the cache must be interned
+   * in the pool, the cache releases them when they are replaced or evicted.
+   *
+   * @param maxSize The maximum size of the cache.
+   * @param pool The value pool, null to disable deduplication.
+   */
+  public RandomCache(int maxSize, ValuePool pool) {
+    this(maxSize, pool, null);
+  }
+
+  /**
+   * Constructor for RandomCache with value deduplication and a holding area for evicted values.
+   *
+   * @param maxSize The maximum size of the cache.
+   * @param pool The value pool, null to disable deduplication.
+   * @param stale The holding area of evicted values, null to drop them.
+   */
+  public RandomCache(int maxSize, ValuePool pool, StaleArea stale) {
+    this.pool = pool;
+    this.stale = stale;
     this.maxSize = maxSize;
     this.hashToIndexMap = new ConcurrentHashMap<>();
     // create an array of cacheSlots with size maxSize
     this.cacheSlots =
         IntStream.range(0, maxSize)
-            .mapToObj(i -> new RandomCacheSlot(null, null))
-            .collect(Collectors.toList());
-
-    this.locks =
-        IntStream.range(0, maxSize)
-            .mapToObj(i -> new ReentrantLock())
+            .mapToObj(i -> (RandomCacheSlot) null)
             .collect(Collectors.toList());
-    this.sizeLock = new ReentrantLock(); // lock for size
+    this.lock = new StampedLock();
     this.size = 0;
     this.rand = new Random();
   }
@@ -61,66 +82,125 @@ public class RandomCache {
    * @param key The key whose associated value is to be returned.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return JsonNode The value associated with the specified key, or null if no value is found.
+   * @return CacheEntry The value associated with the specified key with its version, or null if no value is found.
    */
-  public JsonNode get(String key, String keyspace, String table) { // get function
+  public CacheEntry get(String key, String keyspace, String table) { // get function
     totalRead++;
     String hashkey = _computeHash(key, keyspace, table);
-    int index = hashToIndexMap.getOrDefault(hashkey, -1);
-    if (index == -1) {
+    // Slots are immutable, an optimistic read only has to check that no slot was moved meanwhile
+    long stamp = lock.tryOptimisticRead();
+    RandomCacheSlot slot = _find(hashkey);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        slot = _find(hashkey);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    if (slot == null || slot.getValue() == null) {
       return null;
     }
-
-    locks.get(index).lock();
-    JsonNode result = cacheSlots.get(index).getValue();
-    locks.get(index).unlock();
     hitCount++;
-    return result;
+    return new CacheEntry(
+        slot.getValue(),
+        slot.getVersion(),
+        slot.getValidatedAt(),
+        slot.getExpiresAt(),
+        slot.isProvisional());
   }
 
   /**
-   * Deletes a key from the cache.
+   * Deletes a key from the cache. The slot is kept as a tombstone carrying the version of the delete,
+   * so that an older write or fill that arrives late cannot bring the value back. A key without slot
+   * takes none, a tombstone must not evict a live entry.
    *
    * @param key The key to be deleted.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return boolean True if the key was deleted, false otherwise.
+   * @param version The version of the delete.
+   * @return boolean True if the key was deleted, false if it has no slot or the cache already holds a newer version.
    */  
-  public boolean delete(String key, String keyspace, String table) {
-    String hashkey = _computeHash(key, keyspace, table);
-    int index = hashToIndexMap.getOrDefault(hashkey, -1);
-    
-    if (index == -1) {
-      return false;
-    }
-        
-    sizeLock.lock();
-    _delete(index);
-    sizeLock.unlock();
-    return true;
+  public boolean delete(String key, String keyspace, String table, long version) {
+    return _write(_computeHash(key, keyspace, table), null, version, CacheEntry.NO_EXPIRY, false);
   }
 
   /**
-   * Puts a key-value pair into the cache.
+   * Puts a key-value pair into the cache, unless the cache already holds a newer version of the key.
    *
    * @param key The key with which the specified value is to be associated.
    * @param value The value to be associated with the specified key.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
+   * @param version The version of the value.
+   * @param expiresAt The time in milliseconds the value expires, CacheEntry.NO_EXPIRY if never.
+   * @param provisional Whether the version only orders the write, see CacheEntry.
+   * @return boolean True if the value was stored, false if the cache already holds a newer version.
+   */
+  public boolean put(
+      String key,
+      CacheValue value,
+      String keyspace,
+      String table,
+      long version,
+      long expiresAt,
+      boolean provisional) {
+    return _write(_computeHash(key, keyspace, table), value, version, expiresAt, provisional);
+  }
+
+  /**
+   * Marks an entry as current after it was checked against Cassandra, optionally replacing its value.
+   * Nothing happens if the entry changed since it was read, a newer write always wins.
+   *
+   * @param key The key of the entry.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param expectedVersion The version of the entry that was checked.
+   * @param value The refetched value, null to keep the cached one.
+   * @param version The version of the refetched value.
+   * @param expiresAt The time in milliseconds the refetched value expires.
+   * @return boolean True if the entry was revalidated.
    */
-  public void put(String key, JsonNode value, String keyspace, String table) {
+  public boolean revalidate(
+      String key,
+      String keyspace,
+      String table,
+      long expectedVersion,
+      CacheValue value,
+      long version,
+      long expiresAt) {
     String hashkey = _computeHash(key, keyspace, table);
-    // if cache is full, randomly evict one key
-    sizeLock.lock();
-    if (_isFull()) {
-      // randomly select a key to evict
-        int index = rand.nextInt(size);
-        _delete(index);
+    long stamp = lock.writeLock();
+    try {
+      int index = hashToIndexMap.getOrDefault(hashkey, -1);
+      if (index != -1) {
+        RandomCacheSlot slot = cacheSlots.get(index);
+        if (slot.getValue() != null && slot.getVersion() == expectedVersion) {
+          if (value == null) {
+            cacheSlots.set(
+                index,
+                new RandomCacheSlot(
+                    hashkey,
+                    slot.getValue(),
+                    expectedVersion,
+                    System.currentTimeMillis(),
+                    slot.getExpiresAt(),
+                    slot.isProvisional()));
+          } else {
+            _release(slot.getValue());
+            cacheSlots.set(
+                index,
+                new RandomCacheSlot(
+                    hashkey, value, version, System.currentTimeMillis(), expiresAt, false));
+          }
+          return true;
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
     }
-    // add new key value pair in size
-    cacheSlots.set(size, new RandomCacheSlot(hashkey, value));
-    hashToIndexMap.put(hashkey, size++);
-    sizeLock.unlock();
+    _release(value);
+    return false;
   }
 
   /**
@@ -133,7 +213,6 @@ public class RandomCache {
             + maxSize
             + ", current size: "
             + size
-            + ", hit ratio:"
             + ", hit ratio: "
             + String.format("%.2f", (double) hitCount / totalRead * 100) + "%";
   }
@@ -153,27 +232,109 @@ public class RandomCache {
   }
 
   /**
-   * Internal method to delete a cache entry at a given index.
+   * Finds the slot of a hash key. Must not throw, it is also called during optimistic reads.
+   *
+   * @param hashkey The hash key.
+   * @return RandomCacheSlot The slot, or null if the key is not in the cache.
+   */
+  private RandomCacheSlot _find(String hashkey) {
+    int index = hashToIndexMap.getOrDefault(hashkey, -1);
+    if (index < 0 || index >= maxSize) {
+      return null;
+    }
+    RandomCacheSlot slot = cacheSlots.get(index);
+    if (slot == null || !hashkey.equals(slot.getHashKey())) {
+      return null;
+    }
+    return slot;
+  }
+
+  /**
+   * Internal method to write a value or a tombstone (null value) for a hash key.
+   *
+   * @param hashkey The hash key.
+   * @param value The value, null for a delete.
+   * @param version The version of the write.
+   * @param expiresAt The time in milliseconds the value expires.
+   * @param provisional Whether the version only orders the write.
+   * @return boolean True if the write was applied, false if the cache holds a newer version.
+   */
+  private boolean _write(
+      String hashkey, CacheValue value, long version, long expiresAt, boolean provisional) {
+    long stamp = lock.writeLock();
+    try {
+      int index = hashToIndexMap.getOrDefault(hashkey, -1);
+      if (index != -1) {
+        // Never let an older write or fill overwrite a newer one
+        if (cacheSlots.get(index).getVersion() >= version) {
+          _release(value);
+          return false;
+        }
+        _release(cacheSlots.get(index).getValue());
+        cacheSlots.set(
+            index,
+            new RandomCacheSlot(
+                hashkey, value, version, System.currentTimeMillis(), expiresAt, provisional));
+        return true;
+      }
+      if (value == null) {
+        return false; // no tombstone for a key that is not cached
+      }
+      // if cache is full, randomly evict one key
+      if (_isFull()) {
+        _delete(rand.nextInt(size));
+      }
+      // add new key value pair in size
+      cacheSlots.set(
+          size,
+          new RandomCacheSlot(
+              hashkey, value, version, System.currentTimeMillis(), expiresAt, provisional));
+      hashToIndexMap.put(hashkey, size++);
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Internal method to delete a cache entry at a given index. Must hold the write lock.
    *
    * @param index The index of the cache entry to be deleted.
    */
   private void _delete(int index) {
-    locks.get(index).lock();
-
-    String hashkey = cacheSlots.get(index).getHashKey();
+    RandomCacheSlot slot = cacheSlots.get(index);
+    String hashkey = slot.getHashKey();
+    if (stale != null) {
+      // the value of the evicted key, null for a tombstone
+      stale.offer(
+          hashkey,
+          slot.getValue(),
+          slot.getVersion(),
+          slot.getValidatedAt(),
+          slot.getExpiresAt(),
+          slot.isProvisional());
+    }
+    _release(slot.getValue());
     hashToIndexMap.remove(hashkey);
     size--;
     // if index is not the last element, swap the last element to index
     if (index != size) {
-      locks.get(size).lock();
       RandomCacheSlot lastElement = cacheSlots.get(size);
       cacheSlots.set(index, lastElement);
-      String lastHashkey = lastElement.getHashKey();
-      hashToIndexMap.put(lastHashkey, index);
-      locks.get(size).unlock();
+      hashToIndexMap.put(lastElement.getHashKey(), index);
+    }
+    cacheSlots.set(size, null);
+  }
+
+  /**
+   * Internal method to release a value that is no longer referenced by a slot.
+   *
+   * @param value The value, may be null.
+   */
+  private void _release(CacheValue value) {
+    if (pool != null) {
+      pool.release(value);
     }
-    
-    locks.get(index).unlock();
   }
 
   /**
@@ -1,7 +1,6 @@
 package org.stargate.rest.json.Cache;
 
 import org.stargate.rest.json.KVDataType;
-import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * Class RandomCacheSlot - Represents a single slot in the RandomCache.
@@ -9,10 +8,22 @@ import com.fasterxml.jackson.databind.JsonNode;
  */
 public class RandomCacheSlot {
   // The hash key used for identifying the cache slot
-  private String hashKey;
+  private final String hashKey;
 
-  // The value stored in the cache slot
-  private JsonNode value;
+  // The value stored in the cache slot, null if the key got deleted
+  private final CacheValue value;
+
+  // Version of the write that produced the value, see KVCache
+  private final long version;
+
+  // Time in milliseconds the value was written or last revalidated
+  private final long validatedAt;
+
+  // Time in milliseconds the value expires, see CacheEntry
+  private final long expiresAt;
+
+  // Whether the version is not the Cassandra write timestamp, see CacheEntry
+  private final boolean provisional;
 
   // The data type of the value (currently unused but can be utilized for type-specific operations)
   private KVDataType valueType;
@@ -22,21 +33,71 @@ public class RandomCacheSlot {
    *
    * @param hashKey The hash key associated with this cache slot.
    * @param value The value to be stored in this cache slot.
+   * @param version The version of the value.
+   * @param validatedAt The time in milliseconds the value was written or last revalidated.
+   * @param expiresAt The time in milliseconds the value expires, Long.MAX_VALUE if never.
+   * @param provisional Whether the version is not the Cassandra write timestamp of the value.
    */
-  public RandomCacheSlot(String hashKey, JsonNode value) {
+  public RandomCacheSlot(
+      String hashKey,
+      CacheValue value,
+      long version,
+      long validatedAt,
+      long expiresAt,
+      boolean provisional) {
     this.hashKey = hashKey;
     this.value = value;
+    this.version = version;
+    this.validatedAt = validatedAt;
+    this.expiresAt = expiresAt;
+    this.provisional = provisional;
   }
 
   /**
    * Retrieves the value stored in this cache slot.
    *
-   * @return JsonNode The value stored in the cache slot.
+   * @return CacheValue The value stored in the cache slot.
    */
-  public JsonNode getValue() {
+  public CacheValue getValue() {
     return this.value;
   }
 
+  /**
+   * Retrieves the version of the value stored in this cache slot.
+   *
+   * @return long The version.
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Retrieves the time the value was written or last revalidated.
+   *
+   * @return long The time in milliseconds.
+   */
+  public long getValidatedAt() {
+    return this.validatedAt;
+  }
+
+  /**
+   * Retrieves the time the value expires.
+   *
+   * @return long The time in milliseconds, Long.MAX_VALUE if never.
+   */
+  public long getExpiresAt() {
+    return this.expiresAt;
+  }
+
+  /**
+   * Checks whether the version only orders the write, see CacheEntry.
+   *
+   * @return boolean True if the version is not the Cassandra write timestamp.
+   */
+  public boolean isProvisional() {
+    return this.provisional;
+  }
+
   /**
    * Retrieves the hash key associated with this cache slot.
    *
@@ -61,6 +122,14 @@ public class RandomCacheSlot {
         + value
         + ", valueType="
         + valueType
+        + ", version="
+        + version
+        + ", validatedAt="
+        + validatedAt
+        + ", expiresAt="
+        + expiresAt
+        + ", provisional="
+        + provisional
         + '}';
   }
 }
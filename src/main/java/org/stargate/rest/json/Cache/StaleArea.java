@@ -0,0 +1,108 @@
+package org.stargate.rest.json.Cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StaleArea - Holding area for values evicted from the cache.
+ *
+ * Design:
+ * 1. Evicted values are kept with their version and validation time, indexed by keyspace, table and
+ *    key, until the area is full and the least recently evicted or read one is dropped.
+ * 2. They are never served as current values, only while Cassandra is unavailable (see KVCache).
+ * 3. A write or delete of a key drops it from the area, so a deleted value is never brought back.
+ */
+public class StaleArea {
+  private final int maxSize; // Maximum number of values held
+  private final LinkedHashMap<String, CacheEntry> entries; // Evicted values in LRU order
+
+  /**
+   * Constructor for StaleArea.
+   *
+   * @param maxSize The maximum number of values held.
+   */
+  public StaleArea(int maxSize) {
+    this.maxSize = maxSize;
+    this.entries =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+          protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > StaleArea.this.maxSize;
+          }
+        };
+  }
+
+  /**
+   * Computes the index of a key, the same one RandomCache uses.
+   *
+   * @param key The key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @return String The index of the key.
+   */
+  public static String hashKey(String key, String keyspace, String table) {
+    return keyspace + "%" + table + "%" + key;
+  }
+
+  /**
+   * Keeps an evicted value. Tombstones are not kept.
+   *
+   * @param hashKey The index of the key, see hashKey.
+   * @param value The evicted value, null for a tombstone.
+   * @param version The version of the value.
+   * @param validatedAt The time in milliseconds the value was last known to be current.
+   * @param expiresAt The time in milliseconds the value expires.
+   * @param provisional Whether the version is not the Cassandra write timestamp of the value.
+   */
+  public void offer(
+      String hashKey,
+      CacheValue value,
+      long version,
+      long validatedAt,
+      long expiresAt,
+      boolean provisional) {
+    if (value == null) {
+      return;
+    }
+    synchronized (entries) {
+      entries.put(hashKey, new CacheEntry(value, version, validatedAt, expiresAt, provisional));
+    }
+  }
+
+  /**
+   * Retrieves an evicted value.
+   *
+   * @param key The key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @return CacheEntry The evicted value with its version and validation time, or null.
+   */
+  public CacheEntry get(String key, String keyspace, String table) {
+    synchronized (entries) {
+      return entries.get(hashKey(key, keyspace, table));
+    }
+  }
+
+  /**
+   * Drops the evicted value of a key after it was written or deleted.
+   *
+   * @param key The key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   */
+  public void remove(String key, String keyspace, String table) {
+    synchronized (entries) {
+      entries.remove(hashKey(key, keyspace, table));
+    }
+  }
+
+  /**
+   * Retrieves the number of values held.
+   *
+   * @return int The number of values.
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+}
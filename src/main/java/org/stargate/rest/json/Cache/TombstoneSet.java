@@ -0,0 +1,79 @@
+package org.stargate.rest.json.Cache;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TombstoneSet - Bounded record of recent deletes of keys that have no cache slot.
+ *
+ * Design:
+ * 1. The caches only leave a tombstone in a slot the key already has, a delete of a key that is not
+ *    cached must not evict a live entry to make room for its tombstone.
+ * 2. Such deletes are recorded here instead, with their version, so that a fill that read the value
+ *    before the delete and arrives late cannot bring it back (see KVCache).
+ * 3. Once more than maxSize deletes are recorded the oldest one is dropped. Lookups take no lock.
+ */
+public class TombstoneSet {
+  private final int maxSize; // Maximum number of deletes recorded
+  private final Map<String, Long> versions; // Version of the latest delete of each key
+  private final Queue<String> order; // Keys in the order they were deleted, guarded by add
+
+  /**
+   * Constructor for TombstoneSet.
+   *
+   * @param maxSize The maximum number of deletes recorded.
+   */
+  public TombstoneSet(int maxSize) {
+    this.maxSize = maxSize;
+    this.versions = new ConcurrentHashMap<>();
+    this.order = new ArrayDeque<>();
+  }
+
+  /**
+   * Records a delete, dropping the oldest one once the set is full.
+   *
+   * @param key The key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The version of the delete.
+   */
+  public synchronized void add(String key, String keyspace, String table, long version) {
+    String hashKey = StaleArea.hashKey(key, keyspace, table);
+    if (versions.putIfAbsent(hashKey, version) != null) {
+      versions.merge(hashKey, version, Math::max); // already queued, only the version moves
+      return;
+    }
+    order.offer(hashKey);
+    if (versions.size() > maxSize) {
+      versions.remove(order.poll());
+    }
+  }
+
+  /**
+   * Checks whether a write is older than a recorded delete of its key.
+   *
+   * @param key The key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The version of the write.
+   * @return boolean True if the key was deleted with the same or a newer version.
+   */
+  public boolean covers(String key, String keyspace, String table, long version) {
+    if (versions.isEmpty()) {
+      return false;
+    }
+    Long deleted = versions.get(StaleArea.hashKey(key, keyspace, table));
+    return deleted != null && deleted >= version;
+  }
+
+  /**
+   * Retrieves the number of deletes recorded.
+   *
+   * @return int The number of deletes.
+   */
+  public int size() {
+    return versions.size();
+  }
+}
@@ -0,0 +1,85 @@
+package org.stargate.rest.json.Cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ValuePool - Content-addressed, reference-counted pool of cache values.
+ *
+ * Design:
+ * 1. Values are indexed by their content hash, equal values share one CacheValue instance.
+ * 2. Every cache slot pointing at a pooled value holds one reference.
+ * 3. A value leaves the pool when its last reference is released.
+ */
+public class ValuePool {
+  private final ConcurrentHashMap<CacheValue, PooledValue> pool; // Map of content to pooled value
+  private final AtomicLong references; // Number of slots pointing into the pool
+
+  /** A pooled value and the number of slots referencing it. */
+  private static class PooledValue {
+    final CacheValue value;
+    long refCount;
+
+    PooledValue(CacheValue value) {
+      this.value = value;
+      this.refCount = 1;
+    }
+  }
+
+  /** Constructor for ValuePool. */
+  public ValuePool() {
+    this.pool = new ConcurrentHashMap<>();
+    this.references = new AtomicLong();
+  }
+
+  /**
+   * Returns the pooled instance of a value and takes a reference on it.
+   *
+   * @param value The value.
+   * @return CacheValue The shared instance with the same content.
+   */
+  public CacheValue intern(CacheValue value) {
+    PooledValue pooled =
+        pool.compute(
+            value,
+            (k, existing) -> {
+              if (existing == null) {
+                return new PooledValue(value);
+              }
+              existing.refCount++;
+              return existing;
+            });
+    references.incrementAndGet();
+    return pooled.value;
+  }
+
+  /**
+   * Releases a reference on a pooled value, the value leaves the pool with its last reference.
+   *
+   * @param value The value, null is ignored.
+   */
+  public void release(CacheValue value) {
+    if (value == null) {
+      return;
+    }
+    pool.computeIfPresent(value, (k, existing) -> --existing.refCount == 0 ? null : existing);
+    references.decrementAndGet();
+  }
+
+  /**
+   * Retrieves information about the pool: references, unique values and the deduplication ratio.
+   *
+   * @return String Information about the pool.
+   */
+  public String getPoolInfo() {
+    long unique = pool.size();
+    long refs = references.get();
+    return "deduplication ratio: "
+        + String.format("%.2f", unique == 0 ? 1.0 : (double) refs / unique)
+        + " ("
+        + refs
+        + " references, "
+        + unique
+        + " unique values)";
+  }
+}
@@ -1,15 +1,19 @@
 package org.stargate.rest.json;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.util.List;
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.stargate.rest.json.Cache.CacheEntry;
+import org.stargate.rest.json.Cache.CacheValue;
 import org.stargate.rest.json.Cache.FIFOCache;
 import org.stargate.rest.json.Cache.RandomCache;
 import org.stargate.rest.json.Cache.LRUCache;
+import org.stargate.rest.json.Cache.StaleArea;
+import org.stargate.rest.json.Cache.TombstoneSet;
+import org.stargate.rest.json.Cache.ValuePool;
 
 // define enum of EvcitionPolicy, FIFO, RANDOM and NONE
 enum EvictionPolicy {
@@ -21,29 +25,94 @@ enum EvictionPolicy {
 
 /**
  * Class KVCache - Manages caching for key-value pairs with support for different eviction policies.
+ *
+ * Every cache entry carries a version. Writes use the timestamp they were written to Cassandra with
+ * (see KVClock), so an older write can never replace a newer one no matter in which order the
+ * requests finish. Cassandra assigns the timestamp of a lightweight transaction itself, such a write
+ * is cached with the clock value taken before it as a provisional version: it orders the write like
+ * any other, but it is not the writetime of the value, so the entry is stale-suspect until it has
+ * been refetched with its writetime (see putConditional). Deletes leave a
+ * tombstone with their version behind, in the slot of a cached key or, for a key that is not cached,
+ * in a TombstoneSet as large as the cache, so a delete never evicts a live entry. Values filled from
+ * a Cassandra read use their writetime as version when it is known, otherwise FILL_VERSION, which
+ * only populates keys without entry.
+ *
+ * Since a version that is not provisional is the Cassandra writetime of the value, an entry can be
+ * revalidated cheaply: once it is older than kvstore.cache.revalidate-after-ms it becomes
+ * stale-suspect, and the caller checks its writetime against Cassandra before serving it (see
+ * KeyValueResource).
+ *
+ * With deduplication enabled, cached values are interned in a content-addressed ValuePool, so keys
+ * holding equal values share a single copy.
+ *
+ * Values evicted to make room are kept in a StaleArea of kvstore.cache.stale-size entries. They are
+ * not served as current values, only by getStale while Cassandra is unavailable.
+ *
+ * Values written or read with a TTL carry the time they expire in Cassandra (see expiresAt). An
+ * expired entry is never served, not even by getStale, it is reported as missing.
  */
 @ApplicationScoped
 public class KVCache {
-  // Maximum size for the cache
-  private int maxSize = 1000;
+  // Version of values read from Cassandra, lower than any write version
+  public static final long FILL_VERSION = 0;
+
+  /**
+   * The active cache configuration. It is swapped as a whole on reset, so that the cache
+   * operations can read it without taking a global lock.
+   */
+  private static class CacheState {
+    final int maxSize;
+    final EvictionPolicy evictionPolicy;
+    // Cache implementations based on different eviction policies, only the active one is set
+    final FIFOCache fifoCache;
+    final RandomCache randomCache;
+    final LRUCache lruCache;
+    // Pool of deduplicated values shared by all slots, null if deduplication is off
+    final ValuePool pool;
+    // Values evicted from the active cache, null if the stale area is off
+    final StaleArea stale;
+    // Recent deletes of keys without slot, null if caching is off
+    final TombstoneSet tombstones;
+
+    CacheState(int maxSize, EvictionPolicy evictionPolicy, boolean deduplication, int staleSize) {
+      this.maxSize = maxSize;
+      this.evictionPolicy = evictionPolicy;
+      this.pool = deduplication && evictionPolicy != EvictionPolicy.NONE ? new ValuePool() : null;
+      this.stale = staleSize > 0 && evictionPolicy != EvictionPolicy.NONE ? new StaleArea(staleSize) : null;
+      this.tombstones = evictionPolicy != EvictionPolicy.NONE ? new TombstoneSet(maxSize) : null;
+      this.fifoCache = evictionPolicy == EvictionPolicy.FIFO ? new FIFOCache(maxSize, pool, stale) : null;
+      this.randomCache = evictionPolicy == EvictionPolicy.RANDOM ? new RandomCache(maxSize, pool, stale) : null;
+      this.lruCache = evictionPolicy == EvictionPolicy.LRU ? new LRUCache(maxSize, pool, stale) : null;
+    }
+  }
+
+  // Current cache, default is FIFO with 1000 slots
+  private volatile CacheState state;
 
-  // Cache implementations based on different eviction policies
-  private FIFOCache fifoCache;
-  private RandomCache randomCache;
-  private LRUCache lruCache;
+  // Compression of large values, they are stored compressed and inflated on read
+  @Inject KVCompressor compressor;
 
-  // Current eviction policy, default is FIFO
-  private EvictionPolicy evictionPolicy = EvictionPolicy.FIFO;
+  // Whether equal values are stored only once, can be changed on cache reset
+  @ConfigProperty(name = "kvstore.cache.deduplication", defaultValue = "false")
+  boolean deduplication;
 
-  // ReadWriteLock to ensure thread-safe operations on the cache
-  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Age in milliseconds after which an entry must be revalidated before it is served, -1 never
+  @ConfigProperty(name = "kvstore.cache.revalidate-after-ms", defaultValue = "-1")
+  long revalidateAfterMs;
+
+  // Number of evicted values kept for serving while Cassandra is unavailable, 0 disables it
+  @ConfigProperty(name = "kvstore.cache.stale-size", defaultValue = "1000")
+  int staleSize;
 
   /**
    * Constructor for KVCache.
    * Initializes the cache with default size and eviction policy.
    */
-  public KVCache() {
-    resetCache(this.maxSize, this.evictionPolicy);
+  public KVCache() {}
+
+  @PostConstruct
+  void init() {
+    this.state = new CacheState(1000, EvictionPolicy.FIFO, deduplication, staleSize);
   }
 
   /**
@@ -52,90 +121,454 @@ public class KVCache {
    * @param key The key whose associated value is to be returned.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return JsonNode The value associated with the specified key, or null if no value is found.
-   */
-  public JsonNode get(String key, String keyspace, String table) { // get function
-    lock.readLock().lock();
-    try {
-      switch (this.evictionPolicy) {
-        case FIFO:
-          return fifoCache.get(key, keyspace, table);
-        case RANDOM:
-          return randomCache.get(key, keyspace, table);
-        case LRU:
-          return lruCache.get(key, keyspace, table);
-        case NONE:
-          return null;
-        default:
-          break;
-      }
+   * @return KVData The value associated with the specified key, or null if no value is found.
+   */
+  public KVData get(String key, String keyspace, String table) { // get function
+    CacheEntry entry = getEntry(key, keyspace, table);
+    return entry == null ? null : _decode(entry.getValue());
+  }
+
+  /**
+   * Retrieves a cache entry with its version, validation and expiry time.
+   *
+   * @param key The key whose associated entry is to be returned.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @return CacheEntry The entry, or null if no value is found or the value has expired.
+   */
+  public CacheEntry getEntry(String key, String keyspace, String table) {
+    CacheState state = this.state;
+    CacheEntry entry;
+    switch (state.evictionPolicy) {
+      case FIFO:
+        entry = state.fifoCache.get(key, keyspace, table);
+        break;
+      case RANDOM:
+        entry = state.randomCache.get(key, keyspace, table);
+        break;
+      case LRU:
+        entry = state.lruCache.get(key, keyspace, table);
+        break;
+      case NONE:
+      default:
+        return null;
+    }
+    return entry == null || entry.isExpired(System.currentTimeMillis()) ? null : entry;
+  }
+
+  /**
+   * Retrieves a cache entry, or the value last evicted for the key. Only for serving a value while
+   * Cassandra is unavailable, an evicted value may have been overwritten meanwhile.
+   *
+   * @param key The key whose associated entry is to be returned.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @return CacheEntry The entry, or null if neither the cache nor the stale area has a value.
+   */
+  public CacheEntry getStale(String key, String keyspace, String table) {
+    CacheEntry entry = getEntry(key, keyspace, table);
+    if (entry != null) {
+      return entry;
+    }
+    StaleArea stale = this.state.stale;
+    entry = stale == null ? null : stale.get(key, keyspace, table);
+    return entry == null || entry.isExpired(System.currentTimeMillis()) ? null : entry;
+  }
+
+  /**
+   * Computes the time a value written or read with a TTL expires in Cassandra. Cassandra counts TTLs
+   * in whole seconds from the time the statement is applied, so the value may expire up to a second
+   * earlier than startedAt + ttl; the cache lets it expire that second early.
+   *
+   * @param startedAt The time in milliseconds the write or read was sent.
+   * @param ttl The TTL of the write or the remaining TTL of the read in seconds, null or 0 if none.
+   * @return long The time in milliseconds, CacheEntry.NO_EXPIRY if there is no TTL.
+   */
+  public static long expiresAt(long startedAt, Integer ttl) {
+    if (ttl == null || ttl <= 0) {
+      return CacheEntry.NO_EXPIRY;
+    }
+    return startedAt + (ttl - 1) * 1000L;
+  }
+
+  /**
+   * Computes the remaining TTL of a cache entry, as GET reports it.
+   *
+   * @param entry The entry returned by getEntry.
+   * @return Integer The remaining TTL in seconds rounded up, null if the value has no TTL.
+   */
+  public static Integer remainingTtl(CacheEntry entry) {
+    if (entry.getExpiresAt() == CacheEntry.NO_EXPIRY) {
       return null;
+    }
+    long remaining = entry.getExpiresAt() - System.currentTimeMillis();
+    return (int) Math.max(1, (remaining + 999) / 1000);
+  }
+
+  /**
+   * Retrieves the value of a cache entry.
+   *
+   * @param entry The entry returned by getEntry.
+   * @return KVData The cached value.
+   */
+  public KVData getValue(CacheEntry entry) {
+    return _decode(entry.getValue());
+  }
 
-    } finally {
-      lock.readLock().unlock();
+  /**
+   * Checks whether an entry has to be revalidated against Cassandra before it is served. A
+   * provisional entry always has to, its writetime is not known yet.
+   *
+   * @param entry The entry returned by getEntry.
+   * @return boolean True if the entry is provisional or older than the revalidation interval.
+   */
+  public boolean isStaleSuspect(CacheEntry entry) {
+    if (entry.isProvisional()) {
+      return true;
     }
+    return revalidateAfterMs >= 0
+        && System.currentTimeMillis() - entry.getValidatedAt() > revalidateAfterMs;
   }
 
+  /**
+   * Marks an entry as current after its writetime matched Cassandra, or replaces it with the value
+   * refetched from Cassandra. Nothing happens if the entry got a newer write meanwhile.
+   *
+   * @param key The key of the entry.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param expectedVersion The version of the entry that was checked.
+   * @param value The refetched value, null if the cached value is still current.
+   * @param version The version (writetime) of the refetched value.
+   * @param expiresAt The time in milliseconds the refetched value expires, see expiresAt. Ignored if
+   *     value is null, the cached value keeps its expiry.
+   * @return boolean True if the entry was revalidated.
+   */
+  public boolean revalidate(
+      String key,
+      String keyspace,
+      String table,
+      long expectedVersion,
+      KVData value,
+      long version,
+      long expiresAt) {
+    CacheState state = this.state;
+    CacheValue cacheValue = null;
+    if (value != null && state.evictionPolicy != EvictionPolicy.NONE) {
+      cacheValue = _encode(value);
+      if (state.pool != null) {
+        cacheValue = state.pool.intern(cacheValue);
+      }
+    }
+    switch (state.evictionPolicy) {
+      case FIFO:
+        return state.fifoCache.revalidate(
+            key, keyspace, table, expectedVersion, cacheValue, version, expiresAt);
+      case RANDOM:
+        return state.randomCache.revalidate(
+            key, keyspace, table, expectedVersion, cacheValue, version, expiresAt);
+      case LRU:
+        return state.lruCache.revalidate(
+            key, keyspace, table, expectedVersion, cacheValue, version, expiresAt);
+      case NONE:
+      default:
+        return false;
+    }
+  }
+
+
+  /**
+   * Deletes a key from the cache, leaving a tombstone with the version of the delete. A key that is
+   * not cached gets its tombstone in the TombstoneSet instead of a slot.
+   *
+   * @param key The key to be deleted.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The version of the delete.
+   * @return boolean True if a cached key was deleted.
+   */
+  public boolean delete(String key, String keyspace, String table, long version) {
+    return _delete(this.state, key, keyspace, table, version);
+  }
 
   /**
-   * Deletes a key from the cache.
+   * Deletes a key from a given cache state. Helper function for delete and deleteAll.
    *
+   * @param state The cache state.
    * @param key The key to be deleted.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @return boolean True if the key was deleted, false otherwise.
-   */
-  public boolean delete(String key, String keyspace, String table) {
-    lock.readLock().lock();
-    try {
-      switch (this.evictionPolicy) {
-        case FIFO:
-          return fifoCache.delete(key, keyspace, table);
-        case RANDOM:
-          return randomCache.delete(key, keyspace, table);
-        case LRU:
-          return lruCache.delete(key, keyspace, table);
-        case NONE:
-          return true;  
-        default:
-          break;
+   * @param version The version of the delete.
+   * @return boolean True if a cached key was deleted.
+   */
+  private boolean _delete(
+      CacheState state, String key, String keyspace, String table, long version) {
+    if (state.stale != null) {
+      state.stale.remove(key, keyspace, table);
+    }
+    boolean deleted;
+    switch (state.evictionPolicy) {
+      case FIFO:
+        deleted = state.fifoCache.delete(key, keyspace, table, version);
+        break;
+      case RANDOM:
+        deleted = state.randomCache.delete(key, keyspace, table, version);
+        break;
+      case LRU:
+        deleted = state.lruCache.delete(key, keyspace, table, version);
+        break;
+      case NONE:
+      default:
+        return false;
+    }
+    if (!deleted) {
+      // No slot, or a newer one that the tombstone cannot cover anyway
+      state.tombstones.add(key, keyspace, table, version);
+    }
+    return deleted;
+  }
+
+  /**
+   * Deletes many keys from the cache with the same version, e.g. the keys of a batch delete. All
+   * tombstones go to the same cache, even if it is reset meanwhile. Like delete, only cached keys
+   * are tombstoned in their slot, the others go to the bounded TombstoneSet and never evict a live
+   * entry.
+   *
+   * @param keys The keys to be deleted.
+   * @param keyspace The keyspace of the keys.
+   * @param table The table of the keys.
+   * @param version The version of the deletes.
+   * @return int The number of keys deleted.
+   */
+  public int deleteAll(List<String> keys, String keyspace, String table, long version) {
+    CacheState state = this.state;
+    int deleted = 0;
+    for (String key : keys) {
+      if (_delete(state, key, keyspace, table, version)) {
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Deletes the keys that are cached, without leaving tombstones for the others, e.g. after a bulk
+   * import that bypasses the cache. Keys that are not cached take no slot.
+   *
+   * @param keys The keys to be invalidated.
+   * @param keyspace The keyspace of the keys.
+   * @param table The table of the keys.
+   * @param version The version of the write that made the cached values stale.
+   * @return int The number of keys invalidated.
+   */
+  public int invalidateAll(List<String> keys, String keyspace, String table, long version) {
+    CacheState state = this.state;
+    int invalidated = 0;
+    for (String key : keys) {
+      if (getEntry(key, keyspace, table) != null
+          && _delete(state, key, keyspace, table, version)) {
+        invalidated++;
       }
-      return false;
-    } finally {
-      lock.readLock().unlock();
     }
+    return invalidated;
+  }
+
+  /**
+   * Puts a key-value pair written to Cassandra into the cache.
+   *
+   * @param key The key with which the specified value is to be associated.
+   * @param value The value to be associated with the specified key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The version (write timestamp) of the value.
+   * @return boolean True if the value was stored, false if the cache holds a newer version.
+   */
+  public boolean put(String key, KVData value, String keyspace, String table, long version) {
+    return _put(this.state, key, value, keyspace, table, version, CacheEntry.NO_EXPIRY, false);
   }
 
   /**
-   * Puts a key-value pair into the cache.
+   * Puts a key-value pair written to Cassandra with a TTL into the cache.
    *
    * @param key The key with which the specified value is to be associated.
    * @param value The value to be associated with the specified key.
    * @param keyspace The keyspace of the key.
    * @param table The table of the key.
-   * @param valueType The data type of the value.
-   */
-  public void put(String key, JsonNode value, String keyspace, String table, KVDataType valueType) {
-    lock.readLock().lock();
-    try {
-      switch (this.evictionPolicy) {
-        case FIFO:
-          fifoCache.put(key, value, keyspace, table, valueType);
-          break;
-        case RANDOM:
-          randomCache.put(key, value, keyspace, table);
-          break;
-        case LRU:
-          lruCache.put(key, value, keyspace, table, valueType);
-          break;
-        case NONE:
-          break;
-        default:
-          break;
+   * @param version The version (write timestamp) of the value.
+   * @param expiresAt The time in milliseconds the value expires, see expiresAt.
+   * @return boolean True if the value was stored, false if the cache holds a newer version.
+   */
+  public boolean put(
+      String key, KVData value, String keyspace, String table, long version, long expiresAt) {
+    return _put(this.state, key, value, keyspace, table, version, expiresAt, false);
+  }
+
+  /**
+   * Puts a key-value pair written to Cassandra with a lightweight transaction into the cache.
+   * Cassandra assigned its timestamp, so version is provisional: the entry is ordered by it, but it is
+   * stale-suspect until the value is refetched with its writetime, see isStaleSuspect.
+   *
+   * @param key The key with which the specified value is to be associated.
+   * @param value The value to be associated with the specified key.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The clock value taken before the write, see KVClock.
+   * @param expiresAt The time in milliseconds the value expires, see expiresAt.
+   * @return boolean True if the value was stored, false if the cache holds a newer version.
+   */
+  public boolean putConditional(
+      String key, KVData value, String keyspace, String table, long version, long expiresAt) {
+    return _put(this.state, key, value, keyspace, table, version, expiresAt, true);
+  }
+
+  /**
+   * Puts a key-value pair into a given cache state. Helper function for put, putConditional and
+   * putAll.
+   *
+   * @param state The cache state.
+   * @param key The key.
+   * @param value The value.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param version The version of the value.
+   * @param expiresAt The time in milliseconds the value expires.
+   * @param provisional Whether the version only orders the write, see putConditional.
+   * @return boolean True if the value was stored.
+   */
+  private boolean _put(
+      CacheState state,
+      String key,
+      KVData value,
+      String keyspace,
+      String table,
+      long version,
+      long expiresAt,
+      boolean provisional) {
+    if (state.evictionPolicy == EvictionPolicy.NONE
+        || state.tombstones.covers(key, keyspace, table, version)) {
+      return false;
+    }
+    CacheValue cacheValue = _encode(value);
+    if (state.pool != null) {
+      // The slot takes over the reference, it is released when the value is replaced or evicted
+      cacheValue = state.pool.intern(cacheValue);
+    }
+    if (state.stale != null) {
+      state.stale.remove(key, keyspace, table);
+    }
+    switch (state.evictionPolicy) {
+      case FIFO:
+        return state.fifoCache.put(
+            key, cacheValue, keyspace, table, value.type, version, expiresAt, provisional);
+      case RANDOM:
+        return state.randomCache.put(
+            key, cacheValue, keyspace, table, version, expiresAt, provisional);
+      case LRU:
+        return state.lruCache.put(
+            key, cacheValue, keyspace, table, value.type, version, expiresAt, provisional);
+      default:
+        break;
+    }
+    return false;
+  }
+
+  /**
+   * Puts many key-value pairs written to Cassandra with the same version into the cache, e.g. the
+   * mutations of a batch request. All pairs go to the same cache, even if it is reset meanwhile.
+   *
+   * @param keys The keys.
+   * @param values The value of each key.
+   * @param keyspace The keyspace of the keys.
+   * @param table The table of the keys.
+   * @param version The version (write timestamp) of the values.
+   * @return int The number of values stored.
+   */
+  public int putAll(
+      List<String> keys, List<KVData> values, String keyspace, String table, long version) {
+    return putAll(keys, values, keyspace, table, version, false);
+  }
+
+  /**
+   * Puts many key-value pairs written to Cassandra with the same version into the cache, see
+   * putAll and putConditional.
+   *
+   * @param keys The keys.
+   * @param values The value of each key.
+   * @param keyspace The keyspace of the keys.
+   * @param table The table of the keys.
+   * @param version The version of the values.
+   * @param provisional True if the values were written with lightweight transactions.
+   * @return int The number of values stored.
+   */
+  public int putAll(
+      List<String> keys,
+      List<KVData> values,
+      String keyspace,
+      String table,
+      long version,
+      boolean provisional) {
+    CacheState state = this.state;
+    int stored = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      if (_put(
+          state,
+          keys.get(i),
+          values.get(i),
+          keyspace,
+          table,
+          version,
+          CacheEntry.NO_EXPIRY,
+          provisional)) {
+        stored++;
       }
-    } finally {
-      lock.readLock().unlock();
     }
+    return stored;
+  }
+
+  /**
+   * Puts a value read from Cassandra into the cache, versioned with its writetime.
+   *
+   * @param key The key with which the specified value is to be associated.
+   * @param value The value read from Cassandra.
+   * @param keyspace The keyspace of the key.
+   * @param table The table of the key.
+   * @param writetime The writetime of the value, -1 if unknown.
+   * @param expiresAt The time in milliseconds the value expires, see expiresAt.
+   * @return boolean True if the value was stored.
+   */
+  public boolean fill(
+      String key, KVData value, String keyspace, String table, long writetime, long expiresAt) {
+    return put(key, value, keyspace, table, writetime < 0 ? FILL_VERSION : writetime, expiresAt);
+  }
+
+  /**
+   * Puts many values read from Cassandra into the cache, each versioned with its writetime, e.g.
+   * the misses of a multi-get. All values go to the same cache, even if it is reset meanwhile.
+   *
+   * @param keys The keys.
+   * @param values The value of each key.
+   * @param keyspace The keyspace of the keys.
+   * @param table The table of the keys.
+   * @param writetimes The writetime of each value, -1 if unknown.
+   * @param expiries The time in milliseconds each value expires, see expiresAt.
+   * @return int The number of values stored.
+   */
+  public int fillAll(
+      List<String> keys,
+      List<KVData> values,
+      String keyspace,
+      String table,
+      List<Long> writetimes,
+      List<Long> expiries) {
+    CacheState state = this.state;
+    int stored = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      long version = writetimes.get(i) < 0 ? FILL_VERSION : writetimes.get(i);
+      if (_put(state, keys.get(i), values.get(i), keyspace, table, version, expiries.get(i), false)) {
+        stored++;
+      }
+    }
+    return stored;
   }
 
   /**
@@ -146,44 +579,29 @@ public class KVCache {
    * @param evictionPolicy The new eviction policy for the cache.
    */
   public void resetCache(int maxSize, EvictionPolicy evictionPolicy) {
+    resetCache(maxSize, evictionPolicy, null);
+  }
+
+  /**
+   * Resets the cache with a new size, eviction policy and deduplication setting.
+   * If maxSize is -1, the cache size remains unchanged. If evictionPolicy or deduplication is null, it remains unchanged.
+   *
+   * @param maxSize The new maximum size of the cache.
+   * @param evictionPolicy The new eviction policy for the cache.
+   * @param deduplication Whether equal values are stored only once.
+   */
+  public synchronized void resetCache(int maxSize, EvictionPolicy evictionPolicy, Boolean deduplication) {
     if(maxSize == -1) { // clear the cache, remain the same maxSize
-      maxSize = this.maxSize;
+      maxSize = this.state.maxSize;
     }
     if(evictionPolicy == null) { // clear the cache, remain the same policy
-      evictionPolicy = this.evictionPolicy;
+      evictionPolicy = this.state.evictionPolicy;
     }
-    lock.writeLock().lock();
-    try {
-      // clear the cache, reset the maxSize and eviction policy
-      this.evictionPolicy = evictionPolicy;
-      this.maxSize = maxSize;
-      switch (evictionPolicy) {
-        case FIFO:
-          this.fifoCache = new FIFOCache(maxSize);
-          this.randomCache = null;
-          this.lruCache = null;
-          break;
-        case RANDOM:
-          this.randomCache = new RandomCache(maxSize);
-          this.fifoCache = null;
-          this.lruCache = null;
-          break;
-        case LRU:
-          this.lruCache = new LRUCache(maxSize);
-          this.fifoCache = null;
-          this.randomCache = null;
-          break;
-        case NONE:
-          this.fifoCache = null;
-          this.randomCache = null;
-          this.lruCache = null;
-          break;
-        default:
-          break;
-      }
-    } finally {
-      lock.writeLock().unlock();
+    if(deduplication != null) {
+      this.deduplication = deduplication;
     }
+    // clear the cache, reset the maxSize and eviction policy
+    this.state = new CacheState(maxSize, evictionPolicy, this.deduplication, staleSize);
   }
 
   /**
@@ -192,23 +610,59 @@ public class KVCache {
    * @return String Information about the cache.
    */
   public String getCacheInfo() {
-    lock.readLock().lock();
-    try {
-      switch (this.evictionPolicy) {
-        case FIFO:
-          return fifoCache.getCacheInfo();
-        case RANDOM:
-          return randomCache.getCacheInfo();
-        case LRU:
-          return lruCache.getCacheInfo();
-        case NONE:
-          return "No cache";
-        default:
-          break;
-      }
+    CacheState state = this.state;
+    String compression = ", compression ratio: " + String.format("%.2f", compressor.getCompressionRatio());
+    if (state.pool != null) {
+      compression += ", " + state.pool.getPoolInfo();
+    }
+    switch (state.evictionPolicy) {
+      case FIFO:
+        return state.fifoCache.getCacheInfo() + compression;
+      case RANDOM:
+        return state.randomCache.getCacheInfo() + compression;
+      case LRU:
+        return state.lruCache.getCacheInfo() + compression;
+      case NONE:
+        return "No cache";
+      default:
+        break;
+    }
+    return null;
+  }
+
+  // ==================== Helper Functions ====================
+
+  /**
+   * Wraps a value for storage in the cache, compressing it if it is larger than the compression threshold.
+   *
+   * @param value The value to be cached.
+   * @return CacheValue The value as stored in the cache slots.
+   */
+  private CacheValue _encode(KVData value) {
+    if (!compressor.shouldCompress(value.estimateSize())) {
+      return CacheValue.plain(value);
+    }
+    byte[] raw = KVDataCodec.encode(value);
+    byte[] compressed = compressor.compress(raw);
+    if (compressed == null) {
+      return CacheValue.plain(value);
+    }
+    return CacheValue.compressed(compressed, raw.length);
+  }
+
+  /**
+   * Unwraps a cached value, inflating it if it was stored compressed.
+   *
+   * @param value The value as stored in the cache slots.
+   * @return KVData The cached value, or null if value is null.
+   */
+  private KVData _decode(CacheValue value) {
+    if (value == null) {
       return null;
-    } finally {
-      lock.readLock().unlock();
     }
+    if (!value.isCompressed()) {
+      return value.getValue();
+    }
+    return KVDataCodec.decode(compressor.decompress(value.getCompressed(), value.getRawSize()));
   }
 }
@@ -2,33 +2,42 @@ package org.stargate.rest.json;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Int64Value;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.stargate.bridge.proto.QueryOuterClass;
 import io.stargate.bridge.proto.QueryOuterClass.Collection;
-import io.stargate.bridge.proto.QueryOuterClass.Collection.Builder;
 import io.stargate.bridge.proto.QueryOuterClass.Query;
 import io.stargate.bridge.proto.QueryOuterClass.Value;
-import io.stargate.bridge.proto.QueryOuterClass.Value.Null;
+import io.stargate.bridge.proto.QueryOuterClass.Values;
 import io.stargate.sgv2.api.common.cql.builder.Column;
 import io.stargate.sgv2.api.common.cql.builder.ImmutableColumn;
 import io.stargate.sgv2.api.common.cql.builder.Predicate;
 import io.stargate.sgv2.api.common.cql.builder.QueryBuilder;
-import io.stargate.sgv2.api.common.cql.builder.QueryBuilder.QueryBuilder__18;
-import io.stargate.sgv2.api.common.cql.builder.QueryBuilder.QueryBuilder__26;
-import io.stargate.sgv2.api.common.cql.builder.QueryBuilder.QueryBuilder__7;
 import io.stargate.sgv2.api.common.cql.builder.Replication;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import io.stargate.sgv2.api.common.grpc.StargateBridgeClient;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import org.jboss.logging.Logger;
 
 // Class KVCassandra: A class to handle key-value operations with Cassandra using Stargate APIs.
 @ApplicationScoped
 public class KVCassandra {
+  private static final Logger LOG = Logger.getLogger(KVCassandra.class);
   // Constants for table names and schema
   private static final String TABLE_NAME = "table_name";
   private static final String SYSTEM_SCHEMA = "system_schema";
@@ -45,7 +54,52 @@ public class KVCassandra {
 
   // Dependency injection of StargateBridgeClient
   @Inject StargateBridgeClient bridge;
+  // Keyspaces and tables known to exist
+  @Inject KVSchemaCatalog catalog;
+  // Hedging of the reads of single keys
+  @Inject KVHedger hedger;
+  // Fails the statements fast while the bridge or Cassandra is down
+  @Inject KVCircuitBreaker breaker;
   List<Column> columns = new ArrayList<>();
+  // Rendered CQL of the data path statements per table
+  final KVQueryTemplates templates;
+  // Index of each value column in a row selected by getVal from a legacy table
+  private final int[] valueIndices;
+  // Index of each value column in a row of a scan of a legacy table, the key comes first
+  private final int[] scanIndices;
+  // Value column of a compact table, the KVDataCodec encoding of the value
+  private static final Column COMPACT_COLUMN =
+      ImmutableColumn.builder().name(KVQueryTemplates.COMPACT_VALUE_COLUMN).type("blob").build();
+
+  /** Progress of a table scan. */
+  private static class ScanState {
+    // Paging state of the next page, null for the first page
+    ByteString pagingState;
+    // Number of pages fetched
+    int pages;
+  }
+
+  /** One page of a table scan. */
+  private static class ScanPage {
+    final QueryOuterClass.ResultSet result;
+    // Paging state of the next page, null if this is the last page of the table
+    final ByteString next;
+    final int number;
+
+    ScanPage(QueryOuterClass.ResultSet result, ByteString next, int number) {
+      this.result = result;
+      this.next = next;
+      this.number = number;
+    }
+  }
+
+  /** Items of a batch request that are sent together, with their responses. */
+  private static class BatchGroup {
+    // Index of each item in the request
+    final List<Integer> indices = new ArrayList<>();
+    // Responses in the order of indices, set once the group is executed
+    List<KVResponse> responses;
+  }
 
   /**
    * Constructs a KVCassandra instance.
@@ -65,61 +119,73 @@ public class KVCassandra {
     columns.add(ImmutableColumn.builder().name("value_set_int").type("set<int>").build());
     columns.add(ImmutableColumn.builder().name("value_set_text").type("set<text>").build());
     columns.add(ImmutableColumn.builder().name("value_set_double").type("set<double>").build());
+
+    templates = new KVQueryTemplates(columns, (ks, t) -> catalog.layout(ks, t));
+    valueIndices = IntStream.range(0, columns.size()).toArray();
+    scanIndices = IntStream.range(1, columns.size() + 1).toArray();
   }
 
   /**
    * Creates a new keyspace in the database.
    *
    * @param keyspace_name The name of the keyspace to be created.
-   * @return KVResponse containing the status code and message of the operation.
+   * @param replication The replication strategy and factor of the keyspace.
+   * @return Uni of the KVResponse containing the status code and message of the operation.
    */
-  public KVResponse createKeyspace(String keyspace_name) {
+  public Uni<KVResponse> createKeyspace(String keyspace_name, Replication replication) {
     // create keyspace
     QueryOuterClass.Query query_create =
-        new QueryBuilder()
-            .create()
-            .keyspace(keyspace_name)
-            .withReplication(Replication.simpleStrategy(1))
-            .build();
+        new QueryBuilder().create().keyspace(keyspace_name).withReplication(replication).build();
 
-    try {
-      bridge.executeQuery(query_create);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, null);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    return new KVResponse(
-        201, "The database '" + keyspace_name + "' has been created successfully.");
+    return _execute(query_create)
+        .map(
+            response -> {
+              catalog.addKeyspace(keyspace_name);
+              return new KVResponse(
+                  201, "The database '" + keyspace_name + "' has been created successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, null))
+        .invoke(
+            response -> {
+              if (response.status_code == 409) {
+                catalog.addKeyspace(keyspace_name);
+              }
+            });
   }
 
+
   /**
    * Deletes an existing keyspace from the database.
    *
    * @param keyspace_name The name of the keyspace to be deleted.
-   * @return KVResponse containing the status code and message of the operation.
+   * @return Uni of the KVResponse containing the status code and message of the operation.
    */
-  public KVResponse deleteKeyspace(String keyspace_name) {
+  public Uni<KVResponse> deleteKeyspace(String keyspace_name) {
     QueryOuterClass.Query query = new QueryBuilder().drop().keyspace(keyspace_name).build();
-    try {
-      bridge.executeQuery(query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, null);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    return new KVResponse(
-        200, "The database '" + keyspace_name + "' has been deleted successfully.");
+    return _execute(query)
+        .map(
+            response -> {
+              templates.invalidate(keyspace_name, null);
+              catalog.removeKeyspace(keyspace_name);
+              return new KVResponse(
+                  200, "The database '" + keyspace_name + "' has been deleted successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, null));
   }
 
+
   /**
    * Creates a new table within a specified keyspace.
    *
    * @param keyspace_name The name of the keyspace where the table will be created.
    * @param table_name The name of the table to be created.
-   * @return KVResponse containing the status code and message of the operation.
+   * @param layout The layout of the table, see KVTableLayout.
+   * @return Uni of the KVResponse containing the status code and message of the operation.
    */
-  public KVResponse createTable(String keyspace_name, String table_name) {
+  public Uni<KVResponse> createTable(
+      String keyspace_name, String table_name, KVTableLayout layout) {
     // build a partition key column and a value column
     ImmutableColumn.Builder key_column = ImmutableColumn.builder().name("key").type("text");
     key_column.kind(Column.Kind.PARTITION_KEY);
@@ -128,72 +194,87 @@ public class KVCassandra {
         new QueryBuilder()
             .create()
             .table(keyspace_name, table_name)
-            .column(columns)
+            .column(layout == KVTableLayout.COMPACT ? List.of(COMPACT_COLUMN) : columns)
             .column(key_column.build())
             .build();
 
-    try {
-      bridge.executeQuery(query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    return new KVResponse(201, "The table '" + table_name + "' has been created successfully.");
+    return _execute(query)
+        .map(
+            response -> {
+              templates.invalidate(keyspace_name, table_name);
+              catalog.addTable(keyspace_name, table_name, layout);
+              return new KVResponse(
+                  201, "The table '" + table_name + "' has been created successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name))
+        .invoke(
+            response -> {
+              if (response.status_code == 409) {
+                // the existing table keeps its layout, a refresh of the catalog reads it
+                catalog.addTable(keyspace_name, table_name, null);
+                catalog.invalidate();
+              }
+            });
   }
+
   /**
    * Deletes a table from a specified keyspace.
    *
    * @param keyspace_name The name of the keyspace containing the table.
    * @param table_name The name of the table to be deleted.
-   * @return KVResponse containing the status code and message of the operation.
+   * @return Uni of the KVResponse containing the status code and message of the operation.
    */
-  public KVResponse deleteTable(String keyspace_name, String table_name) {
+  public Uni<KVResponse> deleteTable(String keyspace_name, String table_name) {
     QueryOuterClass.Query query =
         new QueryBuilder().drop().table(keyspace_name, table_name).build();
-    try {
-      bridge.executeQuery(query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    return new KVResponse(200, "The table '" + table_name + "' has been deleted successfully.");
+    return _execute(query)
+        .map(
+            response -> {
+              templates.invalidate(keyspace_name, table_name);
+              catalog.removeTable(keyspace_name, table_name);
+              return new KVResponse(
+                  200, "The table '" + table_name + "' has been deleted successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
   }
 
+
   /**
    * Lists all keyspaces in the database.
    *
-   * @return KVResponse containing the status code, message, and list of keyspaces.
+   * @return Uni of the KVResponse containing the status code, message, and list of keyspaces.
    */
-  public KVResponse listKeyspaces() {
+  public Uni<KVResponse> listKeyspaces() {
     // list all keyspaces in the database
     QueryBuilder.QueryBuilder__21 queryBuilder =
         new QueryBuilder().select().column(KEYSPACE_NAME_COLUMN).from(SYSTEM_SCHEMA, "keyspaces");
-    QueryOuterClass.Response response;
-    try {
-      response = bridge.executeQuery(queryBuilder.build());
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, null, null);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    List<String> allKeyspaceNames =
-        response.getResultSet().getRowsList().stream()
-            .map(row -> row.getValues(0))
-            .map(QueryOuterClass.Value::getString)
-            .collect(Collectors.toList());
-    // set the message part as {"keyspaces": ["keyspace1", "keyspace2", ...]}
-    return new KVResponse(200, "{\"keyspaces\": [" + String.join(", ", allKeyspaceNames) + "]}");
+    return _execute(queryBuilder.build())
+        .map(
+            response -> {
+              List<String> allKeyspaceNames =
+                  response.getResultSet().getRowsList().stream()
+                      .map(row -> row.getValues(0))
+                      .map(QueryOuterClass.Value::getString)
+                      .collect(Collectors.toList());
+              // set the message part as {"keyspaces": ["keyspace1", "keyspace2", ...]}
+              return new KVResponse(
+                  200, "{\"keyspaces\": [" + String.join(", ", allKeyspaceNames) + "]}");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, null, null));
   }
 
+
   /**
    * Lists all tables in a specific keyspace.
    *
    * @param keyspace_name The name of the keyspace whose tables are to be listed.
-   * @return KVResponse containing the status code, message, and list of tables in the keyspace.
+   * @return Uni of the KVResponse containing the status code, message, and list of tables in the
+   *     keyspace.
    */
-  public KVResponse listTables(String keyspace_name) {
+  public Uni<KVResponse> listTables(String keyspace_name) {
     // check if the keyspace exists
     QueryOuterClass.Query query_check =
         new QueryBuilder()
@@ -205,7 +286,6 @@ public class KVCassandra {
                 Predicate.EQ,
                 QueryOuterClass.Value.newBuilder().setString(keyspace_name).build())
             .build();
-    List<QueryOuterClass.Row> rows;
     // list all tables in the keyspace
     QueryBuilder.QueryBuilder__21 queryBuilder =
         new QueryBuilder()
@@ -216,51 +296,49 @@ public class KVCassandra {
                 KEYSPACE_NAME_COLUMN,
                 Predicate.EQ,
                 QueryOuterClass.Value.newBuilder().setString(keyspace_name).build());
-    QueryOuterClass.Response response;
-    try {
-      // check if the keyspace exists
-      rows = bridge.executeQuery(query_check).getResultSet().getRowsList();
-      // if keyspaces not exists, return 404
-      if (rows.size() == 0) {
-        return new KVResponse(404, "The database '" + keyspace_name + "' not exists.");
-      }
-      response = bridge.executeQuery(queryBuilder.build());
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, null);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
-    }
-    List<String> allTableNames =
-        response.getResultSet().getRowsList().stream()
-            .map(row -> row.getValues(0))
-            .map(QueryOuterClass.Value::getString)
-            .collect(Collectors.toList());
-    // set the message part as {"tables": ["table1", "table2"]}
-    return new KVResponse(200, "{\"tables\": [" + String.join(",", allTableNames) + "]}");
+    return _execute(query_check)
+        .chain(
+            check -> {
+              // if keyspaces not exists, return 404
+              if (check.getResultSet().getRowsCount() == 0) {
+                return Uni.createFrom()
+                    .item(new KVResponse(404, "The database '" + keyspace_name + "' not exists."));
+              }
+              return _execute(queryBuilder.build())
+                  .map(
+                      response -> {
+                        List<String> allTableNames =
+                            response.getResultSet().getRowsList().stream()
+                                .map(row -> row.getValues(0))
+                                .map(QueryOuterClass.Value::getString)
+                                .collect(Collectors.toList());
+                        // set the message part as {"tables": ["table1", "table2"]}
+                        return new KVResponse(
+                            200, "{\"tables\": [" + String.join(",", allTableNames) + "]}");
+                      });
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, null));
   }
 
+
   /**
    * Checks if a key exists in a table. Helper function for putKeyVal, getVal, updateVal, and deleteKey.
    *
    * @param keyspace_name The name of the keyspace containing the table.
    * @param table_name The name of the table to be checked.
    * @param key The key to be checked.
-   * @return KVResponse containing the status code and message of the operation.
+   * @return Uni of true if the key exists.
    */
-  public boolean _isKeyInTable(String keyspace_name, String table_name, String key)
-      throws Exception {
+  public Uni<Boolean> _isKeyInTable(String keyspace_name, String table_name, String key) {
     // check if the key exists in the table
     QueryOuterClass.Query query =
-        new QueryBuilder()
-            .select()
-            .column("key")
-            .from(keyspace_name, table_name)
-            .where("key", Predicate.EQ, QueryOuterClass.Value.newBuilder().setString(key).build())
-            .build();
-    List<QueryOuterClass.Row> rows;
-    rows = bridge.executeQuery(query).getResultSet().getRowsList();
-    return rows.size() != 0; // true, row
+        _query(
+            templates.get(keyspace_name, table_name, KVQueryTemplates.Operation.SELECT_KEY, null),
+            _keyValue(key));
+    return _execute(query).map(response -> response.getResultSet().getRowsCount() != 0);
   }
+
   
   /**
    * Get the value from JsonNode using the KVDataType. Helper function.
@@ -284,6 +362,23 @@ public class KVCassandra {
     return res;
   }
 
+  /**
+   * Get the value of any KVDataType from JsonNode, lists and sets become collections. Helper function.
+   * @param value The JsonNode value.
+   * @param type The KVDataType.
+   * @return The Value.
+   */
+  private Value _toValue(JsonNode value, KVDataType type) {
+    if (!DATAMAP.containsKey(type)) {
+      return _getValue(value, type);
+    }
+    Collection.Builder collectionBuilder = Collection.newBuilder();
+    for (JsonNode node : (ArrayNode) value) {
+      collectionBuilder.addElements(_getValue(node, DATAMAP.get(type)));
+    }
+    return Value.newBuilder().setCollection(collectionBuilder.build()).build();
+  }
+
   /**
    * Inserts a key-value pair into a specified table.
    *
@@ -292,93 +387,1292 @@ public class KVCassandra {
    * @param key The key to be inserted.
    * @param value The value to be associated with the key.
    * @param type The data type of the value.
-   * @return KVResponse containing the status code and message of the operation.
+   * @param timestamp The write timestamp in microseconds, see KVClock. Not used by the conditional
+   *     insert, Cassandra assigns the timestamp of lightweight transactions itself.
+   * @param blind_upsert True to overwrite an existing key instead of answering 409. The value columns
+   *     of the other types are cleared, so a value of another type does not leave the old one behind.
+   * @param ttl The TTL of the value in seconds, 0 for a value that does not expire.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse containing the status code and message of the operation. A 409
+   *     carries the existing value as body.
    */
-  public KVResponse putKeyVal(
-      String keyspace_name, String table_name, String key, JsonNode value, KVDataType type) {
-    QueryBuilder__18 queryBuilder =
-        new QueryBuilder()
-            .insertInto(keyspace_name, table_name)
-            .value("key", QueryOuterClass.Value.newBuilder().setString(key).build());
-    QueryOuterClass.Query query = null;
+  public Uni<KVResponse> putKeyVal(
+      String keyspace_name,
+      String table_name,
+      String key,
+      JsonNode value,
+      KVDataType type,
+      long timestamp,
+      boolean blind_upsert,
+      int ttl,
+      QueryOuterClass.Consistency consistency) {
+    KVQueryTemplates.Operation operation;
+    if (ttl > 0) {
+      operation =
+          blind_upsert
+              ? KVQueryTemplates.Operation.UPSERT_TTL
+              : KVQueryTemplates.Operation.INSERT_IF_NOT_EXISTS_TTL;
+    } else {
+      operation =
+          blind_upsert
+              ? KVQueryTemplates.Operation.UPSERT
+              : KVQueryTemplates.Operation.INSERT_IF_NOT_EXISTS;
+    }
+    Value bound_key = _keyValue(key);
+    Value bound_value = _bindValue(keyspace_name, table_name, value, type);
+    String cql = templates.get(keyspace_name, table_name, operation, type);
+    QueryOuterClass.Query query =
+        ttl > 0
+            ? _query(cql, bound_key, bound_value, _ttlValue(ttl))
+            : _query(cql, bound_key, bound_value);
 
-    switch (type) {
-      case INT:
-      case TEXT:
-      case DOUBLE:
-        query = queryBuilder.value("value_" + type.label, _getValue(value, type)).build();
+    Uni<QueryOuterClass.Response> execution =
+        blind_upsert
+            ? _execute(_withTimestamp(query, timestamp), consistency)
+            : _execute(query, consistency);
+    return execution
+        .map(
+            response -> {
+              if (!blind_upsert) {
+                // a single conditional insert, if the key exists the result carries the existing row
+                QueryOuterClass.ResultSet result = response.getResultSet();
+                QueryOuterClass.Row row = result.getRows(0);
+                if (!row.getValues(0).getBoolean()) {
+                  KVResponse conflict =
+                      new KVResponse(409, "The key '" + key + "' already exists.");
+                  conflict.body =
+                      _readConflict(row, result, catalog.layout(keyspace_name, table_name));
+                  return conflict;
+                }
+              }
+              return new KVResponse(
+                  201,
+                  "The key value pair '" + key + ":" + value + "' has been inserted successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+
+  /**
+   * Retrieves a value based on a key from a specified table. A read slower than the recent reads is
+   * hedged, see KVHedger.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose value is to be retrieved.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse containing the status code, message, and the retrieved value.
+   */
+  public Uni<KVResponse> getVal(
+      String keyspace_name,
+      String table_name,
+      String key,
+      QueryOuterClass.Consistency consistency) {
+    // a slow read is sent again, see KVHedger
+    return hedger.hedge(() -> _getVal(keyspace_name, table_name, key, consistency));
+  }
+
+  /**
+   * Reads a value once. Helper function for getVal.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose value is to be retrieved.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse, see getVal.
+   */
+  private Uni<KVResponse> _getVal(
+      String keyspace_name,
+      String table_name,
+      String key,
+      QueryOuterClass.Consistency consistency) {
+    // select the value and the writetime of the scalar columns from the table where key = key
+    QueryOuterClass.Query query =
+        _query(
+            templates.get(keyspace_name, table_name, KVQueryTemplates.Operation.SELECT_VALUE, null),
+            _keyValue(key));
+
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    return _execute(query, consistency)
+        .map(
+            response -> {
+              if (response.getResultSet().getRowsCount() == 0) {
+                return new KVResponse(
+                    404, "The key '" + key + "' cannot be found in the current database.");
+              }
+              // get the row from the response
+              QueryOuterClass.Row row = response.getResultSet().getRows(0);
+              KVData body = _readRow(row, 0, layout);
+              if (body == null) {
+                return new KVResponse(
+                    404, "The key '" + key + "' cannot be found in the current database.");
+              }
+              KVResponse result = new KVResponse(body);
+              result.writetime = _getWritetime(row, _valueCount(layout), layout);
+              result.ttl = _getTtl(row, _valueCount(layout) + _writetimeCount(layout));
+              return result;
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+
+  /**
+   * Retrieves the values of many keys from a specified table with parallel single-partition reads,
+   * at most parallelism of them in flight. A multi-partition IN query would make one coordinator
+   * wait for all replicas and fail as a whole.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param keys The keys whose values are to be retrieved.
+   * @param parallelism The maximum number of reads in flight.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse of each key, in the order of keys, see getVal.
+   */
+  public Uni<List<KVResponse>> getVals(
+      String keyspace_name,
+      String table_name,
+      List<String> keys,
+      int parallelism,
+      QueryOuterClass.Consistency consistency) {
+    return Multi.createFrom()
+        .range(0, keys.size())
+        .onItem()
+        .transformToUni(
+            i ->
+                getVal(keyspace_name, table_name, keys.get(i), consistency)
+                    .map(response -> Map.entry(i, response)))
+        .merge(Math.max(1, parallelism))
+        .collect()
+        .asList()
+        .map(
+            responses -> {
+              KVResponse[] results = new KVResponse[keys.size()];
+              for (Map.Entry<Integer, KVResponse> response : responses) {
+                results[response.getKey()] = response.getValue();
+              }
+              return Arrays.asList(results);
+            });
+  }
+
+
+  /**
+   * Scans the keys of a table page by page with the paging state of the bridge. A page is only
+   * fetched once the previous one has been consumed, so the table is never held in memory.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param cursor The cursor returned by a previous scan with the same keys_only, null to start at
+   *     the beginning of the table.
+   * @param page_size The number of rows per page.
+   * @param max_pages The maximum number of pages to scan, 0 for the whole table.
+   * @param keys_only True to return the keys without their values.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Multi of the keys with their values, followed by a cursor entry if max_pages stopped the
+   *     scan before the end of the table. A failure ends the scan with an error entry carrying the
+   *     cursor of the failed page.
+   */
+  public Multi<KVScanEntry> scan(
+      String keyspace_name,
+      String table_name,
+      String cursor,
+      int page_size,
+      int max_pages,
+      boolean keys_only,
+      QueryOuterClass.Consistency consistency) {
+    String cql =
+        templates.get(
+            keyspace_name,
+            table_name,
+            keys_only
+                ? KVQueryTemplates.Operation.SCAN_KEYS
+                : KVQueryTemplates.Operation.SCAN_VALUES,
+            null);
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    ScanState state = new ScanState();
+    state.pagingState = cursor == null ? null : ByteString.copyFrom(decodeCursor(cursor));
+
+    Query query = _withConsistency(_query(cql), consistency);
+    return _pages(query, page_size, max_pages, state)
+        .onItem()
+        .transformToIterable(
+            page -> {
+              List<KVScanEntry> entries = new ArrayList<>();
+              for (QueryOuterClass.Row row : page.result.getRowsList()) {
+                String key = row.getValues(0).getString();
+                // the value columns follow the key
+                entries.add(new KVScanEntry(key, keys_only ? null : _readRow(row, 1, layout)));
+              }
+              if (page.next != null && page.number == max_pages) {
+                KVScanEntry last = new KVScanEntry();
+                last.cursor = _encodeCursor(page.next);
+                entries.add(last);
+              }
+              return entries;
+            })
+        .onFailure()
+        .recoverWithItem(
+            ex -> {
+              KVResponse failure = _handleFailure(ex, keyspace_name, table_name);
+              KVScanEntry error = new KVScanEntry();
+              error.status_code = failure.status_code;
+              error.message = failure.message;
+              error.cursor = state.pagingState == null ? null : _encodeCursor(state.pagingState);
+              return error;
+            });
+  }
+
+  /**
+   * Scans the rows of a table whose key token lies in (start_token, end_token], page by page. Used
+   * to export a table with many ranges in parallel.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param start_token The token before the range, exclusive.
+   * @param end_token The last token of the range, inclusive.
+   * @param page_size The number of rows per page.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Multi of the keys with their values, failing if a page cannot be read.
+   */
+  public Multi<KVScanEntry> scanRange(
+      String keyspace_name,
+      String table_name,
+      long start_token,
+      long end_token,
+      int page_size,
+      QueryOuterClass.Consistency consistency) {
+    Query query =
+        _withConsistency(
+            _query(
+                templates.get(
+                    keyspace_name, table_name, KVQueryTemplates.Operation.SCAN_RANGE, null),
+                Value.newBuilder().setInt(start_token).build(),
+                Value.newBuilder().setInt(end_token).build()),
+            consistency);
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    return _pages(query, page_size, 0, new ScanState())
+        .onItem()
+        .transformToIterable(
+            page ->
+                page.result.getRowsList().stream()
+                    .map(
+                        row ->
+                            new KVScanEntry(
+                                row.getValues(0).getString(), _readRow(row, 1, layout)))
+                    .collect(Collectors.toList()));
+  }
+
+  /**
+   * Fetches the pages of a query one after the other, the next page is only requested once the
+   * previous one has been consumed. Helper function for scan and scanRange.
+   *
+   * @param query The query, without paging parameters.
+   * @param page_size The number of rows per page.
+   * @param max_pages The maximum number of pages, 0 for all.
+   * @param state The progress, its paging state is the page to start at and is kept up to date.
+   * @return Multi of the pages.
+   */
+  private Multi<ScanPage> _pages(Query query, int page_size, int max_pages, ScanState state) {
+    return Multi.createBy()
+        .repeating()
+        .uni(
+            () -> state,
+            current -> {
+              // keep the parameters of the query, e.g. its consistency level
+              QueryOuterClass.QueryParameters.Builder parameters =
+                  query.getParameters().toBuilder().setPageSize(Int32Value.of(page_size));
+              if (current.pagingState != null) {
+                parameters.setPagingState(BytesValue.of(current.pagingState));
+              }
+              return _execute(query.toBuilder().setParameters(parameters).build())
+                  .map(
+                      response -> {
+                        QueryOuterClass.ResultSet result = response.getResultSet();
+                        // no or an empty paging state marks the last page
+                        ByteString next = null;
+                        if (result.hasPagingState()
+                            && !result.getPagingState().getValue().isEmpty()) {
+                          next = result.getPagingState().getValue();
+                        }
+                        current.pagingState = next;
+                        current.pages++;
+                        return new ScanPage(result, next, current.pages);
+                      });
+            })
+        .whilst(page -> page.next != null && (max_pages <= 0 || page.number < max_pages));
+  }
+
+  /**
+   * Decodes a scan cursor into the paging state of the bridge.
+   *
+   * @param cursor The cursor returned by scan.
+   * @return byte[] The paging state.
+   * @throws IllegalArgumentException If the cursor is not valid.
+   */
+  public static byte[] decodeCursor(String cursor) {
+    byte[] paging_state = Base64.getUrlDecoder().decode(cursor);
+    if (paging_state.length == 0) {
+      throw new IllegalArgumentException("Empty cursor");
+    }
+    return paging_state;
+  }
+
+  /**
+   * Encodes the paging state of the bridge into a scan cursor. Helper function.
+   *
+   * @param paging_state The paging state.
+   * @return String The cursor, URL safe.
+   */
+  private static String _encodeCursor(ByteString paging_state) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(paging_state.toByteArray());
+  }
+
+
+  /**
+   * Retrieves only the writetime of the value of a key, used to revalidate cached values without
+   * transferring them. The writetime is only known for INT, DOUBLE and TEXT values.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose writetime is to be retrieved.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse with status 200 and the writetime (-1 for collections), or 404 if
+   *     the key is gone.
+   */
+  public Uni<KVResponse> getWritetime(
+      String keyspace_name,
+      String table_name,
+      String key,
+      QueryOuterClass.Consistency consistency) {
+    QueryOuterClass.Query query =
+        _query(
+            templates.get(
+                keyspace_name, table_name, KVQueryTemplates.Operation.SELECT_WRITETIME, null),
+            _keyValue(key));
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    return _execute(query, consistency)
+        .map(
+            response -> {
+              if (response.getResultSet().getRowsCount() == 0) {
+                return new KVResponse(
+                    404, "The key '" + key + "' cannot be found in the current database.");
+              }
+              KVResponse result = new KVResponse(200, "The key '" + key + "' exists.");
+              result.writetime = _getWritetime(response.getResultSet().getRows(0), 0, layout);
+              return result;
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+
+  /**
+   * Updates a value for a specific key in a table. If the key does not exist, insert the key-value pair.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose value is to be updated.
+   * @param value The new value to be associated with the key.
+   * @param type The data type of the value.
+   * @param timestamp The write timestamp in microseconds, see KVClock.
+   * @param ttl The TTL of the value in seconds, 0 for a value that does not expire.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse containing the status code and message of the operation.
+   */
+  public Uni<KVResponse> updateVal(
+      String keyspace_name,
+      String table_name,
+      String key,
+      JsonNode value,
+      KVDataType type,
+      long timestamp,
+      int ttl,
+      QueryOuterClass.Consistency consistency) {
+    // update the value in the table where key = key, the other value columns are set to null
+    Value bound_value = _bindValue(keyspace_name, table_name, value, type);
+    Query final_query =
+        ttl > 0
+            ? _query(
+                templates.get(
+                    keyspace_name, table_name, KVQueryTemplates.Operation.UPDATE_TTL, type),
+                _ttlValue(ttl),
+                bound_value,
+                _keyValue(key))
+            : _query(
+                templates.get(keyspace_name, table_name, KVQueryTemplates.Operation.UPDATE, type),
+                bound_value,
+                _keyValue(key));
+
+    return _execute(_withTimestamp(final_query, timestamp), consistency)
+        .map(
+            response ->
+                new KVResponse(
+                    200,
+                    "The key value pair '" + key + ":" + value + "' has been updated successfully."))
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+  /**
+   * Adds a delta to the INT or DOUBLE value of a key with a compare-and-set loop, see
+   * _compareAndSet, so no concurrent increment is lost. A missing key is inserted with the delta.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose value is to be incremented.
+   * @param delta The number to add, negative to decrement.
+   * @param type The data type of a key that does not exist yet, INT or DOUBLE.
+   * @param expected The value the key is expected to hold, e.g. the cached one, null to read it.
+   * @param max_attempts The maximum number of conditional writes.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse with the new value as body. 400 if the value is not a number or
+   *     the delta does not fit it, 409 if the key kept changing for max_attempts attempts.
+   */
+  public Uni<KVResponse> increment(
+      String keyspace_name,
+      String table_name,
+      String key,
+      JsonNode delta,
+      KVDataType type,
+      KVData expected,
+      int max_attempts,
+      QueryOuterClass.Consistency consistency) {
+    Function<KVData, KVResponse> change =
+        current -> {
+          if (current == null) {
+            return new KVResponse(KVData.fromJson(delta, type));
+          }
+          KVData sum;
+          try {
+            sum = _add(current, delta);
+          } catch (ArithmeticException ex) {
+            return new KVResponse(
+                400, "Bad request, the value of the key '" + key + "' would overflow.");
+          }
+          if (sum == null) {
+            return new KVResponse(
+                400,
+                "Bad request, the value of the key '"
+                    + key
+                    + "' is of type "
+                    + current.type.label
+                    + " and cannot be incremented by "
+                    + delta
+                    + ".");
+          }
+          return new KVResponse(sum);
+        };
+    return _compareAndSet(
+            keyspace_name, table_name, key, change, expected, max_attempts, consistency)
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+  /**
+   * Appends, prepends, adds or removes elements of a list or set value. On a legacy table this is a
+   * single collection update expression that only carries the elements. A compact table stores the
+   * value as one blob, there the new value is computed and written with a compare-and-set loop,
+   * see _compareAndSet.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key whose value is to be mutated.
+   * @param op The mutation.
+   * @param elements The elements, an array.
+   * @param type The type of the collection.
+   * @param expected The value the key of a compact table is expected to hold, e.g. the cached one,
+   *     null to read it.
+   * @param max_attempts The maximum number of conditional writes on a compact table.
+   * @param timestamp The write timestamp in microseconds, see KVClock. Not used on a compact table,
+   *     Cassandra assigns the timestamp of lightweight transactions itself.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse containing the status code and message of the operation. On a
+   *     compact table the body is the new value, an empty collection if the key has been deleted.
+   */
+  public Uni<KVResponse> updateCollection(
+      String keyspace_name,
+      String table_name,
+      String key,
+      KVCollectionOp op,
+      JsonNode elements,
+      KVDataType type,
+      KVData expected,
+      int max_attempts,
+      long timestamp,
+      QueryOuterClass.Consistency consistency) {
+    String message = "The value of the key '" + key + "' has been updated successfully.";
+    if (catalog.layout(keyspace_name, table_name) == KVTableLayout.COMPACT) {
+      KVData delta = KVData.fromJson(elements, type);
+      Function<KVData, KVResponse> change =
+          current -> {
+            KVResponse response = new KVResponse(200, message);
+            response.body = op.apply(current, delta);
+            return response;
+          };
+      return _compareAndSet(
+              keyspace_name, table_name, key, change, expected, max_attempts, consistency)
+          .onFailure()
+          .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+    }
+    KVQueryTemplates.Operation operation;
+    switch (op) {
+      case PREPEND:
+        operation = KVQueryTemplates.Operation.COLLECTION_PREPEND;
+        break;
+      case REMOVE:
+        operation = KVQueryTemplates.Operation.COLLECTION_REMOVE;
         break;
       default:
-        Builder collectionBuilder = QueryOuterClass.Value.newBuilder().getCollectionBuilder();
+        operation = KVQueryTemplates.Operation.COLLECTION_APPEND;
+        break;
+    }
+    Query query =
+        _query(
+            templates.get(keyspace_name, table_name, operation, type),
+            _toValue(elements, type),
+            _keyValue(key));
+    return _execute(_withTimestamp(query, timestamp), consistency)
+        .map(response -> new KVResponse(200, message))
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
 
-        for (JsonNode node : (ArrayNode) value) {
-          collectionBuilder.addElements(_getValue(node, DATAMAP.get(type)));
-        }
-        Collection collection = collectionBuilder.build();
-        Value val = QueryOuterClass.Value.newBuilder().setCollection(collection).build();
-        if (type.label.startsWith("list")) {
-          query = queryBuilder.value("value_list_" + DATAMAP.get(type).label, val).build();
-        } else {
-          query = queryBuilder.value("value_set_" + DATAMAP.get(type).label, val).build();
-        }
+  /**
+   * Changes the value of a key with conditional writes. Every attempt writes the value computed from
+   * the value the key is expected to hold, on the condition that it still holds it; if another write
+   * came first, the failed condition returns the current value and the next attempt starts from that
+   * one. Helper function for increment and updateCollection.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key.
+   * @param change Computes the response from the current value, null for a missing key. A 200
+   *     carries the new value as body, null or an empty collection deletes the key. Any other
+   *     status is answered without a write.
+   * @param expected The value the key is expected to hold, null to read it.
+   * @param attempts The number of attempts left.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the response of change for the value that was written, 409 if the key kept
+   *     changing.
+   */
+  private Uni<KVResponse> _compareAndSet(
+      String keyspace_name,
+      String table_name,
+      String key,
+      Function<KVData, KVResponse> change,
+      KVData expected,
+      int attempts,
+      QueryOuterClass.Consistency consistency) {
+    if (attempts <= 0) {
+      return Uni.createFrom()
+          .item(
+              new KVResponse(
+                  409, "The key '" + key + "' has been changed concurrently, try again."));
+    }
+    if (expected != null) {
+      return _writeIf(keyspace_name, table_name, key, change, expected, attempts, consistency);
     }
+    return _getVal(keyspace_name, table_name, key, consistency)
+        .chain(
+            current -> {
+              if (current.status_code != 200 && current.status_code != 404) {
+                return Uni.createFrom().item(current);
+              }
+              return _writeIf(
+                  keyspace_name,
+                  table_name,
+                  key,
+                  change,
+                  current.status_code == 200 ? current.body : null,
+                  attempts,
+                  consistency);
+            });
+  }
 
-    try {
-      if (_isKeyInTable(keyspace_name, table_name, key)) {
-        return new KVResponse(409, "The key '" + key + "' already exists.");
-      }
-      bridge.executeQuery(query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
+  /**
+   * Makes one attempt of a compare-and-set. Helper function for _compareAndSet.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key.
+   * @param change Computes the response from the current value, see _compareAndSet.
+   * @param current The value the key is expected to hold, null if it is expected to be missing.
+   * @param attempts The number of attempts left.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse, see _compareAndSet.
+   */
+  private Uni<KVResponse> _writeIf(
+      String keyspace_name,
+      String table_name,
+      String key,
+      Function<KVData, KVResponse> change,
+      KVData current,
+      int attempts,
+      QueryOuterClass.Consistency consistency) {
+    KVResponse next = change.apply(current);
+    KVData value = next.body;
+    boolean deletes = value == null || value.isEmptyCollection();
+    // an unchanged value is still written, the condition checks the expected value
+    if (next.status_code != 200 || (current == null && deletes)) {
+      return Uni.createFrom().item(next);
     }
-    return new KVResponse(
-        201, "The key value pair '" + key + ":" + value + "' has been inserted successfully.");
+    QueryOuterClass.Query query =
+        _conditionalQuery(keyspace_name, table_name, key, deletes ? null : value, current);
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    return _execute(query, consistency)
+        .chain(
+            response -> {
+              QueryOuterClass.ResultSet result = response.getResultSet();
+              QueryOuterClass.Row row = result.getRows(0);
+              if (row.getValues(0).getBoolean()) {
+                return Uni.createFrom().item(next);
+              }
+              // the failed condition carries the current value, null if the key is gone or holds
+              // another type, then it is read again
+              return _compareAndSet(
+                  keyspace_name,
+                  table_name,
+                  key,
+                  change,
+                  _readConflict(row, result, layout),
+                  attempts - 1,
+                  consistency);
+            });
   }
 
   /**
-   * Retrieves a value based on a key from a specified table.
+   * Overwrites or deletes the value of a key with a single conditional write, if the key still holds
+   * the expected value. Unlike _compareAndSet nothing is retried, a conflict is left to the client.
    *
    * @param keyspace_name The name of the keyspace.
    * @param table_name The name of the table.
-   * @param key The key whose value is to be retrieved.
-   * @return KVResponse containing the status code, message, and the retrieved value.
+   * @param key The key.
+   * @param value The new value, null to delete the key.
+   * @param expected The value the key is expected to hold.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse, 200 if the write was applied, else 409 with the current value as
+   *     body, no body if the key is missing or holds a value of another type.
    */
-  public KVResponse getVal(String keyspace_name, String table_name, String key) {
-    // select the value from the table where key = key
+  public Uni<KVResponse> compareAndSet(
+      String keyspace_name,
+      String table_name,
+      String key,
+      KVData value,
+      KVData expected,
+      QueryOuterClass.Consistency consistency) {
+    KVTableLayout layout = catalog.layout(keyspace_name, table_name);
+    return _execute(_conditionalQuery(keyspace_name, table_name, key, value, expected), consistency)
+        .map(
+            response -> {
+              QueryOuterClass.ResultSet result = response.getResultSet();
+              QueryOuterClass.Row row = result.getRows(0);
+              if (row.getValues(0).getBoolean()) {
+                return new KVResponse(
+                    200,
+                    "The key '"
+                        + key
+                        + "' has been "
+                        + (value == null ? "deleted" : "updated")
+                        + " successfully.");
+              }
+              KVResponse conflict =
+                  new KVResponse(409, "The key '" + key + "' does not hold the expected value.");
+              conflict.body = _readConflict(row, result, layout);
+              return conflict;
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
+
+  /**
+   * Builds the conditional write of a compare-and-set. Helper function.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key.
+   * @param value The new value, null to delete the key.
+   * @param current The value the key is expected to hold, null if it is expected to be missing.
+   * @return Query INSERT_IF_NOT_EXISTS if current is null, DELETE_IF if value is null, else
+   *     UPDATE_IF.
+   */
+  private Query _conditionalQuery(
+      String keyspace_name, String table_name, String key, KVData value, KVData current) {
+    if (current == null) {
+      return _query(
+          templates.get(
+              keyspace_name,
+              table_name,
+              KVQueryTemplates.Operation.INSERT_IF_NOT_EXISTS,
+              value.type),
+          _keyValue(key),
+          _bindValue(keyspace_name, table_name, value.getJsonBody(), value.type));
+    }
+    if (value == null) {
+      return _query(
+          templates.get(
+              keyspace_name, table_name, KVQueryTemplates.Operation.DELETE_IF, current.type),
+          _keyValue(key),
+          _bindValue(keyspace_name, table_name, current.getJsonBody(), current.type));
+    }
+    return _query(
+        templates.getUpdateIf(keyspace_name, table_name, value.type, current.type),
+        _bindValue(keyspace_name, table_name, value.getJsonBody(), value.type),
+        _keyValue(key),
+        _bindValue(keyspace_name, table_name, current.getJsonBody(), current.type));
+  }
+
+  /**
+   * Adds a delta to a number. Helper function for increment.
+   *
+   * @param value The number, not modified.
+   * @param delta The delta.
+   * @return KVData The sum, or null if the value is not a number or an INT and the delta is not an
+   *     int.
+   * @throws ArithmeticException If the sum of INTs overflows.
+   */
+  private static KVData _add(KVData value, JsonNode delta) {
+    KVData sum = new KVData(value.type);
+    if (value.type == KVDataType.DOUBLE) {
+      sum.value_double = value.value_double + delta.asDouble();
+      return sum;
+    }
+    if (value.type != KVDataType.INT || !delta.isIntegralNumber() || !delta.canConvertToInt()) {
+      return null;
+    }
+    sum.value_int = Math.addExact(value.value_int, delta.asInt());
+    return sum;
+  }
+
+  /**
+   * Deletes a key-value pair from a specified table.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param key The key to be deleted.
+   * @param timestamp The write timestamp of the delete in microseconds, see KVClock. Only used by
+   *     fire-and-forget deletes, Cassandra assigns the timestamp of the conditional delete itself.
+   * @param fire_and_forget True to send the delete without waiting for it and without checking
+   *     whether the key exists.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse containing the status code and message of the operation, 202 for a
+   *     fire-and-forget delete.
+   */
+  public Uni<KVResponse> deleteKey(
+      String keyspace_name,
+      String table_name,
+      String key,
+      long timestamp,
+      boolean fire_and_forget,
+      QueryOuterClass.Consistency consistency) {
+    if (fire_and_forget) {
+      QueryOuterClass.Query query =
+          _query(
+              templates.get(keyspace_name, table_name, KVQueryTemplates.Operation.DELETE, null),
+              _keyValue(key));
+      _execute(_withTimestamp(query, timestamp), consistency)
+          .subscribe()
+          .with(
+              response -> {},
+              ex ->
+                  LOG.warnf(
+                      "Delete of key '%s' in %s.%s failed: %s",
+                      key, keyspace_name, table_name, ex.getMessage()));
+      return Uni.createFrom()
+          .item(new KVResponse(202, "The delete of the key '" + key + "' has been accepted."));
+    }
+    // delete the row from the table where key = key, the result tells whether it existed
     QueryOuterClass.Query query =
-        new QueryBuilder()
-            .select()
-            .column(columns)
-            .from(keyspace_name, table_name)
-            .where("key", Predicate.EQ, QueryOuterClass.Value.newBuilder().setString(key).build())
-            .build();
+        _query(
+            templates.get(
+                keyspace_name, table_name, KVQueryTemplates.Operation.DELETE_IF_EXISTS, null),
+            _keyValue(key));
+    return _execute(query, consistency)
+        .map(
+            response -> {
+              QueryOuterClass.Row row = response.getResultSet().getRows(0);
+              if (!row.getValues(0).getBoolean()) {
+                return new KVResponse(
+                    404, "The key '" + key + "' cannot be found in the current database.");
+              }
+              return new KVResponse(200, "The key '" + key + "' has been deleted successfully.");
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _handleFailure(ex, keyspace_name, table_name));
+  }
 
-    QueryOuterClass.Response response;
 
-    try {
-      response = bridge.executeQuery(query);
-      if (response.getResultSet().getRowsCount() == 0) {
-        return new KVResponse(
-            404, "The key '" + key + "' cannot be found in the current database.");
+  /**
+   * Writes many key-value pairs of a table. Updates and blind inserts are grouped into unlogged
+   * batches, conditional inserts are executed one by one since a lightweight transaction cannot
+   * span partitions. At most parallelism groups are in flight at a time.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param mutations The validated mutations, each key at most once.
+   * @param timestamp The write timestamp of the batches in microseconds, see KVClock.
+   * @param blind_upsert True to overwrite existing keys on insert instead of answering 409.
+   * @param group_size The maximum number of statements of one batch.
+   * @param parallelism The maximum number of batches and conditional inserts in flight.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse of each mutation, in the order of mutations. A 409 carries the
+   *     existing value as body.
+   */
+  public Uni<List<KVResponse>> batchWrite(
+      String keyspace_name,
+      String table_name,
+      List<KVMutation> mutations,
+      long timestamp,
+      boolean blind_upsert,
+      int group_size,
+      int parallelism,
+      QueryOuterClass.Consistency consistency) {
+    List<BatchGroup> groups = new ArrayList<>();
+    BatchGroup batched = null;
+    for (int i = 0; i < mutations.size(); i++) {
+      KVMutation mutation = mutations.get(i);
+      if (!mutation.update && !blind_upsert) {
+        BatchGroup single = new BatchGroup();
+        single.indices.add(i);
+        groups.add(single);
+        continue;
+      }
+      if (batched == null || batched.indices.size() >= group_size) {
+        batched = new BatchGroup();
+        groups.add(batched);
+      }
+      batched.indices.add(i);
+    }
+
+    return _executeGroups(
+        groups,
+        mutations.size(),
+        parallelism,
+        group ->
+            _executeGroup(
+                keyspace_name, table_name, mutations, group, timestamp, blind_upsert, consistency));
+  }
+
+  /**
+   * Executes one group of a batch write. Helper function for batchWrite.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param mutations All mutations of the request.
+   * @param group The group to execute.
+   * @param timestamp The write timestamp of the batch in microseconds.
+   * @param blind_upsert True if inserts overwrite existing keys.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the response of each mutation of the group.
+   */
+  private Uni<List<KVResponse>> _executeGroup(
+      String keyspace_name,
+      String table_name,
+      List<KVMutation> mutations,
+      BatchGroup group,
+      long timestamp,
+      boolean blind_upsert,
+      QueryOuterClass.Consistency consistency) {
+    KVMutation first = mutations.get(group.indices.get(0));
+    if (!first.update && !blind_upsert) {
+      // a conditional insert is its own group
+      return putKeyVal(
+              keyspace_name,
+              table_name,
+              first.key,
+              first.value,
+              first.type,
+              timestamp,
+              false,
+              0,
+              consistency)
+          .map(List::of);
+    }
+    List<QueryOuterClass.BatchQuery> queries = new ArrayList<>();
+    for (int index : group.indices) {
+      KVMutation mutation = mutations.get(index);
+      String cql = _batchCql(keyspace_name, table_name, mutation);
+      // UPDATE binds the key last, UPSERT first
+      Value value = _bindValue(keyspace_name, table_name, mutation.value, mutation.type);
+      Values values =
+          mutation.update
+              ? _values(value, _keyValue(mutation.key))
+              : _values(_keyValue(mutation.key), value);
+      queries.add(QueryOuterClass.BatchQuery.newBuilder().setCql(cql).setValues(values).build());
+    }
+
+    return _executeBatch(queries, timestamp, consistency)
+        .map(
+            response -> {
+              List<KVResponse> responses = new ArrayList<>();
+              for (int index : group.indices) {
+                KVMutation mutation = mutations.get(index);
+                responses.add(
+                    mutation.update
+                        ? new KVResponse(
+                            200, "The key '" + mutation.key + "' has been updated successfully.")
+                        : new KVResponse(
+                            201, "The key '" + mutation.key + "' has been inserted successfully."));
+              }
+              return responses;
+            })
+        .onFailure()
+        .recoverWithItem(ex -> _failGroup(ex, keyspace_name, table_name, group));
+  }
+
+  /**
+   * Retrieves the CQL of a mutation sent in an unlogged batch. Helper function for _executeGroup,
+   * package-private for tests.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param mutation The mutation, an update or the blind upsert of an insert.
+   * @return String The CQL, an insert clears the value columns of the other types like UPDATE does.
+   */
+  String _batchCql(String keyspace_name, String table_name, KVMutation mutation) {
+    KVQueryTemplates.Operation operation =
+        mutation.update ? KVQueryTemplates.Operation.UPDATE : KVQueryTemplates.Operation.UPSERT;
+    return templates.get(keyspace_name, table_name, operation, mutation.type);
+  }
+
+  /**
+   * Deletes many keys of a table. Without existence check the deletes are grouped into unlogged
+   * batches and every key is answered with 200, otherwise each key is deleted with a conditional
+   * delete that reports 404 for a missing key. At most parallelism groups are in flight at a time.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param keys The keys to be deleted, each at most once.
+   * @param timestamp The write timestamp of the batches in microseconds, see KVClock. Not used by
+   *     the conditional deletes.
+   * @param check_existence True to answer 404 for keys that do not exist.
+   * @param group_size The maximum number of statements of one batch.
+   * @param parallelism The maximum number of batches and conditional deletes in flight.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the KVResponse of each key, in the order of keys.
+   */
+  public Uni<List<KVResponse>> batchDelete(
+      String keyspace_name,
+      String table_name,
+      List<String> keys,
+      long timestamp,
+      boolean check_existence,
+      int group_size,
+      int parallelism,
+      QueryOuterClass.Consistency consistency) {
+    // a lightweight transaction cannot span partitions, a conditional delete is its own group
+    int size = check_existence ? 1 : Math.max(1, group_size);
+    List<BatchGroup> groups = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i++) {
+      if (i % size == 0) {
+        groups.add(new BatchGroup());
       }
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
+      groups.get(groups.size() - 1).indices.add(i);
     }
-    // get the row from the response
+
+    return _executeGroups(
+        groups,
+        keys.size(),
+        parallelism,
+        group -> {
+          if (check_existence) {
+            String key = keys.get(group.indices.get(0));
+            return deleteKey(keyspace_name, table_name, key, timestamp, false, consistency)
+                .map(List::of);
+          }
+          String cql =
+              templates.get(keyspace_name, table_name, KVQueryTemplates.Operation.DELETE, null);
+          List<QueryOuterClass.BatchQuery> queries = new ArrayList<>();
+          for (int index : group.indices) {
+            queries.add(
+                QueryOuterClass.BatchQuery.newBuilder()
+                    .setCql(cql)
+                    .setValues(_values(_keyValue(keys.get(index))))
+                    .build());
+          }
+          return _executeBatch(queries, timestamp, consistency)
+              .map(
+                  response -> {
+                    List<KVResponse> responses = new ArrayList<>();
+                    for (int index : group.indices) {
+                      responses.add(
+                          new KVResponse(
+                              200,
+                              "The key '" + keys.get(index) + "' has been deleted successfully."));
+                    }
+                    return responses;
+                  })
+              .onFailure()
+              .recoverWithItem(ex -> _failGroup(ex, keyspace_name, table_name, group));
+        });
+  }
+
+  /**
+   * Executes the groups of a batch request, at most parallelism at a time. Helper function.
+   *
+   * @param groups The groups.
+   * @param count The number of items of the request.
+   * @param parallelism The maximum number of groups in flight.
+   * @param executor Executes one group, answering each of its items.
+   * @return Uni of the response of each item, in request order.
+   */
+  private Uni<List<KVResponse>> _executeGroups(
+      List<BatchGroup> groups,
+      int count,
+      int parallelism,
+      Function<BatchGroup, Uni<List<KVResponse>>> executor) {
+    return Multi.createFrom()
+        .iterable(groups)
+        .onItem()
+        .transformToUni(
+            group ->
+                executor
+                    .apply(group)
+                    .map(
+                        responses -> {
+                          group.responses = responses;
+                          return group;
+                        }))
+        .merge(Math.max(1, parallelism))
+        .collect()
+        .asList()
+        .map(
+            executed -> {
+              KVResponse[] results = new KVResponse[count];
+              for (BatchGroup group : executed) {
+                for (int i = 0; i < group.indices.size(); i++) {
+                  results[group.indices.get(i)] = group.responses.get(i);
+                }
+              }
+              return Arrays.asList(results);
+            });
+  }
+
+  /**
+   * Executes statements as one unlogged batch with the async API of the bridge. Helper function.
+   *
+   * @param queries The statements.
+   * @param timestamp The write timestamp of the batch in microseconds.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the response, the batch is only sent on subscription.
+   */
+  private Uni<QueryOuterClass.Response> _executeBatch(
+      List<QueryOuterClass.BatchQuery> queries,
+      long timestamp,
+      QueryOuterClass.Consistency consistency) {
+    QueryOuterClass.Batch.Builder batch =
+        QueryOuterClass.Batch.newBuilder().setType(QueryOuterClass.Batch.Type.UNLOGGED);
+    for (QueryOuterClass.BatchQuery query : queries) {
+      batch.addQueries(query);
+    }
+    QueryOuterClass.BatchParameters.Builder parameters =
+        QueryOuterClass.BatchParameters.newBuilder().setTimestamp(Int64Value.of(timestamp));
+    if (consistency != null) {
+      parameters.setConsistency(
+          QueryOuterClass.ConsistencyValue.newBuilder().setValue(consistency).build());
+    }
+    batch.setParameters(parameters.build());
+    return breaker.call(
+        () -> Uni.createFrom().completionStage(() -> bridge.executeBatchAsync(batch.build())));
+  }
+
+  /**
+   * Reports the failure of a batch for every item of its group. Helper function.
+   *
+   * @param ex The failure.
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param group The group of the failed batch.
+   * @return The response of each item of the group.
+   */
+  private List<KVResponse> _failGroup(
+      Throwable ex, String keyspace_name, String table_name, BatchGroup group) {
+    KVResponse failure = _handleFailure(ex, keyspace_name, table_name);
+    List<KVResponse> responses = new ArrayList<>();
+    for (int i = 0; i < group.indices.size(); i++) {
+      responses.add(new KVResponse(failure.status_code, failure.message));
+    }
+    return responses;
+  }
+
+
+  /**
+   * Executes a query with the async API of the bridge, the returned Uni completes on the gRPC
+   * thread without blocking the caller. Fails fast while the circuit breaker is open. Helper
+   * function.
+   *
+   * @param query The query.
+   * @return Uni of the response, the query is only sent on subscription.
+   */
+  private Uni<QueryOuterClass.Response> _execute(Query query) {
+    return breaker.call(
+        () -> Uni.createFrom().completionStage(() -> bridge.executeQueryAsync(query)));
+  }
+
+  /**
+   * Executes a query at a consistency level, see _execute(Query). Helper function.
+   *
+   * @param query The query.
+   * @param consistency The consistency level, null for the default of the bridge.
+   * @return Uni of the response, the query is only sent on subscription.
+   */
+  private Uni<QueryOuterClass.Response> _execute(
+      Query query, QueryOuterClass.Consistency consistency) {
+    return _execute(_withConsistency(query, consistency));
+  }
+
+  /**
+   * Maps a failed query to a KVResponse. Helper function.
+   *
+   * @param ex The failure.
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return KVResponse containing the status code and message of the failure.
+   */
+  KVResponse _handleFailure(Throwable ex, String keyspace_name, String table_name) {
+    if (ex instanceof CompletionException && ex.getCause() != null) {
+      ex = ex.getCause();
+    }
+    if (ex instanceof StatusRuntimeException) {
+      return _handleStatusRuntimeException((StatusRuntimeException) ex, keyspace_name, table_name);
+    }
+    return new KVResponse(500, ex.getMessage());
+  }
+
+  /**
+   * Builds a query from a template and its bound values. Helper function.
+   *
+   * @param cql The CQL template, see KVQueryTemplates.
+   * @param values The values of the bind markers, in order.
+   * @return Query The query.
+   */
+  private Query _query(String cql, Value... values) {
+    return Query.newBuilder().setCql(cql).setValues(_values(values)).build();
+  }
+
+  /**
+   * Builds the bound values of a statement. Helper function.
+   *
+   * @param values The values of the bind markers, in order.
+   * @return Values The bound values.
+   */
+  private Values _values(Value... values) {
+    Values.Builder bound = Values.newBuilder();
+    for (Value value : values) {
+      bound.addValues(value);
+    }
+    return bound.build();
+  }
+
+  /**
+   * Get the Value of a key. Helper function.
+   *
+   * @param key The key.
+   * @return Value The value.
+   */
+  private Value _keyValue(String key) {
+    return Value.newBuilder().setString(key).build();
+  }
+
+  /**
+   * Get the Value of a TTL. Helper function.
+   *
+   * @param ttl The TTL in seconds.
+   * @return Value The value.
+   */
+  private Value _ttlValue(int ttl) {
+    return Value.newBuilder().setInt(ttl).build();
+  }
+
+  /**
+   * Get the Value to bind for a value of a table, a blob with the KVDataCodec encoding for the compact
+   * layout. Helper function.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param value The JsonNode value.
+   * @param type The KVDataType.
+   * @return The Value.
+   */
+  private Value _bindValue(
+      String keyspace_name, String table_name, JsonNode value, KVDataType type) {
+    if (catalog.layout(keyspace_name, table_name) != KVTableLayout.COMPACT) {
+      return _toValue(value, type);
+    }
+    byte[] encoded = KVDataCodec.encode(KVData.fromJson(value, type));
+    return Value.newBuilder().setBytes(ByteString.copyFrom(encoded)).build();
+  }
+
+  /**
+   * Reads the value of a row whose value columns start at first. Helper function, package-private
+   * for tests.
+   *
+   * @param row The row.
+   * @param first The index of the first value column in the row, 0 for getVal and 1 for a scan.
+   * @param layout The layout of the table.
+   * @return KVData The value, or null if it is not set.
+   */
+  KVData _readRow(QueryOuterClass.Row row, int first, KVTableLayout layout) {
+    if (layout == KVTableLayout.COMPACT) {
+      Value value = row.getValues(first);
+      return value.hasNull() ? null : KVDataCodec.decode(value.getBytes().toByteArray());
+    }
+    return _readValue(row, first == 0 ? valueIndices : scanIndices);
+  }
+
+  /**
+   * Reads the existing value from the result of a failed conditional insert, its columns are
+   * identified by name. Helper function.
+   *
+   * @param row The row.
+   * @param result The result set of the row.
+   * @param layout The layout of the table.
+   * @return KVData The existing value.
+   */
+  private KVData _readConflict(
+      QueryOuterClass.Row row, QueryOuterClass.ResultSet result, KVTableLayout layout) {
+    if (layout != KVTableLayout.COMPACT) {
+      return _readValue(row, _getValueIndices(result.getColumnsList()));
+    }
+    List<QueryOuterClass.ColumnSpec> specs = result.getColumnsList();
+    for (int i = 0; i < specs.size(); i++) {
+      if (specs.get(i).getName().equals(KVQueryTemplates.COMPACT_VALUE_COLUMN)) {
+        return _readRow(row, i, layout);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the number of value columns of a layout. Helper function.
+   *
+   * @param layout The layout of the table.
+   * @return int The number of value columns.
+   */
+  private int _valueCount(KVTableLayout layout) {
+    return layout == KVTableLayout.COMPACT ? 1 : columns.size();
+  }
+
+  /**
+   * Reads the value of a row, the first value column that is set determines the type. Helper function.
+   *
+   * @param row The row.
+   * @param indices The index in the row of each value column, in the order of columns.
+   * @return KVData The value, or null if no value column is set.
+   */
+  private KVData _readValue(QueryOuterClass.Row row, int[] indices) {
     KVData body = new KVData();
-    QueryOuterClass.Row row = response.getResultSet().getRows(0);
     Value value = null;
     for (int i = 0; i < columns.size(); i++) {
-      if (!row.getValues(i).hasNull()) {
+      if (indices[i] >= 0 && !row.getValues(indices[i]).hasNull()) {
         body.type = KVDataType.get(columns.get(i).type());
-        value = row.getValues(i);
+        value = row.getValues(indices[i]);
         break;
       }
     }
+    if (value == null) {
+      return null;
+    }
 
     switch (body.type) {
       case INT:
@@ -415,105 +1709,112 @@ public class KVCassandra {
         }
         break;
     }
-
-    return new KVResponse(body);
+    return body;
   }
 
   /**
-   * Updates a value for a specific key in a table. If the key does not exist, insert the key-value pair.
+   * Finds the value columns in the columns of a result set. Helper function.
    *
-   * @param keyspace_name The name of the keyspace.
-   * @param table_name The name of the table.
-   * @param key The key whose value is to be updated.
-   * @param value The new value to be associated with the key.
-   * @param type The data type of the value.
-   * @return KVResponse containing the status code and message of the operation.
+   * @param specs The columns of the result set.
+   * @return int[] The index of each value column, in the order of columns, -1 if missing.
    */
-  public KVResponse updateVal(
-      String keyspace_name, String table_name, String key, JsonNode value, KVDataType type) {
-    // update the value in the table where key = key, if it exists, otherwise return
-
-    QueryBuilder__7 queryBuilder = new QueryBuilder().update(keyspace_name, table_name);
-    QueryBuilder__26 query;
-    Null null_value = QueryOuterClass.Value.newBuilder().getNull();
-    for (Column column : columns) {
-      if (KVDataType.get(column.type()) != type) {
-        query =
-            queryBuilder.value(
-                column, QueryOuterClass.Value.newBuilder().setNull(null_value).build());
-
+  private int[] _getValueIndices(List<QueryOuterClass.ColumnSpec> specs) {
+    int[] indices = new int[columns.size()];
+    for (int i = 0; i < columns.size(); i++) {
+      indices[i] = -1;
+      for (int j = 0; j < specs.size(); j++) {
+        if (specs.get(j).getName().equals(columns.get(i).name())) {
+          indices[i] = j;
+          break;
+        }
       }
     }
+    return indices;
+  }
 
-    switch (type) {
-      case INT:
-      case TEXT:
-      case DOUBLE:
-        query = queryBuilder.value("value_" + type.label, _getValue(value, type));
-        break;
-      default:
-        Builder collectionBuilder = QueryOuterClass.Value.newBuilder().getCollectionBuilder();
-
-        for (JsonNode node : (ArrayNode) value) {
-          collectionBuilder.addElements(_getValue(node, DATAMAP.get(type)));
-        }
-        Collection collection = collectionBuilder.build();
-        Value val = QueryOuterClass.Value.newBuilder().setCollection(collection).build();
-        if (type.label.startsWith("list")) {
-          query = queryBuilder.value("value_list_" + DATAMAP.get(type).label, val);
-        } else {
-          query = queryBuilder.value("value_set_" + DATAMAP.get(type).label, val);
-        }
+  /**
+   * Reads the newest writetime of the scalar value columns from a row, or of the value column of a
+   * compact table. Helper function.
+   *
+   * @param row The row.
+   * @param offset The index of the first writetime column in the row.
+   * @param layout The layout of the table.
+   * @return long The writetime in microseconds, -1 if none of the scalar columns is set.
+   */
+  private long _getWritetime(QueryOuterClass.Row row, int offset, KVTableLayout layout) {
+    long writetime = -1;
+    int count = _writetimeCount(layout);
+    for (int i = offset; i < offset + count; i++) {
+      if (!row.getValues(i).hasNull()) {
+        writetime = Math.max(writetime, row.getValues(i).getInt());
+      }
     }
+    return writetime;
+  }
 
-    Query final_query =
-        query
-            .where("key", Predicate.EQ, QueryOuterClass.Value.newBuilder().setString(key).build())
-            .build();
+  /**
+   * Get the number of writetime (and ttl) columns a layout selects. Helper function.
+   *
+   * @param layout The layout of the table.
+   * @return int 1 for the value column of a compact table, 3 for the scalar columns otherwise.
+   */
+  private int _writetimeCount(KVTableLayout layout) {
+    return layout == KVTableLayout.COMPACT ? 1 : 3;
+  }
 
-    try {
-      // if (!isKeyInTable(keyspace_name, table_name, key)) {
-      //   return new KVResponse(
-      //       404, "The key '" + key + "' cannot be found in the current database.");
-      // }
-      bridge.executeQuery(final_query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
+  /**
+   * Reads the remaining TTL of the value from a row of SELECT_VALUE. Only one scalar column is set,
+   * collections of a legacy table never have a TTL, see KeyValueResource. Helper function.
+   *
+   * @param row The row.
+   * @param offset The index of the first ttl column in the row.
+   * @return Integer The remaining TTL in seconds, null if the value does not expire.
+   */
+  private Integer _getTtl(QueryOuterClass.Row row, int offset) {
+    for (int i = offset; i < row.getValuesCount(); i++) {
+      if (!row.getValues(i).hasNull()) {
+        return (int) row.getValues(i).getInt();
+      }
     }
-    return new KVResponse(
-        200, "The key value pair '" + key + ":" + value + "' has been updated successfully.");
+    return null;
   }
 
   /**
-   * Deletes a key-value pair from a specified table.
+   * Sets the consistency level of a query. A LOCAL_* level also keeps the Paxos round of a
+   * conditional statement in the local datacenter (LOCAL_SERIAL). Helper function.
    *
-   * @param keyspace_name The name of the keyspace.
-   * @param table_name The name of the table.
-   * @param key The key to be deleted.
-   * @return KVResponse containing the status code and message of the operation.
+   * @param query The query.
+   * @param consistency The consistency level, null to keep the default of the bridge.
+   * @return Query The query with the consistency level set.
    */
-  public KVResponse deleteKey(String keyspace_name, String table_name, String key) {
-    // delete the row from the table where key = key
-    QueryOuterClass.Query query =
-        new QueryBuilder()
-            .delete()
-            .from(keyspace_name, table_name)
-            .where("key", Predicate.EQ, QueryOuterClass.Value.newBuilder().setString(key).build())
-            .build();
-    try {
-      if (!_isKeyInTable(keyspace_name, table_name, key)) {
-        return new KVResponse(
-            404, "The key '" + key + "' cannot be found in the current database.");
-      }
-      bridge.executeQuery(query);
-    } catch (StatusRuntimeException ex) {
-      return _handleStatusRuntimeException(ex, keyspace_name, table_name);
-    } catch (Exception ex) {
-      return new KVResponse(500, ex.getMessage());
+  private Query _withConsistency(Query query, QueryOuterClass.Consistency consistency) {
+    if (consistency == null) {
+      return query;
+    }
+    QueryOuterClass.QueryParameters.Builder parameters =
+        query.getParameters().toBuilder()
+            .setConsistency(
+                QueryOuterClass.ConsistencyValue.newBuilder().setValue(consistency).build());
+    if (consistency.name().startsWith("LOCAL_")) {
+      parameters.setSerialConsistency(
+          QueryOuterClass.ConsistencyValue.newBuilder()
+              .setValue(QueryOuterClass.Consistency.LOCAL_SERIAL)
+              .build());
     }
-    return new KVResponse(200, "The key '" + key + "' has been deleted successfully.");
+    return query.toBuilder().setParameters(parameters).build();
+  }
+
+  /**
+   * Sets the write timestamp of a query (USING TIMESTAMP). Helper function.
+   *
+   * @param query The query.
+   * @param timestamp The write timestamp in microseconds.
+   * @return Query The query with the timestamp set.
+   */
+  private Query _withTimestamp(Query query, long timestamp) {
+    return query.toBuilder()
+        .setParameters(query.getParameters().toBuilder().setTimestamp(Int64Value.of(timestamp)))
+        .build();
   }
 
   /**
@@ -534,6 +1835,10 @@ public class KVCassandra {
       return new KVResponse(
           401, "The request is unauthorized. Check if the X-Authentication-Token is correct.");
     } else if (code == Status.Code.INVALID_ARGUMENT) {
+      if (_isUnknownSchema(error_message)) {
+        // the keyspace or table is gone, the schema catalog is outdated
+        catalog.invalidate();
+      }
       String error_type =
           error_message.substring(error_message.indexOf(":") + 2, error_message.indexOf(":") + 3);
       if (error_type.equals("k") || error_type.equals("K")) {
@@ -550,4 +1855,19 @@ public class KVCassandra {
           503, "Service not available. Check if the server is running correctly.");
     }
   }
+
+  /**
+   * Checks whether an INVALID_ARGUMENT error reports an unknown keyspace or table, as opposed to an
+   * invalid statement or value. Helper function.
+   *
+   * @param error_message The message of the error.
+   * @return boolean True for an unknown keyspace or table.
+   */
+  static boolean _isUnknownSchema(String error_message) {
+    if (error_message == null) {
+      return false;
+    }
+    String message = error_message.toLowerCase();
+    return message.contains("does not exist") || message.contains("unconfigured table");
+  }
 }
@@ -0,0 +1,230 @@
+package org.stargate.rest.json;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Class KVCircuitBreaker - Stops sending statements to the bridge while it or Cassandra is failing.
+ *
+ * CLOSED: every call goes through, the outcome of the last kvstore.breaker.window calls is kept. Once
+ * at least kvstore.breaker.minimum-calls have been seen and kvstore.breaker.failure-ratio of them
+ * failed with an outage (unavailable, deadline exceeded, internal errors), the breaker opens.
+ *
+ * OPEN: calls fail immediately with UNAVAILABLE, without waiting for a gRPC timeout. After
+ * kvstore.breaker.open-ms the breaker becomes half-open.
+ *
+ * HALF_OPEN: kvstore.breaker.probe-ratio of the calls are let through as probes, the others still
+ * fail fast. kvstore.breaker.probe-successes successful probes in a row close the breaker, a failed
+ * probe opens it again.
+ */
+@ApplicationScoped
+public class KVCircuitBreaker {
+  private static final Logger LOG = Logger.getLogger(KVCircuitBreaker.class);
+
+  /** The state of the breaker. */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  // Fraction of failed calls in the window that opens the breaker, 0 disables the breaker
+  @ConfigProperty(name = "kvstore.breaker.failure-ratio", defaultValue = "0.5")
+  double failureRatio;
+
+  // Number of recent calls the failure ratio is computed from
+  @ConfigProperty(name = "kvstore.breaker.window", defaultValue = "100")
+  int window;
+
+  // Minimum number of calls in the window before the breaker can open
+  @ConfigProperty(name = "kvstore.breaker.minimum-calls", defaultValue = "20")
+  int minimumCalls;
+
+  // Time in milliseconds the breaker stays open before it probes
+  @ConfigProperty(name = "kvstore.breaker.open-ms", defaultValue = "5000")
+  long openMs;
+
+  // Fraction of the calls let through while half-open
+  @ConfigProperty(name = "kvstore.breaker.probe-ratio", defaultValue = "0.1")
+  double probeRatio;
+
+  // Successful probes in a row that close the breaker
+  @ConfigProperty(name = "kvstore.breaker.probe-successes", defaultValue = "5")
+  int probeSuccesses;
+
+  @Inject MeterRegistry registry;
+
+  private Counter rejectedCalls; // Calls failed fast by the breaker
+  private Counter openings; // Times the breaker opened
+
+  private State state = State.CLOSED;
+  // Outcome of the recent calls, true for a failure, written round robin
+  private boolean[] outcomes;
+  private int next;
+  private int calls;
+  private int failures;
+  // Time the breaker opened
+  private long openedAt;
+  // Successful probes since the breaker became half-open
+  private int probes;
+
+  public KVCircuitBreaker() {}
+
+  @PostConstruct
+  void init() {
+    outcomes = new boolean[Math.max(1, window)];
+    rejectedCalls = registry.counter("kvstore.breaker.rejected");
+    openings = registry.counter("kvstore.breaker.opened");
+    registry.gauge("kvstore.breaker.state", this, breaker -> breaker.getState().ordinal());
+  }
+
+  /**
+   * Runs a call to the bridge unless the breaker is open.
+   *
+   * @param call Creates the call.
+   * @return Uni of the outcome of the call, or a failure with status UNAVAILABLE if the breaker
+   *     rejected it.
+   */
+  public <T> Uni<T> call(Supplier<Uni<T>> call) {
+    if (failureRatio <= 0) {
+      return call.get();
+    }
+    return Uni.createFrom()
+        .deferred(
+            () -> {
+              boolean probe;
+              synchronized (this) {
+                _advance();
+                probe = state == State.HALF_OPEN;
+                if (state == State.OPEN
+                    || (probe && ThreadLocalRandom.current().nextDouble() >= probeRatio)) {
+                  rejectedCalls.increment();
+                  return Uni.createFrom()
+                      .failure(
+                          new StatusRuntimeException(
+                              Status.UNAVAILABLE.withDescription("Circuit breaker is open")));
+                }
+              }
+              return call.get()
+                  .onItemOrFailure()
+                  .invoke((item, ex) -> _record(ex != null && _isOutage(ex), probe));
+            });
+  }
+
+  /**
+   * Checks whether calls are currently failed fast, e.g. to serve stale values instead.
+   *
+   * @return boolean True if the breaker is open or half-open.
+   */
+  public synchronized boolean isOpen() {
+    _advance();
+    return state != State.CLOSED;
+  }
+
+  /**
+   * Retrieves the state of the breaker.
+   *
+   * @return State The state.
+   */
+  public synchronized State getState() {
+    _advance();
+    return state;
+  }
+
+  // ==================== Helper Functions ====================
+
+  /** Helper function, moves an open breaker to half-open once open-ms is over. Must hold the lock. */
+  private void _advance() {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+      state = State.HALF_OPEN;
+      probes = 0;
+      LOG.info("Circuit breaker half-open, probing the bridge");
+    }
+  }
+
+  /**
+   * Helper function, records the outcome of a call.
+   * @param failed true if the call failed with an outage
+   * @param probe true if the call was a probe of a half-open breaker
+   */
+  private synchronized void _record(boolean failed, boolean probe) {
+    if (state == State.HALF_OPEN && probe) {
+      if (failed) {
+        _open();
+      } else if (++probes >= probeSuccesses) {
+        state = State.CLOSED;
+        _clear();
+        LOG.info("Circuit breaker closed");
+      }
+      return;
+    }
+    if (state != State.CLOSED) {
+      // a call started before the breaker opened
+      return;
+    }
+    if (calls == outcomes.length) {
+      failures -= outcomes[next] ? 1 : 0;
+    } else {
+      calls++;
+    }
+    outcomes[next] = failed;
+    failures += failed ? 1 : 0;
+    next = (next + 1) % outcomes.length;
+    if (calls >= minimumCalls && failures >= failureRatio * calls) {
+      _open();
+    }
+  }
+
+  /** Helper function, opens the breaker. Must hold the lock. */
+  private void _open() {
+    state = State.OPEN;
+    openedAt = System.currentTimeMillis();
+    _clear();
+    openings.increment();
+    LOG.warnf("Circuit breaker open for %d ms", openMs);
+  }
+
+  /** Helper function, forgets the recent calls. Must hold the lock. */
+  private void _clear() {
+    calls = 0;
+    failures = 0;
+    next = 0;
+  }
+
+  /**
+   * Helper function, checks whether a failure means the bridge or Cassandra is unavailable, as
+   * opposed to a failure of the request itself (unknown table, bad credentials, ...).
+   * @param ex the failure
+   * @return true for an outage
+   */
+  private static boolean _isOutage(Throwable ex) {
+    if (ex instanceof CompletionException && ex.getCause() != null) {
+      ex = ex.getCause();
+    }
+    if (!(ex instanceof StatusRuntimeException)) {
+      return true;
+    }
+    switch (((StatusRuntimeException) ex).getStatus().getCode()) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+      case INTERNAL:
+      case UNKNOWN:
+      case ABORTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
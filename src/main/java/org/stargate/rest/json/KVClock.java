@@ -0,0 +1,25 @@
+package org.stargate.rest.json;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Class KVClock - Hands out strictly increasing write timestamps in microseconds.
+ *
+ * Each write is sent to Cassandra with its timestamp (USING TIMESTAMP) and cached with the same
+ * value as version, so the cache and Cassandra agree on which of two concurrent writes wins.
+ */
+@ApplicationScoped
+public class KVClock {
+  private final AtomicLong last = new AtomicLong();
+
+  /**
+   * Returns the next write timestamp, never lower than or equal to a previously returned one.
+   *
+   * @return long The timestamp in microseconds since the epoch.
+   */
+  public long next() {
+    long now = System.currentTimeMillis() * 1000;
+    return last.updateAndGet(previous -> Math.max(now, previous + 1));
+  }
+}
@@ -0,0 +1,132 @@
+package org.stargate.rest.json;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A partial mutation of a list or set value, see PATCH with "op".
+ *
+ * On a legacy table each maps to a CQL collection update expression (col = col + ?, col = ? + col,
+ * col = col - ?), so only the elements cross the network and get written. apply computes the same
+ * result on a copy of a value, e.g. the cached one. APPEND, PREPEND and ADD overwrite a value of
+ * another type with the elements, the same way PATCH does; REMOVE leaves it unchanged.
+ */
+public enum KVCollectionOp {
+  APPEND("append"), // elements at the end of a list
+  PREPEND("prepend"), // elements at the start of a list
+  ADD("add"), // elements into a set
+  REMOVE("remove"); // every occurrence of the elements from a list or set
+  public final String label;
+
+  private KVCollectionOp(String label) {
+    this.label = label;
+  }
+
+  public static KVCollectionOp get(String label) {
+    for (KVCollectionOp op : values()) {
+      if (op.label.equals(label)) {
+        return op;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether the mutation applies to a type of collection.
+   *
+   * @param type The type of the collection.
+   * @return boolean True for lists with APPEND and PREPEND, sets with ADD and both with REMOVE.
+   */
+  public boolean appliesTo(KVDataType type) {
+    boolean list =
+        type == KVDataType.LISTINT || type == KVDataType.LISTDOUBLE || type == KVDataType.LISTTEXT;
+    boolean set =
+        type == KVDataType.SETINT || type == KVDataType.SETDOUBLE || type == KVDataType.SETTEXT;
+    switch (this) {
+      case APPEND:
+      case PREPEND:
+        return list;
+      case ADD:
+        return set;
+      default:
+        return list || set;
+    }
+  }
+
+  /**
+   * Applies the mutation to a value. Neither argument is modified, they may be shared by the cache.
+   *
+   * @param current The current value, null if the key does not exist.
+   * @param elements The elements, a collection of the type the mutation applies to.
+   * @return KVData The new value, current itself if the mutation does not change it, or null if the
+   *     key does not exist and the mutation does not create it.
+   */
+  public KVData apply(KVData current, KVData elements) {
+    if (this == REMOVE) {
+      boolean unchanged = current == null || current.type != elements.type;
+      return unchanged ? current : _remove(current, elements);
+    }
+    if (current == null || current.type != elements.type) {
+      return elements;
+    }
+    KVData first = this == PREPEND ? elements : current;
+    KVData second = this == PREPEND ? current : elements;
+    KVData result = new KVData(current.type);
+    switch (current.type) {
+      case LISTINT:
+      case SETINT:
+        IntStream ints =
+            IntStream.concat(Arrays.stream(first.list_int), Arrays.stream(second.list_int));
+        result.list_int = this == ADD ? ints.sorted().distinct().toArray() : ints.toArray();
+        break;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        DoubleStream doubles =
+            DoubleStream.concat(
+                Arrays.stream(first.list_double), Arrays.stream(second.list_double));
+        result.list_double =
+            this == ADD ? doubles.sorted().distinct().toArray() : doubles.toArray();
+        break;
+      default:
+        Stream<String> texts =
+            Stream.concat(Arrays.stream(first.list_text), Arrays.stream(second.list_text));
+        result.list_text =
+            (this == ADD ? texts.sorted().distinct() : texts).toArray(String[]::new);
+        break;
+    }
+    return result;
+  }
+
+  // ==================== Helper Functions ====================
+
+  private static KVData _remove(KVData current, KVData elements) {
+    KVData result = new KVData(current.type);
+    switch (current.type) {
+      case LISTINT:
+      case SETINT:
+        Set<Integer> ints = new HashSet<>();
+        Arrays.stream(elements.list_int).forEach(ints::add);
+        result.list_int = Arrays.stream(current.list_int).filter(i -> !ints.contains(i)).toArray();
+        break;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        Set<Double> doubles = new HashSet<>();
+        Arrays.stream(elements.list_double).forEach(doubles::add);
+        result.list_double =
+            Arrays.stream(current.list_double).filter(d -> !doubles.contains(d)).toArray();
+        break;
+      default:
+        Set<String> texts = new HashSet<>(Arrays.asList(elements.list_text));
+        result.list_text =
+            Arrays.stream(current.list_text)
+                .filter(t -> !texts.contains(t))
+                .toArray(String[]::new);
+        break;
+    }
+    return result.equals(current) ? current : result;
+  }
+}
@@ -0,0 +1,150 @@
+package org.stargate.rest.json;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Class KVCompressor - Compresses large values with the JDK deflate codec.
+ *
+ * Values whose size is below the configured threshold are left alone, everything above it is
+ * deflated with BEST_SPEED. The compression ratio and the CPU time spent in the codec are published
+ * to micrometer.
+ */
+@ApplicationScoped
+public class KVCompressor {
+  // Minimum value size in bytes before compression is attempted, -1 disables compression
+  @ConfigProperty(name = "kvstore.compression.threshold", defaultValue = "4096")
+  int threshold;
+
+  @Inject MeterRegistry registry;
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  private Counter rawBytes; // Bytes handed to the compressor
+  private Counter compressedBytes; // Bytes produced by the compressor
+  private Timer compressTime; // CPU time spent compressing
+  private Timer decompressTime; // CPU time spent decompressing
+
+  public KVCompressor() {}
+
+  @PostConstruct
+  void init() {
+    rawBytes = registry.counter("kvstore.compression.raw.bytes");
+    compressedBytes = registry.counter("kvstore.compression.compressed.bytes");
+    compressTime = registry.timer("kvstore.compression.compress.cpu");
+    decompressTime = registry.timer("kvstore.compression.decompress.cpu");
+    registry.gauge("kvstore.compression.ratio", this, KVCompressor::getCompressionRatio);
+  }
+
+  /**
+   * Checks whether a value of the given size should be compressed.
+   *
+   * @param size The (estimated) size of the value in bytes.
+   * @return boolean True if the value is large enough to be compressed.
+   */
+  public boolean shouldCompress(int size) {
+    return threshold >= 0 && size >= threshold;
+  }
+
+  /**
+   * Compresses the given bytes.
+   *
+   * @param raw The uncompressed bytes.
+   * @return byte[] The compressed bytes, or null if compression does not make the value smaller.
+   */
+  public byte[] compress(byte[] raw) {
+    long start = _cpuTime();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        out.write(buffer, 0, count);
+        if (out.size() >= raw.length) {
+          // not worth it, keep the value uncompressed
+          return null;
+        }
+      }
+      byte[] compressed = out.toByteArray();
+      rawBytes.increment(raw.length);
+      compressedBytes.increment(compressed.length);
+      return compressed;
+    } finally {
+      deflater.end();
+      compressTime.record(_cpuTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Decompresses bytes produced by compress.
+   *
+   * @param compressed The compressed bytes.
+   * @param rawSize The size of the value before compression.
+   * @return byte[] The uncompressed bytes.
+   */
+  public byte[] decompress(byte[] compressed, int rawSize) {
+    long start = _cpuTime();
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      byte[] raw = new byte[rawSize];
+      int offset = 0;
+      while (offset < rawSize && !inflater.finished()) {
+        int inflated = inflater.inflate(raw, offset, rawSize - offset);
+        if (inflated == 0) {
+          break;
+        }
+        offset += inflated;
+      }
+      // truncated input or a wrong raw size never completes the value
+      if (offset != rawSize) {
+        throw new IllegalStateException("Corrupted compressed value.");
+      }
+      return raw;
+    } catch (DataFormatException ex) {
+      throw new IllegalStateException("Corrupted compressed value.", ex);
+    } finally {
+      inflater.end();
+      decompressTime.record(_cpuTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Returns the overall compression ratio (uncompressed size / compressed size).
+   *
+   * @return double The compression ratio, 1 if nothing has been compressed yet.
+   */
+  public double getCompressionRatio() {
+    double compressed = compressedBytes.count();
+    return compressed == 0 ? 1.0 : rawBytes.count() / compressed;
+  }
+
+  // ==================== Helper Functions ====================
+
+  /**
+   * Current thread CPU time, falls back to wall clock time if the JVM does not support it.
+   *
+   * @return long Time in nanoseconds.
+   */
+  private long _cpuTime() {
+    if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+      return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+    return System.nanoTime();
+  }
+}
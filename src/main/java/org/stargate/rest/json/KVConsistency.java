@@ -0,0 +1,161 @@
+package org.stargate.rest.json;
+
+import io.stargate.bridge.proto.QueryOuterClass.Consistency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Class KVConsistency - Chooses the consistency level of the statements of a request.
+ *
+ * A request can set its own level, otherwise the level configured for the table is used: the first
+ * match of db.table, db.* and * in kvstore.consistency.read-tables or kvstore.consistency.write-tables
+ * (entries "db.table=LEVEL"), then kvstore.consistency.read or kvstore.consistency.write. Without any
+ * of them the default of the bridge applies.
+ */
+@ApplicationScoped
+public class KVConsistency {
+  // Level of reads of tables without a level of their own
+  @ConfigProperty(name = "kvstore.consistency.read")
+  Optional<String> readLevel;
+
+  // Level of writes of tables without a level of their own
+  @ConfigProperty(name = "kvstore.consistency.write")
+  Optional<String> writeLevel;
+
+  // Read level per table, "db.table=LEVEL", "db.*=LEVEL" or "*=LEVEL"
+  @ConfigProperty(name = "kvstore.consistency.read-tables")
+  Optional<List<String>> readTables;
+
+  // Write level per table, same format as read-tables
+  @ConfigProperty(name = "kvstore.consistency.write-tables")
+  Optional<List<String>> writeTables;
+
+  private final Map<String, Consistency> reads = new HashMap<>();
+  private final Map<String, Consistency> writes = new HashMap<>();
+
+  public KVConsistency() {}
+
+  @PostConstruct
+  void init() {
+    _parseTables(readTables, reads);
+    _parseTables(writeTables, writes);
+    readLevel.ifPresent(level -> reads.putIfAbsent("", _parseConfig(level)));
+    writeLevel.ifPresent(level -> writes.putIfAbsent("", _parseConfig(level)));
+  }
+
+  /**
+   * Chooses the level of the reads of a request.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param level The level set by the request, null for the level of the table.
+   * @return Consistency The level, null for the default of the bridge.
+   * @throws KvstoreException If the level of the request is not a consistency level.
+   */
+  public Consistency read(String keyspace_name, String table_name, String level)
+      throws KvstoreException {
+    return level == null ? tableRead(keyspace_name, table_name) : _parseRequest(level);
+  }
+
+  /**
+   * Chooses the level of the writes of a request.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param level The level set by the request, null for the level of the table.
+   * @return Consistency The level, null for the default of the bridge.
+   * @throws KvstoreException If the level of the request is not a consistency level.
+   */
+  public Consistency write(String keyspace_name, String table_name, String level)
+      throws KvstoreException {
+    return level == null ? tableWrite(keyspace_name, table_name) : _parseRequest(level);
+  }
+
+  /**
+   * Looks up the configured read level of a table.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return Consistency The level, null for the default of the bridge.
+   */
+  public Consistency tableRead(String keyspace_name, String table_name) {
+    return _lookup(reads, keyspace_name, table_name);
+  }
+
+  /**
+   * Looks up the configured write level of a table.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return Consistency The level, null for the default of the bridge.
+   */
+  public Consistency tableWrite(String keyspace_name, String table_name) {
+    return _lookup(writes, keyspace_name, table_name);
+  }
+
+  // ==================== Helper Functions ====================
+
+  private static Consistency _lookup(
+      Map<String, Consistency> levels, String keyspace_name, String table_name) {
+    if (levels.isEmpty()) {
+      return null;
+    }
+    Consistency level = levels.get(keyspace_name + "." + table_name);
+    if (level == null) {
+      level = levels.get(keyspace_name + ".*");
+    }
+    if (level == null) {
+      level = levels.get("*");
+    }
+    return level == null ? levels.get("") : level;
+  }
+
+  private static void _parseTables(Optional<List<String>> tables, Map<String, Consistency> levels) {
+    if (tables.isEmpty()) {
+      return;
+    }
+    for (String entry : tables.get()) {
+      int separator = entry.lastIndexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException(
+            "Invalid table consistency '" + entry + "', expected db.table=LEVEL");
+      }
+      levels.put(
+          entry.substring(0, separator).trim(), _parseConfig(entry.substring(separator + 1)));
+    }
+  }
+
+  private static Consistency _parseConfig(String level) {
+    Consistency consistency = _parse(level);
+    if (consistency == null) {
+      throw new IllegalArgumentException("Unknown consistency level '" + level + "'");
+    }
+    return consistency;
+  }
+
+  private static Consistency _parseRequest(String level) throws KvstoreException {
+    Consistency consistency = _parse(level);
+    if (consistency == null) {
+      throw new KvstoreException(400, "Bad request, unknown consistency level '" + level + "'.");
+    }
+    return consistency;
+  }
+
+  private static Consistency _parse(String level) {
+    String name = level.trim().toUpperCase();
+    if (name.equals("UNRECOGNIZED")) {
+      // protobuf adds it to every enum, it is not a level
+      return null;
+    }
+    try {
+      return Consistency.valueOf(name);
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+}
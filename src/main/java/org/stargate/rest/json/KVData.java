@@ -4,9 +4,12 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Arrays;
+import java.util.Objects;
 
 @JsonSerialize(using = KVSerializer.class)
 public class KVData {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
 
   public Integer value_int;
 
@@ -28,27 +31,163 @@ public class KVData {
     this.type = type;
   }
 
+  /**
+   * Converts a validated request value into its primitive representation.
+   * Set values are sorted and deduplicated the same way Cassandra returns them.
+   *
+   * @param value The JsonNode value, already checked against the type.
+   * @param type The KVDataType of the value.
+   * @return KVData The primitive representation of the value.
+   */
+  public static KVData fromJson(JsonNode value, KVDataType type) {
+    KVData data = new KVData(type);
+    switch (type) {
+      case INT:
+        data.value_int = value.asInt();
+        break;
+      case DOUBLE:
+        data.value_double = value.asDouble();
+        break;
+      case TEXT:
+        data.value_text = value.asText();
+        break;
+      case LISTINT:
+      case SETINT:
+        data.list_int = new int[value.size()];
+        for (int i = 0; i < value.size(); i++) {
+          data.list_int[i] = value.get(i).asInt();
+        }
+        if (type == KVDataType.SETINT) {
+          data.list_int = Arrays.stream(data.list_int).sorted().distinct().toArray();
+        }
+        break;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        data.list_double = new double[value.size()];
+        for (int i = 0; i < value.size(); i++) {
+          data.list_double[i] = value.get(i).asDouble();
+        }
+        if (type == KVDataType.SETDOUBLE) {
+          data.list_double = Arrays.stream(data.list_double).sorted().distinct().toArray();
+        }
+        break;
+      case LISTTEXT:
+      case SETTEXT:
+        data.list_text = new String[value.size()];
+        for (int i = 0; i < value.size(); i++) {
+          data.list_text[i] = value.get(i).asText();
+        }
+        if (type == KVDataType.SETTEXT) {
+          data.list_text = Arrays.stream(data.list_text).sorted().distinct().toArray(String[]::new);
+        }
+        break;
+    }
+    return data;
+  }
+
   public JsonNode getJsonBody() {
-    ObjectMapper mapper = new ObjectMapper();
+    switch (type) {
+      case INT:
+        return MAPPER.valueToTree(value_int);
+      case DOUBLE:
+        return MAPPER.valueToTree(value_double);
+      case TEXT:
+        return MAPPER.valueToTree(value_text);
+      case LISTINT:
+      case SETINT:
+        return MAPPER.valueToTree(list_int);
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        return MAPPER.valueToTree(list_double);
+      case LISTTEXT:
+      case SETTEXT:
+        return MAPPER.valueToTree(list_text);
+      default:
+        return MAPPER.createObjectNode();
+    }
+  }
+
+  /**
+   * Checks for a list or set without elements, which Cassandra stores as no value at all.
+   *
+   * @return boolean True for an empty collection.
+   */
+  public boolean isEmptyCollection() {
+    switch (type) {
+      case LISTINT:
+      case SETINT:
+        return list_int.length == 0;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        return list_double.length == 0;
+      case LISTTEXT:
+      case SETTEXT:
+        return list_text.length == 0;
+      default:
+        return false;
+    }
+  }
 
+  /**
+   * Cheap estimate of the encoded size of the value in bytes.
+   *
+   * @return int The estimated size.
+   */
+  public int estimateSize() {
     switch (type) {
       case INT:
-        return mapper.valueToTree(value_int);
+        return 4;
       case DOUBLE:
-        return mapper.valueToTree(value_double);
+        return 8;
       case TEXT:
-        return mapper.valueToTree(value_text);
+        return value_text.length();
       case LISTINT:
       case SETINT:
-        return mapper.valueToTree(list_int);
+        return list_int.length * 4;
       case LISTDOUBLE:
       case SETDOUBLE:
-        return mapper.valueToTree(list_double);
+        return list_double.length * 8;
       case LISTTEXT:
       case SETTEXT:
-        return mapper.valueToTree(list_text);
+        int size = 0;
+        for (String text : list_text) {
+          size += text.length() + 4;
+        }
+        return size;
       default:
-        return mapper.createObjectNode();
+        return 0;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
     }
+    if (!(o instanceof KVData)) {
+      return false;
+    }
+    KVData other = (KVData) o;
+    return type == other.type
+        && Objects.equals(value_int, other.value_int)
+        && Objects.equals(value_double, other.value_double)
+        && Objects.equals(value_text, other.value_text)
+        && Arrays.equals(list_int, other.list_int)
+        && Arrays.equals(list_double, other.list_double)
+        && Arrays.equals(list_text, other.list_text);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Objects.hash(type, value_int, value_double, value_text);
+    result = 31 * result + Arrays.hashCode(list_int);
+    result = 31 * result + Arrays.hashCode(list_double);
+    result = 31 * result + Arrays.hashCode(list_text);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(getJsonBody());
   }
 }
@@ -0,0 +1,132 @@
+package org.stargate.rest.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class KVDataCodec - Compact binary encoding of KVData.
+ *
+ * Layout: one byte for the type followed by the value. Scalars are written as is, collections as an
+ * element count followed by the elements. Text is written as a length prefixed UTF-8 byte array.
+ */
+public class KVDataCodec {
+
+  private KVDataCodec() {}
+
+  /**
+   * Encodes a value.
+   *
+   * @param data The value to be encoded.
+   * @return byte[] The encoded value.
+   */
+  public static byte[] encode(KVData data) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.estimateSize() + 8);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(data.type.ordinal());
+      switch (data.type) {
+        case INT:
+          out.writeInt(data.value_int);
+          break;
+        case DOUBLE:
+          out.writeDouble(data.value_double);
+          break;
+        case TEXT:
+          _writeText(out, data.value_text);
+          break;
+        case LISTINT:
+        case SETINT:
+          out.writeInt(data.list_int.length);
+          for (int element : data.list_int) {
+            out.writeInt(element);
+          }
+          break;
+        case LISTDOUBLE:
+        case SETDOUBLE:
+          out.writeInt(data.list_double.length);
+          for (double element : data.list_double) {
+            out.writeDouble(element);
+          }
+          break;
+        case LISTTEXT:
+        case SETTEXT:
+          out.writeInt(data.list_text.length);
+          for (String element : data.list_text) {
+            _writeText(out, element);
+          }
+          break;
+      }
+      out.flush();
+    } catch (IOException ex) {
+      // cannot happen, writing to memory
+      throw new IllegalStateException(ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a value produced by encode.
+   *
+   * @param bytes The encoded value.
+   * @return KVData The decoded value.
+   */
+  public static KVData decode(byte[] bytes) {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    try {
+      KVData data = new KVData(KVDataType.values()[in.readByte()]);
+      switch (data.type) {
+        case INT:
+          data.value_int = in.readInt();
+          break;
+        case DOUBLE:
+          data.value_double = in.readDouble();
+          break;
+        case TEXT:
+          data.value_text = _readText(in);
+          break;
+        case LISTINT:
+        case SETINT:
+          data.list_int = new int[in.readInt()];
+          for (int i = 0; i < data.list_int.length; i++) {
+            data.list_int[i] = in.readInt();
+          }
+          break;
+        case LISTDOUBLE:
+        case SETDOUBLE:
+          data.list_double = new double[in.readInt()];
+          for (int i = 0; i < data.list_double.length; i++) {
+            data.list_double[i] = in.readDouble();
+          }
+          break;
+        case LISTTEXT:
+        case SETTEXT:
+          data.list_text = new String[in.readInt()];
+          for (int i = 0; i < data.list_text.length; i++) {
+            data.list_text[i] = _readText(in);
+          }
+          break;
+      }
+      return data;
+    } catch (IOException | ArrayIndexOutOfBoundsException ex) {
+      throw new IllegalArgumentException("Corrupted encoded value.", ex);
+    }
+  }
+
+  // ==================== Helper Functions ====================
+
+  private static void _writeText(DataOutputStream out, String text) throws IOException {
+    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  private static String _readText(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[in.readInt()];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,160 @@
+package org.stargate.rest.json;
+
+import java.util.Arrays;
+
+/**
+ * Class KVElementRead - A read of part of a list or set value: a slice of its elements, the number
+ * of its elements, or whether it contains an element.
+ *
+ * It is answered from the full value, cached or read from Cassandra, so only the requested part is
+ * serialized and sent to the client. CQL cannot select the elements of a list, nor count them, and
+ * only selects set elements from Cassandra 4.0 on, where a missing element cannot be told apart from
+ * a value of another type.
+ */
+public class KVElementRead {
+  // First element of a slice, -1 if the read is not a slice
+  private final int from;
+  // End of a slice (exclusive), -1 for the end of the value
+  private final int to;
+  // True to answer the number of elements
+  private final boolean count;
+  // Element to look up, null if the read is not a membership check
+  private final String contains;
+
+  private KVElementRead(int from, int to, boolean count, String contains) {
+    this.from = from;
+    this.to = to;
+    this.count = count;
+    this.contains = contains;
+  }
+
+  /**
+   * Parses the element read of a GET request.
+   *
+   * @param slice The slice "from:to", to exclusive, either bound may be left out. Null if not set.
+   * @param count True to read the number of elements.
+   * @param contains The element to look up, null if not set.
+   * @return KVElementRead The element read, or null if the request reads the whole value.
+   * @throws KvstoreException If the options are invalid or more than one is set.
+   */
+  public static KVElementRead parse(String slice, boolean count, String contains)
+      throws KvstoreException {
+    int options = (slice != null ? 1 : 0) + (count ? 1 : 0) + (contains != null ? 1 : 0);
+    if (options == 0) {
+      return null;
+    }
+    if (options > 1) {
+      throw new KvstoreException(
+          400, "Bad request, only one of slice, count and contains can be set.");
+    }
+    if (slice == null) {
+      return new KVElementRead(-1, -1, count, contains);
+    }
+    int separator = slice.indexOf(':');
+    try {
+      if (separator < 0) {
+        throw new NumberFormatException();
+      }
+      String start = slice.substring(0, separator).trim();
+      String end = slice.substring(separator + 1).trim();
+      int from = start.isEmpty() ? 0 : Integer.parseInt(start);
+      int to = end.isEmpty() ? -1 : Integer.parseInt(end);
+      if (from < 0 || to < -1 || (to >= 0 && to < from) || (to == -1 && !end.isEmpty())) {
+        throw new NumberFormatException();
+      }
+      return new KVElementRead(from, to, false, null);
+    } catch (NumberFormatException ex) {
+      throw new KvstoreException(
+          400, "Bad request, slice must be from:to with 0 <= from <= to, e.g. 0:10.");
+    }
+  }
+
+  /**
+   * Replaces the value of a response by the part that was asked for. The value itself is not
+   * modified, it may be shared by the cache.
+   *
+   * @param response The response holding the whole value.
+   * @return KVResponse The response holding the part, 400 if the value is not a list or set. Other
+   *     responses than 200 are returned unchanged.
+   */
+  public KVResponse answer(KVResponse response) {
+    KVData value = response.body;
+    if (response.status_code != 200 || value == null) {
+      return response;
+    }
+    int size = _size(value);
+    if (size < 0) {
+      return new KVResponse(
+          400, "Bad request, the value is of type " + value.type.label + ", not a list or set.");
+    }
+    if (count) {
+      response.body = null;
+      response.count = size;
+    } else if (contains != null) {
+      response.body = null;
+      response.contains = _contains(value, contains);
+    } else {
+      response.body = _slice(value, Math.min(from, size), to < 0 ? size : Math.min(to, size));
+    }
+    return response;
+  }
+
+  // ==================== Helper Functions ====================
+
+  private static int _size(KVData value) {
+    switch (value.type) {
+      case LISTINT:
+      case SETINT:
+        return value.list_int.length;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        return value.list_double.length;
+      case LISTTEXT:
+      case SETTEXT:
+        return value.list_text.length;
+      default:
+        return -1;
+    }
+  }
+
+  private static KVData _slice(KVData value, int from, int to) {
+    if (from == 0 && to == _size(value)) {
+      return value;
+    }
+    KVData slice = new KVData(value.type);
+    switch (value.type) {
+      case LISTINT:
+      case SETINT:
+        slice.list_int = Arrays.copyOfRange(value.list_int, from, to);
+        break;
+      case LISTDOUBLE:
+      case SETDOUBLE:
+        slice.list_double = Arrays.copyOfRange(value.list_double, from, to);
+        break;
+      default:
+        slice.list_text = Arrays.copyOfRange(value.list_text, from, to);
+        break;
+    }
+    return slice;
+  }
+
+  private static boolean _contains(KVData value, String element) {
+    try {
+      switch (value.type) {
+        case LISTINT:
+        case SETINT:
+          int number = Integer.parseInt(element.trim());
+          return Arrays.stream(value.list_int).anyMatch(i -> i == number);
+        case LISTDOUBLE:
+        case SETDOUBLE:
+          double real = Double.parseDouble(element.trim());
+          return Arrays.stream(value.list_double).anyMatch(d -> d == real);
+        default:
+          return Arrays.asList(value.list_text).contains(element);
+      }
+    } catch (NumberFormatException ex) {
+      // not a number, so not an element of a numeric collection
+      return false;
+    }
+  }
+}
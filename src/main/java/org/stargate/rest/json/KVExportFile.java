@@ -0,0 +1,212 @@
+package org.stargate.rest.json;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Class KVExportFile - Binary layout of table exports.
+ *
+ * Layout: a header (magic, format version, keyspace, table, number of token ranges) followed by the
+ * sections of the token ranges in the order they finished. A section starts with RANGE_START and the
+ * range, holds one ENTRY per row (length prefixed UTF-8 key, length prefixed value encoded with
+ * KVDataCodec, so every value carries its KVDataType) and ends with RANGE_END and its row count. The
+ * file can be read without knowing the table it was exported from.
+ */
+public class KVExportFile {
+  public static final int MAGIC = 0x4b564558; // "KVEX"
+  public static final int FORMAT_VERSION = 1;
+
+  public static final byte RANGE_START = 1;
+  public static final byte ENTRY = 2;
+  public static final byte RANGE_END = 3;
+
+  private KVExportFile() {}
+
+  /** The header of an export file. */
+  public static class Header {
+    public final String keyspace;
+    public final String table;
+    public final int ranges;
+
+    public Header(String keyspace, String table, int ranges) {
+      this.keyspace = keyspace;
+      this.table = table;
+      this.ranges = ranges;
+    }
+  }
+
+  /**
+   * Writes the header of an export file.
+   *
+   * @param out The stream at the start of the file.
+   * @param header The header.
+   * @throws IOException If the stream cannot be written.
+   */
+  public static void writeHeader(DataOutputStream out, Header header) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    _writeText(out, header.keyspace);
+    _writeText(out, header.table);
+    out.writeInt(header.ranges);
+  }
+
+  /**
+   * Reads the header of an export file.
+   *
+   * @param in The stream at the start of the file.
+   * @return Header The header.
+   * @throws IOException If the stream cannot be read or is not an export file of a known version.
+   */
+  public static Header readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not an export file.");
+    }
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported export file version " + version + ".");
+    }
+    return new Header(_readText(in), _readText(in), in.readInt());
+  }
+
+  /**
+   * Writes the start of the section of a token range.
+   *
+   * @param out The stream.
+   * @param range The index of the range.
+   * @param start_token The token before the range, exclusive.
+   * @param end_token The last token of the range, inclusive.
+   * @throws IOException If the stream cannot be written.
+   */
+  public static void writeRangeStart(
+      DataOutputStream out, int range, long start_token, long end_token) throws IOException {
+    out.writeByte(RANGE_START);
+    out.writeInt(range);
+    out.writeLong(start_token);
+    out.writeLong(end_token);
+  }
+
+  /**
+   * Writes a row.
+   *
+   * @param out The stream.
+   * @param key The key.
+   * @param value The value.
+   * @throws IOException If the stream cannot be written.
+   */
+  public static void writeEntry(DataOutputStream out, String key, KVData value) throws IOException {
+    out.writeByte(ENTRY);
+    _writeText(out, key);
+    byte[] encoded = KVDataCodec.encode(value);
+    out.writeInt(encoded.length);
+    out.write(encoded);
+  }
+
+  /**
+   * Writes the end of the section of a token range.
+   *
+   * @param out The stream.
+   * @param range The index of the range.
+   * @param rows The number of rows of the range.
+   * @throws IOException If the stream cannot be written.
+   */
+  public static void writeRangeEnd(DataOutputStream out, int range, long rows) throws IOException {
+    out.writeByte(RANGE_END);
+    out.writeInt(range);
+    out.writeLong(rows);
+  }
+
+  /**
+   * Reads the next row of an export file, skipping the range markers.
+   *
+   * @param in The stream after the header.
+   * @return KVScanEntry The key and value, or null at the end of the file.
+   * @throws IOException If the stream cannot be read or is corrupted.
+   */
+  public static KVScanEntry readEntry(DataInputStream in) throws IOException {
+    while (true) {
+      int marker;
+      try {
+        marker = in.readByte();
+      } catch (EOFException ex) {
+        return null;
+      }
+      switch (marker) {
+        case RANGE_START:
+          in.readInt();
+          in.readLong();
+          in.readLong();
+          break;
+        case RANGE_END:
+          in.readInt();
+          in.readLong();
+          break;
+        case ENTRY:
+          String key = _readText(in);
+          byte[] encoded = new byte[in.readInt()];
+          in.readFully(encoded);
+          try {
+            return new KVScanEntry(key, KVDataCodec.decode(encoded));
+          } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupted value of key '" + key + "'.", ex);
+          }
+        default:
+          throw new IOException("Corrupted export file, unknown marker " + marker + ".");
+      }
+    }
+  }
+
+  /**
+   * Iterates over the rows of an export file, each row is read when it is requested.
+   *
+   * @param in The stream after the header.
+   * @return Iterable The rows, can only be iterated once.
+   */
+  public static Iterable<KVScanEntry> entries(DataInputStream in) {
+    return () ->
+        new Iterator<KVScanEntry>() {
+          private KVScanEntry next;
+
+          @Override
+          public boolean hasNext() {
+            if (next == null) {
+              try {
+                next = readEntry(in);
+              } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+            }
+            return next != null;
+          }
+
+          @Override
+          public KVScanEntry next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            KVScanEntry entry = next;
+            next = null;
+            return entry;
+          }
+        };
+  }
+
+  // ==================== Helper Functions ====================
+
+  private static void _writeText(DataOutputStream out, String text) throws IOException {
+    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  private static String _readText(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[in.readInt()];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+}
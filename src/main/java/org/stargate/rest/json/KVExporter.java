@@ -0,0 +1,395 @@
+package org.stargate.rest.json;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Class KVExporter - Exports a table to a local file by scanning token ranges in parallel.
+ *
+ * The token ring is split into sub-ranges that are scanned concurrently, at most
+ * kvstore.export.parallelism at a time. Each range is written to its own segment file, which is
+ * appended to the export file (see KVExportFile) once the range is complete. After every appended
+ * range a line is added to the checkpoint file next to the export file, so an interrupted export can
+ * be resumed: the export file is truncated to the last checkpoint and only the missing ranges are
+ * scanned again.
+ */
+@ApplicationScoped
+public class KVExporter {
+  private static final Logger LOG = Logger.getLogger(KVExporter.class);
+  private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+  private static final String SEGMENT_SUFFIX = ".range-";
+
+  @Inject KVCassandra kvcassandra;
+  @Inject KVConsistency kvconsistency;
+
+  // Directory of the export files
+  @ConfigProperty(name = "kvstore.export.directory", defaultValue = "export")
+  String directory;
+
+  // Number of token ranges if the request does not set it
+  @ConfigProperty(name = "kvstore.export.ranges", defaultValue = "64")
+  int defaultRanges;
+
+  // Maximum number of ranges scanned at a time
+  @ConfigProperty(name = "kvstore.export.parallelism", defaultValue = "4")
+  int parallelism;
+
+  // Rows per page of a range scan
+  @ConfigProperty(name = "kvstore.export.page-size", defaultValue = "1000")
+  int pageSize;
+
+  // Export files with an export in progress
+  private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+  /** The state of one export. */
+  private static class Export {
+    final String keyspace;
+    final String table;
+    final Path file;
+    final Path checkpoint;
+    int ranges;
+    // Ranges already in the export file
+    final Set<Integer> done = new HashSet<>();
+    long rows;
+
+    Export(String keyspace, String table, Path file) {
+      this.keyspace = keyspace;
+      this.table = table;
+      this.file = file;
+      this.checkpoint = Paths.get(file + CHECKPOINT_SUFFIX);
+    }
+  }
+
+  public KVExporter() {}
+
+  /**
+   * Exports a table to a file in the export directory.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param file_name The name of the export file, without directory.
+   * @param ranges The number of token ranges, -1 for the configured default. Ignored on resume.
+   * @param resume True to continue an interrupted export of the same table into the same file.
+   * @return Uni of the KVResponse with status 200 once all ranges are exported. If ranges failed,
+   *     the status of the first failure and how many ranges are missing; resume to retry them.
+   */
+  public Uni<KVResponse> export(
+      String keyspace_name, String table_name, String file_name, int ranges, boolean resume) {
+    Path file = Paths.get(directory, file_name);
+    if (!running.add(file.toString())) {
+      return Uni.createFrom()
+          .item(new KVResponse(409, "An export to '" + file_name + "' is already running."));
+    }
+    Export export = new Export(keyspace_name, table_name, file);
+    export.ranges = ranges > 0 ? ranges : defaultRanges;
+
+    // file I/O runs on worker threads, the range scans on the async API of the bridge
+    return Uni.createFrom()
+        .item(
+            () -> {
+              if (resume) {
+                _prepareResume(export);
+              } else {
+                _prepare(export);
+              }
+              return export;
+            })
+        .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+        .chain(this::_exportRanges)
+        .onFailure()
+        .recoverWithItem(
+            ex -> {
+              Throwable cause = ex instanceof UncheckedIOException ? ex.getCause() : ex;
+              return new KVResponse(
+                  500, "Export to '" + file_name + "' failed: " + cause.getMessage());
+            })
+        .onTermination()
+        .invoke(() -> running.remove(file.toString()));
+  }
+
+  /**
+   * Scans all ranges that are not exported yet. Helper function.
+   *
+   * @param export The export.
+   * @return Uni of the KVResponse of the export.
+   */
+  private Uni<KVResponse> _exportRanges(Export export) {
+    List<Integer> pending = new ArrayList<>();
+    for (int range = 0; range < export.ranges; range++) {
+      if (!export.done.contains(range)) {
+        pending.add(range);
+      }
+    }
+    long started = System.nanoTime();
+    return Multi.createFrom()
+        .iterable(pending)
+        .onItem()
+        .transformToUni(range -> _exportRange(export, range))
+        .merge(Math.max(1, parallelism))
+        .collect()
+        .asList()
+        .map(
+            failures -> {
+              List<KVResponse> failed =
+                  failures.stream().filter(f -> f != null).collect(Collectors.toList());
+              double seconds = (System.nanoTime() - started) / 1e9;
+              if (!failed.isEmpty()) {
+                return new KVResponse(
+                    failed.get(0).status_code,
+                    failed.size()
+                        + " of "
+                        + export.ranges
+                        + " ranges could not be exported, resume the export to retry them: "
+                        + failed.get(0).message);
+              }
+              _deleteQuietly(export.checkpoint);
+              LOG.infof(
+                  "Exported %d rows of %s.%s in %.1f s",
+                  export.rows, export.keyspace, export.table, seconds);
+              return new KVResponse(
+                  200,
+                  "Exported "
+                      + export.rows
+                      + " rows in "
+                      + export.ranges
+                      + " ranges to '"
+                      + export.file.getFileName()
+                      + "'.");
+            });
+  }
+
+  /**
+   * Scans one range into its segment file and appends it to the export file. Helper function.
+   *
+   * @param export The export.
+   * @param range The index of the range.
+   * @return Uni of null if the range was exported, otherwise the KVResponse of the failure.
+   */
+  private Uni<KVResponse> _exportRange(Export export, int range) {
+    long start_token = _startToken(range, export.ranges);
+    long end_token =
+        range == export.ranges - 1 ? Long.MAX_VALUE : _startToken(range + 1, export.ranges);
+    Path segment = Paths.get(export.file + SEGMENT_SUFFIX + range);
+    DataOutputStream out;
+    try {
+      out = _open(segment);
+      KVExportFile.writeRangeStart(out, range, start_token, end_token);
+    } catch (IOException ex) {
+      return Uni.createFrom().item(new KVResponse(500, ex.getMessage()));
+    }
+
+    return kvcassandra
+        .scanRange(
+            export.keyspace,
+            export.table,
+            start_token,
+            end_token,
+            pageSize,
+            kvconsistency.tableRead(export.keyspace, export.table))
+        .emitOn(Infrastructure.getDefaultWorkerPool())
+        .onItem()
+        .invoke(
+            entry -> {
+              try {
+                KVExportFile.writeEntry(out, entry.key, entry.body);
+              } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+            })
+        .collect()
+        .with(Collectors.counting())
+        .map(
+            rows -> {
+              try {
+                KVExportFile.writeRangeEnd(out, range, rows);
+                out.close();
+                _commit(export, range, segment, rows);
+              } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+              return (KVResponse) null;
+            })
+        .onFailure()
+        .recoverWithItem(
+            ex -> {
+              try {
+                out.close();
+              } catch (IOException ignored) {
+                // the segment is deleted anyway
+              }
+              _deleteQuietly(segment);
+              LOG.warnf(
+                  "Export of range %d of %s.%s failed: %s",
+                  range, export.keyspace, export.table, ex.getMessage());
+              if (ex instanceof UncheckedIOException) {
+                return new KVResponse(500, ex.getCause().getMessage());
+              }
+              return kvcassandra._handleFailure(ex, export.keyspace, export.table);
+            });
+  }
+
+  /**
+   * Appends a complete segment to the export file and records the range in the checkpoint file.
+   * Helper function.
+   *
+   * @param export The export.
+   * @param range The index of the range.
+   * @param segment The segment file of the range.
+   * @param rows The number of rows of the range.
+   * @throws IOException If a file cannot be written.
+   */
+  private synchronized void _commit(Export export, int range, Path segment, long rows)
+      throws IOException {
+    long offset;
+    try (FileChannel target = FileChannel.open(export.file, StandardOpenOption.WRITE);
+        FileChannel source = FileChannel.open(segment, StandardOpenOption.READ)) {
+      long position = target.size();
+      long size = source.size();
+      long copied = 0;
+      while (copied < size) {
+        copied += source.transferTo(copied, size - copied, target.position(position + copied));
+      }
+      target.force(false);
+      offset = position + size;
+    }
+    _appendCheckpoint(export, range, offset, rows);
+    Files.delete(segment);
+    export.done.add(range);
+    export.rows += rows;
+  }
+
+  /**
+   * Starts a new export file with its header and checkpoint. Helper function.
+   *
+   * @param export The export.
+   */
+  private void _prepare(Export export) {
+    try {
+      Files.createDirectories(export.file.toAbsolutePath().getParent());
+      try (DataOutputStream out = _open(export.file)) {
+        KVExportFile.writeHeader(
+            out, new KVExportFile.Header(export.keyspace, export.table, export.ranges));
+      }
+      Files.deleteIfExists(export.checkpoint);
+      // the first checkpoint is the end of the header, range -1
+      _appendCheckpoint(export, -1, Files.size(export.file), 0);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Reads the checkpoint of an interrupted export and cuts the export file back to it. Helper
+   * function.
+   *
+   * @param export The export.
+   */
+  private void _prepareResume(Export export) {
+    try {
+      if (!Files.exists(export.checkpoint)) {
+        throw new IOException("No interrupted export to resume.");
+      }
+      KVExportFile.Header header;
+      try (DataInputStream in =
+          new DataInputStream(Files.newInputStream(export.file, StandardOpenOption.READ))) {
+        header = KVExportFile.readHeader(in);
+      }
+      if (!header.keyspace.equals(export.keyspace) || !header.table.equals(export.table)) {
+        throw new IOException(
+            "The file is an export of " + header.keyspace + "." + header.table + ".");
+      }
+      export.ranges = header.ranges;
+      long offset = -1;
+      for (String line : Files.readAllLines(export.checkpoint, StandardCharsets.UTF_8)) {
+        String[] fields = line.trim().split(" ");
+        if (fields.length != 3) {
+          // a line cut short by a crash, the range is exported again
+          continue;
+        }
+        int range = Integer.parseInt(fields[0]);
+        offset = Long.parseLong(fields[1]);
+        if (range >= 0) {
+          export.done.add(range);
+          export.rows += Long.parseLong(fields[2]);
+        }
+      }
+      if (offset < 0) {
+        throw new IOException("Corrupted checkpoint file.");
+      }
+      try (FileChannel channel = FileChannel.open(export.file, StandardOpenOption.WRITE)) {
+        channel.truncate(offset);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Records an exported range in the checkpoint file. Helper function.
+   *
+   * @param export The export.
+   * @param range The index of the range, -1 for the header.
+   * @param offset The size of the export file after the range.
+   * @param rows The number of rows of the range.
+   * @throws IOException If the checkpoint file cannot be written.
+   */
+  private void _appendCheckpoint(Export export, int range, long offset, long rows)
+      throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            export.checkpoint,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+      channel.write(StandardCharsets.UTF_8.encode(range + " " + offset + " " + rows + "\n"));
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Computes the first token of a range, exclusive. The Murmur3 token ring spans all long values,
+   * it is split into ranges of equal width. Helper function.
+   *
+   * @param range The index of the range.
+   * @param ranges The number of ranges.
+   * @return long The token before the range.
+   */
+  private static long _startToken(int range, int ranges) {
+    long width = Long.divideUnsigned(-1L, ranges);
+    return Long.MIN_VALUE + width * range;
+  }
+
+  private static DataOutputStream _open(Path path) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+  }
+
+  private static void _deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ex) {
+      LOG.warnf("Could not delete %s: %s", path, ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.stargate.rest.json;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Class KVHedger - Hedges idempotent reads against slow replicas and coordinator pauses.
+ *
+ * The latency of recent reads is kept in a ring buffer, and its kvstore.hedge.percentile is
+ * recomputed every REFRESH_EVERY reads. A read that has not answered within that latency is sent a
+ * second time; the first answer wins and the other request is cancelled. Hedges are paid from a
+ * budget that every read tops up by kvstore.hedge.budget, so at most that fraction of extra reads is
+ * sent over time.
+ */
+@ApplicationScoped
+public class KVHedger {
+  // Reads between two recomputations of the hedge delay
+  private static final int REFRESH_EVERY = 100;
+  // Largest number of hedges that can be sent back to back after a quiet period
+  private static final double MAX_BURST = 10;
+
+  // Maximum fraction of extra reads, 0 disables hedging
+  @ConfigProperty(name = "kvstore.hedge.budget", defaultValue = "0.05")
+  double budget;
+
+  // Percentile of the recent read latency after which a read is hedged
+  @ConfigProperty(name = "kvstore.hedge.percentile", defaultValue = "0.95")
+  double percentile;
+
+  // Number of recent read latencies the percentile is computed from
+  @ConfigProperty(name = "kvstore.hedge.window", defaultValue = "1000")
+  int window;
+
+  // Lower bound of the hedge delay in milliseconds
+  @ConfigProperty(name = "kvstore.hedge.min-delay-ms", defaultValue = "1")
+  long minDelayMs;
+
+  @Inject MeterRegistry registry;
+
+  private Counter hedgedReads; // Reads that were sent a second time
+  private Counter hedgeWins; // Hedged reads answered first by the second request
+
+  // Recent latencies in nanoseconds, written round robin
+  private long[] latencies;
+  private final AtomicInteger recorded = new AtomicInteger();
+  // True once every slot of the window holds a latency
+  private volatile boolean filled;
+
+  // Current hedge delay in nanoseconds, -1 until the window has been filled once
+  private volatile long delayNanos = -1;
+
+  // Hedges that can be sent now, in millionths of a hedge
+  private final AtomicLong tokens = new AtomicLong();
+
+  public KVHedger() {}
+
+  @PostConstruct
+  void init() {
+    latencies = new long[Math.max(REFRESH_EVERY, window)];
+    hedgedReads = registry.counter("kvstore.hedge.reads");
+    hedgeWins = registry.counter("kvstore.hedge.wins");
+  }
+
+  /**
+   * Runs a read, and again if the first attempt is slower than the hedge delay and the budget
+   * allows it. The read must be idempotent and is subscribed once or twice.
+   *
+   * @param read Creates the read.
+   * @return Uni of the first answer of the read.
+   */
+  public <T> Uni<T> hedge(Supplier<Uni<T>> read) {
+    if (budget <= 0) {
+      return read.get();
+    }
+    _earn();
+    long delay = delayNanos;
+    Uni<T> primary = _timed(read);
+    if (delay < 0) {
+      // not enough samples yet to know what is slow
+      return primary;
+    }
+    Uni<T> hedged =
+        Uni.createFrom()
+            .item(Boolean.TRUE)
+            .onItem()
+            .delayIt()
+            .by(Duration.ofNanos(Math.max(delay, minDelayMs * 1_000_000)))
+            .chain(
+                ignored -> {
+                  if (!_spend()) {
+                    // out of budget, leave the field to the first attempt
+                    return Uni.createFrom().<T>nothing();
+                  }
+                  hedgedReads.increment();
+                  return _timed(read).invoke(item -> hedgeWins.increment());
+                });
+    // the first answer wins, the other attempt is cancelled
+    return Uni.combine().any().of(primary, hedged);
+  }
+
+  // ==================== Helper Functions ====================
+
+  /**
+   * Helper function, creates one attempt of a read that records its latency. A cancelled attempt
+   * records how long it had been waiting, so slow replicas keep showing in the window.
+   * @param read creates the read
+   * @return the attempt
+   */
+  private <T> Uni<T> _timed(Supplier<Uni<T>> read) {
+    return Uni.createFrom()
+        .deferred(
+            () -> {
+              long start = System.nanoTime();
+              return read.get()
+                  .onTermination()
+                  .invoke(() -> _record(System.nanoTime() - start));
+            });
+  }
+
+  /**
+   * Helper function, adds a latency to the window and recomputes the hedge delay from time to time.
+   * @param nanos the latency
+   */
+  private void _record(long nanos) {
+    int slot = Math.floorMod(recorded.getAndIncrement(), latencies.length);
+    latencies[slot] = nanos;
+    if (slot == latencies.length - 1) {
+      filled = true;
+    }
+    if (!filled || (slot + 1) % REFRESH_EVERY != 0) {
+      return;
+    }
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    int index = (int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length));
+    delayNanos = sorted[index];
+  }
+
+  /** Helper function, adds the share of a read to the hedge budget. */
+  private void _earn() {
+    long share = (long) (budget * 1_000_000);
+    long max = (long) (MAX_BURST * 1_000_000);
+    tokens.getAndUpdate(current -> Math.min(max, current + share));
+  }
+
+  /**
+   * Helper function, takes one hedge from the budget.
+   * @return true if the budget had a hedge left
+   */
+  private boolean _spend() {
+    long current = tokens.get();
+    while (current >= 1_000_000) {
+      if (tokens.compareAndSet(current, current - 1_000_000)) {
+        return true;
+      }
+      current = tokens.get();
+    }
+    return false;
+  }
+}
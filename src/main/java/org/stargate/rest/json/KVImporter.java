@@ -0,0 +1,201 @@
+package org.stargate.rest.json;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Class KVImporter - Writes a stream of key-value pairs into a table.
+ *
+ * The stream is consumed in batches of kvstore.import.batch-size rows, each written as one unlogged
+ * batch that overwrites existing keys. At most kvstore.import.concurrency batches are in flight, and
+ * rows are only requested from the source once a batch slot is free, so a saturated bridge slows
+ * down the reading of the upload or file instead of buffering it.
+ */
+@ApplicationScoped
+public class KVImporter {
+  private static final Logger LOG = Logger.getLogger(KVImporter.class);
+
+  @Inject KVCassandra kvcassandra;
+  @Inject KVCache kvcache;
+  @Inject KVClock clock;
+  @Inject KVConsistency kvconsistency;
+  @Inject MeterRegistry registry;
+
+  // Rows per unlogged batch
+  @ConfigProperty(name = "kvstore.import.batch-size", defaultValue = "20")
+  int batchSize;
+
+  // Maximum number of batches in flight per import
+  @ConfigProperty(name = "kvstore.import.concurrency", defaultValue = "16")
+  int concurrency;
+
+  // A progress line is logged every this many rows
+  @ConfigProperty(name = "kvstore.import.progress-interval", defaultValue = "100000")
+  long progressInterval;
+
+  private Counter importedRows; // Rows written by imports
+  private Counter failedRows; // Rows whose batch failed
+  private Counter invalidRows; // Rows that could not be parsed
+
+  /** The progress of one import. */
+  public static class Progress {
+    public final AtomicLong rows = new AtomicLong();
+    public final AtomicLong failed = new AtomicLong();
+    public final AtomicLong invalid = new AtomicLong();
+    final long started = System.nanoTime();
+
+    /**
+     * Counts a row that could not be parsed, it is skipped.
+     */
+    public void skip() {
+      invalid.incrementAndGet();
+    }
+  }
+
+  public KVImporter() {}
+
+  @PostConstruct
+  void init() {
+    importedRows = registry.counter("kvstore.import.rows");
+    failedRows = registry.counter("kvstore.import.failed.rows");
+    invalidRows = registry.counter("kvstore.import.invalid.rows");
+  }
+
+  /**
+   * Imports a stream of rows into a table, existing keys are overwritten.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param mutations The rows, only requested as fast as they are written.
+   * @param progress The progress, also counts the rows the caller could not parse.
+   * @param bypass_cache True to keep the rows out of the cache, cached keys are only invalidated.
+   * @return Uni of the KVResponse with the number of imported, failed and skipped rows and the
+   *     throughput, once the stream is consumed. Failed rows do not stop the import.
+   */
+  public Uni<KVResponse> importRows(
+      String keyspace_name,
+      String table_name,
+      Multi<KVMutation> mutations,
+      Progress progress,
+      boolean bypass_cache) {
+    return mutations
+        .group()
+        .intoLists()
+        .of(Math.max(1, batchSize))
+        .onItem()
+        .transformToUni(
+            batch -> _importBatch(keyspace_name, table_name, batch, progress, bypass_cache))
+        .merge(Math.max(1, concurrency))
+        .collect()
+        .last()
+        .map(
+            ignored -> {
+              invalidRows.increment(progress.invalid.get());
+              double seconds = Math.max((System.nanoTime() - progress.started) / 1e9, 1e-3);
+              long rows = progress.rows.get();
+              LOG.infof(
+                  "Imported %d rows into %s.%s in %.1f s (%d failed, %d skipped)",
+                  rows, keyspace_name, table_name, seconds, progress.failed.get(),
+                  progress.invalid.get());
+              return new KVResponse(
+                  200,
+                  "Imported "
+                      + rows
+                      + " rows, "
+                      + progress.failed.get()
+                      + " failed, "
+                      + progress.invalid.get()
+                      + " skipped as invalid, "
+                      + String.format("%.0f", rows / seconds)
+                      + " rows/s.");
+            })
+        .onFailure()
+        .recoverWithItem(
+            ex ->
+                new KVResponse(
+                    500,
+                    "Import stopped after "
+                        + progress.rows.get()
+                        + " rows: "
+                        + ex.getMessage()));
+  }
+
+  /**
+   * Writes one batch of an import and updates the cache and the progress. Helper function.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param batch The rows of the batch.
+   * @param progress The progress of the import.
+   * @param bypass_cache True to only invalidate cached keys.
+   * @return Uni of the batch once written.
+   */
+  private Uni<List<KVMutation>> _importBatch(
+      String keyspace_name,
+      String table_name,
+      List<KVMutation> batch,
+      Progress progress,
+      boolean bypass_cache) {
+    // the rows of a batch share a timestamp, so the last row of a key must be the only one
+    Map<String, KVMutation> latest = new LinkedHashMap<>();
+    for (KVMutation mutation : batch) {
+      latest.remove(mutation.key);
+      latest.put(mutation.key, mutation);
+    }
+    List<KVMutation> rows = new ArrayList<>(latest.values());
+    // batches get their timestamp in stream order, a later row of a key wins
+    long version = clock.next();
+    return kvcassandra
+        .batchWrite(
+            keyspace_name,
+            table_name,
+            rows,
+            version,
+            true,
+            rows.size(),
+            1,
+            kvconsistency.tableWrite(keyspace_name, table_name))
+        .map(
+            responses -> {
+              List<String> keys = new ArrayList<>();
+              List<KVData> values = new ArrayList<>();
+              for (int i = 0; i < rows.size(); i++) {
+                if (responses.get(i).status_code == 200) {
+                  keys.add(rows.get(i).key);
+                  values.add(KVData.fromJson(rows.get(i).value, rows.get(i).type));
+                }
+              }
+              if (bypass_cache) {
+                kvcache.invalidateAll(keys, keyspace_name, table_name, version);
+              } else {
+                kvcache.putAll(keys, values, keyspace_name, table_name, version);
+              }
+              long failed = rows.size() - keys.size();
+              progress.failed.addAndGet(failed);
+              failedRows.increment(failed);
+              importedRows.increment(keys.size());
+              long before = progress.rows.getAndAdd(keys.size());
+              if (progressInterval > 0
+                  && before / progressInterval != (before + keys.size()) / progressInterval) {
+                double seconds = (System.nanoTime() - progress.started) / 1e9;
+                long total = before + keys.size();
+                LOG.infof(
+                    "Import into %s.%s: %d rows, %.0f rows/s",
+                    keyspace_name, table_name, total, total / seconds);
+              }
+              return batch;
+            });
+  }
+}
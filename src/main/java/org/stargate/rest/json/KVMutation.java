@@ -0,0 +1,23 @@
+package org.stargate.rest.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Class KVMutation - One validated write of a batch request.
+ */
+public class KVMutation {
+  public String key;
+  public JsonNode value;
+  public KVDataType type;
+  // true for an update (PATCH), false for an insert (PUT)
+  public boolean update;
+
+  public KVMutation() {}
+
+  public KVMutation(String key, JsonNode value, KVDataType type, boolean update) {
+    this.key = key;
+    this.value = value;
+    this.type = type;
+    this.update = update;
+  }
+}
@@ -0,0 +1,372 @@
+package org.stargate.rest.json;
+
+import io.stargate.sgv2.api.common.cql.builder.Column;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Class KVQueryTemplates - Caches the rendered CQL of the key-value statements of each table.
+ *
+ * The statements of the data path only differ in keyspace, table and value column, so they are
+ * rendered once per (keyspace, table, operation, type) with bind markers, and every request only
+ * attaches its Values. The templates of a table are dropped on DDL for the table or its keyspace,
+ * and rendered again if the layout of the table (see KVTableLayout) turns out to be a different one.
+ */
+public class KVQueryTemplates {
+  /** The statements of the data path. */
+  public enum Operation {
+    SELECT_VALUE, // value columns, the writetime and the ttl of the scalar columns
+    SELECT_WRITETIME, // writetime of the scalar columns only
+    SELECT_KEY, // existence check
+    INSERT, // insert of a value of one type
+    INSERT_IF_NOT_EXISTS, // conditional insert, returns the existing row if the key exists
+    INSERT_TTL, // INSERT USING TTL
+    INSERT_IF_NOT_EXISTS_TTL, // INSERT_IF_NOT_EXISTS USING TTL
+    UPSERT, // INSERT that also sets all other value columns to null, for blind overwrites
+    UPSERT_TTL, // UPSERT USING TTL
+    UPDATE, // overwrite with a value of one type, all other value columns set to null
+    UPDATE_TTL, // UPDATE USING TTL
+    UPDATE_IF, // conditional overwrite of a value, returns the value if it differs
+    COLLECTION_APPEND, // elements at the end of a list or into a set, other value columns cleared
+    COLLECTION_PREPEND, // elements at the start of a list, other value columns cleared
+    COLLECTION_REMOVE, // elements removed from a list or set
+    DELETE,
+    DELETE_IF_EXISTS, // conditional delete, reports whether the key existed
+    DELETE_IF, // conditional delete of a value of one type, returns the value if it differs
+    SCAN_KEYS, // all keys of the table, paged
+    SCAN_VALUES, // all keys with their value columns, paged
+    SCAN_RANGE // keys with their value columns in a token range (exclusive, inclusive], paged
+  }
+
+  // writetime() of the scalar value columns, Cassandra rejects it on non-frozen collections
+  public static final String WRITETIME_SELECTION =
+      "writetime(value_text), writetime(value_int), writetime(value_double)";
+
+  // ttl() of the scalar value columns, in the same order, with the same restriction
+  public static final String TTL_SELECTION = "ttl(value_text), ttl(value_int), ttl(value_double)";
+
+  // The value column of the compact layout
+  public static final String COMPACT_VALUE_COLUMN = "value";
+
+  /** The rendered templates of one table. */
+  private static class TableTemplates {
+    final KVTableLayout layout;
+    final String selectValue;
+    final String selectWritetime;
+    final String selectKey;
+    final String delete;
+    final String deleteIfExists;
+    final String scanKeys;
+    final String scanValues;
+    final String scanRange;
+    final Map<KVDataType, String> insert = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> insertIfNotExists = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> insertTtl = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> insertIfNotExistsTtl = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> upsert = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> upsertTtl = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> update = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> updateTtl = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> updateIf = new EnumMap<>(KVDataType.class);
+    // conditional overwrite with a value of another type than the expected one, legacy layout only
+    final Map<KVDataType, Map<KVDataType, String>> updateIfRetype =
+        new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> deleteIf = new EnumMap<>(KVDataType.class);
+    // collection update expressions, legacy layout only
+    final Map<KVDataType, String> append = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> prepend = new EnumMap<>(KVDataType.class);
+    final Map<KVDataType, String> remove = new EnumMap<>(KVDataType.class);
+
+    TableTemplates(String table, Map<KVDataType, String> valueColumns, KVTableLayout layout) {
+      this.layout = layout;
+      String columnList;
+      String writetimes;
+      String ttls;
+      if (layout == KVTableLayout.COMPACT) {
+        // the single value column is a blob, its writetime and ttl are known for every type
+        columnList = COMPACT_VALUE_COLUMN;
+        writetimes = "writetime(" + COMPACT_VALUE_COLUMN + ")";
+        ttls = "ttl(" + COMPACT_VALUE_COLUMN + ")";
+      } else {
+        columnList = String.join(", ", valueColumns.values());
+        writetimes = WRITETIME_SELECTION;
+        ttls = TTL_SELECTION;
+      }
+      this.selectValue =
+          "SELECT "
+              + columnList
+              + ", "
+              + writetimes
+              + ", "
+              + ttls
+              + " FROM "
+              + table
+              + " WHERE key = ?";
+      this.selectWritetime = "SELECT " + writetimes + " FROM " + table + " WHERE key = ?";
+      this.selectKey = "SELECT key FROM " + table + " WHERE key = ?";
+      this.delete = "DELETE FROM " + table + " WHERE key = ?";
+      this.deleteIfExists = delete + " IF EXISTS";
+      this.scanKeys = "SELECT key FROM " + table;
+      this.scanValues = "SELECT key, " + columnList + " FROM " + table;
+      this.scanRange = scanValues + " WHERE token(key) > ? AND token(key) <= ?";
+      if (layout == KVTableLayout.COMPACT) {
+        // one statement for all types, the type is part of the encoded value
+        for (KVDataType type : KVDataType.values()) {
+          insert.put(
+              type, "INSERT INTO " + table + " (key, " + COMPACT_VALUE_COLUMN + ") VALUES (?, ?)");
+          insertIfNotExists.put(type, insert.get(type) + " IF NOT EXISTS");
+          insertTtl.put(type, insert.get(type) + " USING TTL ?");
+          insertIfNotExistsTtl.put(type, insertIfNotExists.get(type) + " USING TTL ?");
+          // the single value cell is overwritten anyway
+          upsert.put(type, insert.get(type));
+          upsertTtl.put(type, insertTtl.get(type));
+          update.put(
+              type, "UPDATE " + table + " SET " + COMPACT_VALUE_COLUMN + " = ? WHERE key = ?");
+          updateTtl.put(
+              type,
+              "UPDATE " + table + " USING TTL ? SET " + COMPACT_VALUE_COLUMN + " = ? WHERE key = ?");
+          updateIf.put(type, update.get(type) + " IF " + COMPACT_VALUE_COLUMN + " = ?");
+          deleteIf.put(type, delete + " IF " + COMPACT_VALUE_COLUMN + " = ?");
+        }
+        return;
+      }
+      for (Map.Entry<KVDataType, String> column : valueColumns.entrySet()) {
+        insert.put(
+            column.getKey(),
+            "INSERT INTO " + table + " (key, " + column.getValue() + ") VALUES (?, ?)");
+        insertIfNotExists.put(column.getKey(), insert.get(column.getKey()) + " IF NOT EXISTS");
+        insertTtl.put(column.getKey(), insert.get(column.getKey()) + " USING TTL ?");
+        insertIfNotExistsTtl.put(
+            column.getKey(), insertIfNotExists.get(column.getKey()) + " USING TTL ?");
+        // a key overwritten with a value of another type must not keep its old typed column,
+        // reads take the first one that is not null
+        String values =
+            valueColumns.values().stream()
+                .map(name -> name.equals(column.getValue()) ? "?" : "null")
+                .collect(Collectors.joining(", "));
+        upsert.put(
+            column.getKey(),
+            "INSERT INTO "
+                + table
+                + " (key, "
+                + String.join(", ", valueColumns.values())
+                + ") VALUES (?, "
+                + values
+                + ")");
+        upsertTtl.put(column.getKey(), upsert.get(column.getKey()) + " USING TTL ?");
+        // the other value columns are cleared with literals, only the value and the key are bound
+        String assignments =
+            valueColumns.values().stream()
+                .map(name -> name + (name.equals(column.getValue()) ? " = ?" : " = null"))
+                .collect(Collectors.joining(", "));
+        update.put(
+            column.getKey(), "UPDATE " + table + " SET " + assignments + " WHERE key = ?");
+        updateTtl.put(
+            column.getKey(),
+            "UPDATE " + table + " USING TTL ? SET " + assignments + " WHERE key = ?");
+        // the other value columns are null already if the condition holds
+        updateIf.put(
+            column.getKey(),
+            "UPDATE "
+                + table
+                + " SET "
+                + column.getValue()
+                + " = ? WHERE key = ? IF "
+                + column.getValue()
+                + " = ?");
+        deleteIf.put(column.getKey(), delete + " IF " + column.getValue() + " = ?");
+        Map<KVDataType, String> retype = new EnumMap<>(KVDataType.class);
+        for (Map.Entry<KVDataType, String> expected : valueColumns.entrySet()) {
+          if (expected.getKey() != column.getKey()) {
+            retype.put(
+                expected.getKey(),
+                update.get(column.getKey()) + " IF " + expected.getValue() + " = ?");
+          }
+        }
+        updateIfRetype.put(column.getKey(), retype);
+        if (!KVCassandra.DATAMAP.containsKey(column.getKey())) {
+          continue;
+        }
+        String name = column.getValue();
+        String others =
+            valueColumns.values().stream()
+                .filter(other -> !other.equals(name))
+                .map(other -> other + " = null, ")
+                .collect(Collectors.joining());
+        append.put(
+            column.getKey(),
+            "UPDATE " + table + " SET " + others + name + " = " + name + " + ? WHERE key = ?");
+        prepend.put(
+            column.getKey(),
+            "UPDATE " + table + " SET " + others + name + " = ? + " + name + " WHERE key = ?");
+        remove.put(
+            column.getKey(),
+            "UPDATE " + table + " SET " + name + " = " + name + " - ? WHERE key = ?");
+      }
+    }
+  }
+
+  // Value column of each data type, in the order of the columns of KVCassandra, which reads the
+  // value columns of a row by position
+  private final Map<KVDataType, String> valueColumns = new LinkedHashMap<>();
+
+  // Map of keyspace to the templates of its tables
+  private final Map<String, Map<String, TableTemplates>> templates = new ConcurrentHashMap<>();
+
+  // Layout of a table by keyspace and table name
+  private final BiFunction<String, String, KVTableLayout> layouts;
+
+  /**
+   * Constructor for KVQueryTemplates.
+   *
+   * @param columns The value columns of the legacy layout.
+   * @param layouts Looks up the layout of a table by keyspace and table name.
+   */
+  public KVQueryTemplates(
+      List<Column> columns, BiFunction<String, String, KVTableLayout> layouts) {
+    for (Column column : columns) {
+      valueColumns.put(KVDataType.get(column.type()), column.name());
+    }
+    this.layouts = layouts;
+  }
+
+  /**
+   * Retrieves the CQL of a statement, rendering it on first use.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param operation The statement.
+   * @param type The data type of the value, only used by the INSERT, UPSERT and UPDATE statements.
+   * @return String The CQL with bind markers for the value (INSERT and UPSERT: key first, UPDATE and
+   *     COLLECTION_*: key last, UPDATE_IF: new value, key, expected value, DELETE_IF: key, expected
+   *     value), null for a COLLECTION_* statement of a compact table. The TTL is the last marker of
+   *     the INSERT_*_TTL and UPSERT_TTL statements and the first one of UPDATE_TTL.
+   */
+  public String get(
+      String keyspace_name, String table_name, Operation operation, KVDataType type) {
+    TableTemplates table = _table(keyspace_name, table_name);
+    switch (operation) {
+      case SELECT_VALUE:
+        return table.selectValue;
+      case SELECT_WRITETIME:
+        return table.selectWritetime;
+      case SELECT_KEY:
+        return table.selectKey;
+      case INSERT:
+        return table.insert.get(type);
+      case INSERT_IF_NOT_EXISTS:
+        return table.insertIfNotExists.get(type);
+      case INSERT_TTL:
+        return table.insertTtl.get(type);
+      case INSERT_IF_NOT_EXISTS_TTL:
+        return table.insertIfNotExistsTtl.get(type);
+      case UPSERT:
+        return table.upsert.get(type);
+      case UPSERT_TTL:
+        return table.upsertTtl.get(type);
+      case UPDATE:
+        return table.update.get(type);
+      case UPDATE_TTL:
+        return table.updateTtl.get(type);
+      case UPDATE_IF:
+        return table.updateIf.get(type);
+      case COLLECTION_APPEND:
+        return table.append.get(type);
+      case COLLECTION_PREPEND:
+        return table.prepend.get(type);
+      case COLLECTION_REMOVE:
+        return table.remove.get(type);
+      case DELETE:
+        return table.delete;
+      case DELETE_IF_EXISTS:
+        return table.deleteIfExists;
+      case DELETE_IF:
+        return table.deleteIf.get(type);
+      case SCAN_KEYS:
+        return table.scanKeys;
+      case SCAN_VALUES:
+        return table.scanValues;
+      case SCAN_RANGE:
+        return table.scanRange;
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  /**
+   * Retrieves the CQL of a conditional overwrite, see UPDATE_IF, whose new value may have another
+   * type than the expected one. On a legacy table the value columns of the other types are cleared
+   * then, as by UPDATE.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param type The data type of the new value.
+   * @param expected_type The data type of the expected value.
+   * @return String The CQL with bind markers for the new value, the key and the expected value.
+   */
+  public String getUpdateIf(
+      String keyspace_name, String table_name, KVDataType type, KVDataType expected_type) {
+    TableTemplates table = _table(keyspace_name, table_name);
+    if (type == expected_type || table.layout == KVTableLayout.COMPACT) {
+      return table.updateIf.get(expected_type);
+    }
+    return table.updateIfRetype.get(type).get(expected_type);
+  }
+
+  /**
+   * Drops the templates of a table, or of all tables of a keyspace. Called on DDL.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table, null for the whole keyspace.
+   */
+  public void invalidate(String keyspace_name, String table_name) {
+    if (table_name == null) {
+      templates.remove(keyspace_name);
+      return;
+    }
+    Map<String, TableTemplates> tables = templates.get(keyspace_name);
+    if (tables != null) {
+      tables.remove(table_name);
+    }
+  }
+
+  /**
+   * Retrieves the templates of a table, rendering them if they are missing or were rendered for
+   * another layout. Helper function.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return TableTemplates The templates.
+   */
+  private TableTemplates _table(String keyspace_name, String table_name) {
+    KVTableLayout layout = layouts.apply(keyspace_name, table_name);
+    Map<String, TableTemplates> tables =
+        templates.computeIfAbsent(keyspace_name, k -> new ConcurrentHashMap<>());
+    TableTemplates table = tables.get(table_name);
+    if (table == null || table.layout != layout) {
+      table = new TableTemplates(tableName(keyspace_name, table_name), valueColumns, layout);
+      tables.put(table_name, table);
+    }
+    return table;
+  }
+
+  /**
+   * Quotes keyspace and table name for hand written CQL, the same way QueryBuilder does.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return String The qualified table name.
+   */
+  public static String tableName(String keyspace_name, String table_name) {
+    return "\""
+        + keyspace_name.replace("\"", "\"\"")
+        + "\".\""
+        + table_name.replace("\"", "\"\"")
+        + "\"";
+  }
+}
@@ -1,5 +1,9 @@
 package org.stargate.rest.json;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
 public class KVResponse {
   // public Integer db_id;
   public int status_code = 200;
@@ -7,6 +11,36 @@ public class KVResponse {
 
   public KVData body;
 
+  // The key of an item of a batch response
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public String key;
+
+  // The per-item responses of a batch request, in request order
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public List<KVResponse> results;
+
+  // The number of elements of a list or set, see KVElementRead
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer count;
+
+  // Whether a list or set contains an element, see KVElementRead
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Boolean contains;
+
+  // Version of the value for conditional writes (expected_version), null if unknown
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Long version;
+
+  // Remaining TTL of the value in seconds, null if it does not expire
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer ttl;
+
+  // Cassandra writetime of the value in microseconds, -1 if unknown
+  @JsonIgnore public long writetime = -1;
+
+  // Age in milliseconds of a value served stale while Cassandra is unavailable, -1 if current
+  @JsonIgnore public long stale_ms = -1;
+
   public KVResponse() {}
 
   public KVResponse(int status_code, String message) {
@@ -0,0 +1,25 @@
+package org.stargate.rest.json;
+
+/**
+ * Class KVScanEntry - One line of a table scan. A line either holds a key with its value (no value
+ * in key-only mode), the cursor to resume the scan from, or an error.
+ */
+public class KVScanEntry {
+  public String key;
+
+  public KVData body;
+
+  // Resumes the scan after the last key streamed, only set on the last line
+  public String cursor;
+
+  // Only set on an error line
+  public Integer status_code;
+  public String message;
+
+  public KVScanEntry() {}
+
+  public KVScanEntry(String key, KVData body) {
+    this.key = key;
+    this.body = body;
+  }
+}
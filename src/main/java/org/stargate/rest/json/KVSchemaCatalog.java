@@ -0,0 +1,366 @@
+package org.stargate.rest.json;
+
+import io.smallrye.mutiny.Uni;
+import io.stargate.bridge.proto.QueryOuterClass;
+import io.stargate.sgv2.api.common.cql.builder.QueryBuilder;
+import io.stargate.sgv2.api.common.grpc.StargateBridgeClient;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Class KVSchemaCatalog - In-memory catalog of the keyspaces and their tables.
+ *
+ * The catalog is loaded from system_schema on first use and kept up to date with the DDL of this
+ * service. Schema changes made elsewhere are picked up by a refresh, which is started when the
+ * catalog is older than kvstore.schema.refresh-interval-ms or when Cassandra reports an unknown
+ * keyspace or table. A refresh runs in the background while the old catalog keeps being served. It
+ * is started by a request, so it runs with the credentials of that request.
+ *
+ * Since the catalog is shared by all callers but loaded with the credentials of one of them, it is
+ * only a hint: it never answers listings and never rejects a request. Every statement still runs
+ * with the credentials of its caller, so the bridge decides what the caller may see.
+ *
+ * The catalog also knows the layout of each table (see KVTableLayout), a table with a column named
+ * "value" has the compact layout. Requests reach the data path only after checkTable, so the layout
+ * of a table is known before its statements are rendered.
+ */
+@ApplicationScoped
+public class KVSchemaCatalog {
+  private static final Logger LOG = Logger.getLogger(KVSchemaCatalog.class);
+  private static final String SYSTEM_SCHEMA = "system_schema";
+  private static final String KEYSPACE_NAME_COLUMN = "keyspace_name";
+  private static final String TABLE_NAME_COLUMN = "table_name";
+
+  @Inject StargateBridgeClient bridge;
+
+  // Age in milliseconds after which the catalog is refreshed, -1 disables the catalog
+  @ConfigProperty(name = "kvstore.schema.refresh-interval-ms", defaultValue = "60000")
+  long refreshIntervalMs;
+
+  // Minimum age in milliseconds of the catalog before a request for an unknown table reloads it
+  @ConfigProperty(name = "kvstore.schema.miss-refresh-ms", defaultValue = "1000")
+  long missRefreshMs;
+
+  /** An immutable version of the catalog. */
+  private static class Snapshot {
+    // Tables of each keyspace, sorted by name
+    final Map<String, Set<String>> tables;
+    // Qualified names (see KVQueryTemplates.tableName) of the tables with the compact layout
+    final Set<String> compact;
+    final long loadedAt;
+
+    Snapshot(Map<String, Set<String>> tables, Set<String> compact, long loadedAt) {
+      this.tables = tables;
+      this.compact = compact;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  // Current catalog, null until it is loaded
+  private volatile Snapshot snapshot;
+
+  // Load in progress, shared by all requests waiting for it
+  private Uni<Snapshot> loading;
+
+  // Incremented by every DDL update, a load that overlaps one is not installed
+  private long generation;
+
+  public KVSchemaCatalog() {}
+
+  /**
+   * Checks whether the catalog is used at all.
+   *
+   * @return boolean True unless the catalog is disabled.
+   */
+  public boolean isEnabled() {
+    return refreshIntervalMs >= 0;
+  }
+
+  /**
+   * Looks up the layout of a table in the loaded catalog.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return KVTableLayout The layout, LEGACY if the catalog is not loaded or disabled.
+   */
+  public KVTableLayout layout(String keyspace_name, String table_name) {
+    Snapshot current = snapshot;
+    if (current == null
+        || !current.compact.contains(KVQueryTemplates.tableName(keyspace_name, table_name))) {
+      return KVTableLayout.LEGACY;
+    }
+    return KVTableLayout.COMPACT;
+  }
+
+  /**
+   * Looks up a table before a data-path statement is sent, so that its layout is known. If the
+   * catalog does not know the table, e.g. it was created through another service instance, it is
+   * reloaded first unless it was loaded very recently. The statement is sent either way, a missing
+   * table or a caller without access gets the error of the bridge.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @return Uni completed once the layout of the table is known, or the catalog could not tell.
+   */
+  public Uni<Void> checkTable(String keyspace_name, String table_name) {
+    if (!isEnabled()) {
+      return Uni.createFrom().voidItem();
+    }
+    return _get()
+        .chain(
+            current -> {
+              if (_hasTable(current, keyspace_name, table_name)
+                  || System.currentTimeMillis() - current.loadedAt < missRefreshMs) {
+                return Uni.createFrom().voidItem();
+              }
+              return _load().replaceWithVoid();
+            })
+        .onFailure()
+        .recoverWithNull()
+        .replaceWithVoid();
+  }
+
+  /**
+   * Records a keyspace created by this service.
+   *
+   * @param keyspace_name The name of the keyspace.
+   */
+  public synchronized void addKeyspace(String keyspace_name) {
+    _update((tables, compact) -> tables.putIfAbsent(keyspace_name, new TreeSet<>()));
+  }
+
+  /**
+   * Records a keyspace dropped by this service.
+   *
+   * @param keyspace_name The name of the keyspace.
+   */
+  public synchronized void removeKeyspace(String keyspace_name) {
+    _update(
+        (tables, compact) -> {
+          Set<String> dropped = tables.remove(keyspace_name);
+          if (dropped != null) {
+            for (String table_name : dropped) {
+              compact.remove(KVQueryTemplates.tableName(keyspace_name, table_name));
+            }
+          }
+        });
+  }
+
+  /**
+   * Records a table created by this service.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   * @param layout The layout of the table, null to keep the recorded one.
+   */
+  public synchronized void addTable(
+      String keyspace_name, String table_name, KVTableLayout layout) {
+    _update(
+        (tables, compact) -> {
+          tables.computeIfAbsent(keyspace_name, k -> new TreeSet<>()).add(table_name);
+          if (layout == KVTableLayout.COMPACT) {
+            compact.add(KVQueryTemplates.tableName(keyspace_name, table_name));
+          } else if (layout == KVTableLayout.LEGACY) {
+            compact.remove(KVQueryTemplates.tableName(keyspace_name, table_name));
+          }
+        });
+  }
+
+  /**
+   * Records a table dropped by this service.
+   *
+   * @param keyspace_name The name of the keyspace.
+   * @param table_name The name of the table.
+   */
+  public synchronized void removeTable(String keyspace_name, String table_name) {
+    _update(
+        (tables, compact) -> {
+          Set<String> keyspace = tables.get(keyspace_name);
+          if (keyspace != null) {
+            keyspace.remove(table_name);
+          }
+          compact.remove(KVQueryTemplates.tableName(keyspace_name, table_name));
+        });
+  }
+
+  /**
+   * Marks the catalog as outdated after Cassandra reported an unknown keyspace or table, the next
+   * request reloads it in the background.
+   */
+  public synchronized void invalidate() {
+    Snapshot current = snapshot;
+    if (current != null) {
+      snapshot = new Snapshot(current.tables, current.compact, Long.MIN_VALUE / 2);
+    }
+  }
+
+  // ==================== Helper Functions ====================
+
+  /** Functional interface for DDL updates of the catalog. */
+  private interface Update {
+    void apply(Map<String, Set<String>> tables, Set<String> compact);
+  }
+
+  /**
+   * Helper function, applies a DDL update to a copy of the catalog. Must hold the lock.
+   * @param update the update
+   */
+  private void _update(Update update) {
+    generation++;
+    Snapshot current = snapshot;
+    if (current == null) {
+      // not loaded yet, the first load sees the change
+      return;
+    }
+    Map<String, Set<String>> tables = new TreeMap<>();
+    for (Map.Entry<String, Set<String>> keyspace : current.tables.entrySet()) {
+      tables.put(keyspace.getKey(), new TreeSet<>(keyspace.getValue()));
+    }
+    Set<String> compact = new HashSet<>(current.compact);
+    update.apply(tables, compact);
+    snapshot =
+        new Snapshot(_freeze(tables), Collections.unmodifiableSet(compact), current.loadedAt);
+  }
+
+  /**
+   * Helper function, returns the catalog, loading it on first use and starting a background refresh
+   * if it is outdated.
+   * @return Uni of the catalog
+   */
+  private Uni<Snapshot> _get() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return _load();
+    }
+    if (System.currentTimeMillis() - current.loadedAt > refreshIntervalMs) {
+      _load()
+          .subscribe()
+          .with(
+              reloaded -> {},
+              ex -> LOG.warnf("Refresh of the schema catalog failed: %s", ex.getMessage()));
+    }
+    return Uni.createFrom().item(current);
+  }
+
+  /**
+   * Helper function, loads the catalog from system_schema. Concurrent calls share one load.
+   * @return Uni of the loaded catalog
+   */
+  private synchronized Uni<Snapshot> _load() {
+    if (loading != null) {
+      return loading;
+    }
+    long started_generation = generation;
+    QueryOuterClass.Query keyspaces_query =
+        new QueryBuilder()
+            .select()
+            .column(KEYSPACE_NAME_COLUMN)
+            .from(SYSTEM_SCHEMA, "keyspaces")
+            .build();
+    QueryOuterClass.Query tables_query =
+        new QueryBuilder()
+            .select()
+            .column(KEYSPACE_NAME_COLUMN)
+            .column(TABLE_NAME_COLUMN)
+            .from(SYSTEM_SCHEMA, "tables")
+            .build();
+    QueryOuterClass.Query columns_query =
+        new QueryBuilder()
+            .select()
+            .column(KEYSPACE_NAME_COLUMN)
+            .column(TABLE_NAME_COLUMN)
+            .column("column_name")
+            .from(SYSTEM_SCHEMA, "columns")
+            .build();
+    loading =
+        Uni.createFrom()
+            .completionStage(() -> bridge.executeQueryAsync(keyspaces_query))
+            .chain(
+                keyspaces ->
+                    Uni.createFrom()
+                        .completionStage(() -> bridge.executeQueryAsync(tables_query))
+                        .chain(
+                            tables ->
+                                Uni.createFrom()
+                                    .completionStage(() -> bridge.executeQueryAsync(columns_query))
+                                    .map(
+                                        columns ->
+                                            _install(
+                                                keyspaces, tables, columns, started_generation))))
+            .onTermination()
+            .invoke(this::_loaded)
+            .memoize()
+            .indefinitely();
+    return loading;
+  }
+
+  /**
+   * Helper function, builds the catalog from the query results and installs it unless DDL of this
+   * service changed the catalog while it was loaded.
+   * @param keyspaces the rows of system_schema.keyspaces
+   * @param tables the rows of system_schema.tables
+   * @param columns the rows of system_schema.columns
+   * @param started_generation the generation when the load started
+   * @return the loaded catalog
+   */
+  private synchronized Snapshot _install(
+      QueryOuterClass.Response keyspaces,
+      QueryOuterClass.Response tables,
+      QueryOuterClass.Response columns,
+      long started_generation) {
+    Map<String, Set<String>> loaded = new TreeMap<>();
+    for (QueryOuterClass.Row row : keyspaces.getResultSet().getRowsList()) {
+      loaded.put(row.getValues(0).getString(), new TreeSet<>());
+    }
+    for (QueryOuterClass.Row row : tables.getResultSet().getRowsList()) {
+      loaded
+          .computeIfAbsent(row.getValues(0).getString(), k -> new TreeSet<>())
+          .add(row.getValues(1).getString());
+    }
+    Set<String> compact = new HashSet<>();
+    for (QueryOuterClass.Row row : columns.getResultSet().getRowsList()) {
+      if (KVQueryTemplates.COMPACT_VALUE_COLUMN.equals(row.getValues(2).getString())) {
+        compact.add(
+            KVQueryTemplates.tableName(row.getValues(0).getString(), row.getValues(1).getString()));
+      }
+    }
+    Snapshot result =
+        new Snapshot(
+            _freeze(loaded), Collections.unmodifiableSet(compact), System.currentTimeMillis());
+    if (generation == started_generation) {
+      snapshot = result;
+      return result;
+    }
+    if (snapshot == null) {
+      // the DDL happened before the first load finished, load again on the next request
+      snapshot = new Snapshot(result.tables, result.compact, Long.MIN_VALUE / 2);
+      return result;
+    }
+    // the current catalog has the DDL of this service, the loaded one might not
+    return snapshot;
+  }
+
+  private synchronized void _loaded() {
+    loading = null;
+  }
+
+  private static Map<String, Set<String>> _freeze(Map<String, Set<String>> tables) {
+    for (Map.Entry<String, Set<String>> keyspace : tables.entrySet()) {
+      keyspace.setValue(Collections.unmodifiableSet(keyspace.getValue()));
+    }
+    return Collections.unmodifiableMap(tables);
+  }
+
+  private static boolean _hasTable(Snapshot current, String keyspace_name, String table_name) {
+    Set<String> tables = current.tables.get(keyspace_name);
+    return tables != null && tables.contains(table_name);
+  }
+}
@@ -34,22 +34,20 @@ public class KVSerializer extends StdSerializer<KVData> {
         break;
       case LISTINT:
       case SETINT:
-        jgen.writeArrayFieldStart("value");
+        // writeArray emits the array start and end markers itself
+        jgen.writeFieldName("value");
         jgen.writeArray(value.list_int, 0, value.list_int.length);
-        jgen.writeEndArray();
         break;
       case LISTDOUBLE:
       case SETDOUBLE:
-        jgen.writeArrayFieldStart("value");
+        jgen.writeFieldName("value");
         jgen.writeArray(value.list_double, 0, value.list_double.length);
-        jgen.writeEndArray();
         break;
 
       case LISTTEXT:
       case SETTEXT:
-        jgen.writeArrayFieldStart("value");
+        jgen.writeFieldName("value");
         jgen.writeArray(value.list_text, 0, value.list_text.length);
-        jgen.writeEndArray();
         break;
     }
     jgen.writeEndObject();
@@ -0,0 +1,24 @@
+package org.stargate.rest.json;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Marks values served from the cache while Cassandra is unavailable with the X-KV-Stale header,
+ * holding the age of the value in milliseconds.
+ */
+@Provider
+public class KVStaleHeaderFilter implements ContainerResponseFilter {
+
+  public static final String STALE_HEADER = "X-KV-Stale";
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    Object entity = response.getEntity();
+    if (entity instanceof KVResponse && ((KVResponse) entity).stale_ms >= 0) {
+      response.getHeaders().putSingle(STALE_HEADER, String.valueOf(((KVResponse) entity).stale_ms));
+    }
+  }
+}
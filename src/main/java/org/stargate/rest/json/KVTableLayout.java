@@ -0,0 +1,38 @@
+package org.stargate.rest.json;
+
+/**
+ * The column layout of a key-value table.
+ *
+ * LEGACY has one typed column per KVDataType, a write sets one of them and clears the others.
+ * COMPACT has a single blob column "value" holding the value encoded with KVDataCodec, whose first
+ * byte is the KVDataType, so reads and writes touch exactly one value cell.
+ */
+public enum KVTableLayout {
+  LEGACY("legacy"),
+  COMPACT("compact");
+  public final String label;
+
+  private KVTableLayout(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Checks whether Cassandra can read the writetime and TTL of a value. It rejects writetime() and
+   * ttl() on the non-frozen list and set columns of the legacy layout.
+   *
+   * @param type The type of the value.
+   * @return boolean True if the writetime and TTL of the value are readable.
+   */
+  public boolean hasWritetime(KVDataType type) {
+    return this == COMPACT || !KVCassandra.DATAMAP.containsKey(type);
+  }
+
+  public static KVTableLayout get(String label) {
+    for (KVTableLayout layout : values()) {
+      if (layout.label.equals(label)) {
+        return layout;
+      }
+    }
+    return null;
+  }
+}
@@ -1,9 +1,17 @@
 package org.stargate.rest.json;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 public class KeyValPair {
 
   public String key;
 
+  // Conditional delete: the version (see KVResponse) or the value the key must hold
+  public Long expected_version;
+  public JsonNode expected_value;
+  // Type of expected_value, inferred from it if missing
+  public String expected_type;
+
   public KeyValPair() {}
 
   public KeyValPair(String key, String val) {
@@ -5,18 +5,51 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.common.annotation.Blocking;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.stargate.bridge.proto.QueryOuterClass;
+import io.stargate.sgv2.api.common.cql.builder.Replication;
 import io.stargate.sgv2.api.common.grpc.StargateBridgeClient;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+import org.jboss.resteasy.reactive.common.util.RestMediaType;
+import org.stargate.rest.json.Cache.CacheEntry;
 
 /**
  * Class KeyValueResource - Handles REST API requests for key-value store operations.
+ *
+ * All endpoints return a Uni and never block: cache hits are answered directly on the event loop
+ * and Cassandra calls are composed on the async API of the bridge.
  */
 @ApplicationScoped
 @SecurityRequirement(name = "Token") // add authorization
@@ -27,15 +60,63 @@ public class KeyValueResource {
   @Inject KVCassandra kvcassandra;
   // apis to interact with cache
   @Inject KVCache kvcache;
+  // write timestamps, also used as cache versions
+  @Inject KVClock clock;
+  // exports of tables to local files
+  @Inject KVExporter kvexporter;
+  // bulk imports
+  @Inject KVImporter kvimporter;
+  // keyspaces and tables known to exist
+  @Inject KVSchemaCatalog catalog;
+  // consistency levels of the requests
+  @Inject KVConsistency kvconsistency;
+  // fails the statements fast while Cassandra is unavailable
+  @Inject KVCircuitBreaker breaker;
+  // tables (db.table, db.* or *) where PUT overwrites existing keys instead of answering 409
+  @ConfigProperty(name = "kvstore.put.blind-upsert-tables")
+  Optional<List<String>> blindUpsertTables;
+  // maximum number of mutations of a batch request
+  @ConfigProperty(name = "kvstore.batch.max-mutations", defaultValue = "1000")
+  int batchMaxMutations;
+  // maximum number of statements of one unlogged batch sent to Cassandra
+  @ConfigProperty(name = "kvstore.batch.group-size", defaultValue = "20")
+  int batchGroupSize;
+  // maximum number of batches and conditional inserts of a batch request in flight
+  @ConfigProperty(name = "kvstore.batch.parallelism", defaultValue = "8")
+  int batchParallelism;
+  // maximum number of keys of a multi-get request
+  @ConfigProperty(name = "kvstore.multiget.max-keys", defaultValue = "1000")
+  int multigetMaxKeys;
+  // maximum number of reads of a multi-get request in flight
+  @ConfigProperty(name = "kvstore.multiget.parallelism", defaultValue = "16")
+  int multigetParallelism;
+  // rows per page of a scan if the request does not set page_size
+  @ConfigProperty(name = "kvstore.scan.default-page-size", defaultValue = "100")
+  int scanDefaultPageSize;
+  // maximum rows per page of a scan
+  @ConfigProperty(name = "kvstore.scan.max-page-size", defaultValue = "1000")
+  int scanMaxPageSize;
+  // layout of tables created without a layout in the request, legacy or compact
+  @ConfigProperty(name = "kvstore.table.default-layout", defaultValue = "legacy")
+  String defaultTableLayout;
+  // maximum number of conditional updates of an increment before it answers 409
+  @ConfigProperty(name = "kvstore.increment.max-attempts", defaultValue = "10")
+  int incrementMaxAttempts;
   ObjectMapper objectMapper = new ObjectMapper();
+
+  // Largest TTL Cassandra accepts, 20 years in seconds
+  private static final int MAX_TTL = 630720000;
   
   public KeyValueResource() {}
   
   /**
    * Creates a new database (keyspace) based on the provided JSON input.
    *
-   * @param db_name_json JSON string containing the database name.
-   * @return KVResponse indicating the result of the database creation operation.
+   * @param db_name_json JSON string containing the database name and optionally its replication,
+   *     {"strategy": "SimpleStrategy", "replication_factor": n} or {"strategy":
+   *     "NetworkTopologyStrategy", "datacenters": {"dc": n, ...}}. SimpleStrategy with factor 1 if
+   *     missing.
+   * @return Uni of the KVResponse indicating the result of the database creation operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    * @throws JsonProcessingException If there's an error in processing the JSON input.
    */
@@ -43,43 +124,85 @@ public class KeyValueResource {
   @Path("databases")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse createDB(String db_name_json) throws KvstoreException, JsonProcessingException, InterruptedException {
+  public Uni<KVResponse> createDB(String db_name_json) throws KvstoreException, JsonProcessingException, InterruptedException {
     JsonNode jsonNode = objectMapper.readTree(db_name_json);
     String db_name;
     try {
       db_name = jsonNode.get("db_name").asText();
     } catch (Exception ex) {
-      return new KVResponse(400, "Bad request, must provide a valid database name.");
+      return _respond(new KVResponse(400, "Bad request, must provide a valid database name."));
+    }
+    return kvcassandra.createKeyspace(db_name, _getReplication(jsonNode.get("replication")));
+  }
+
+  /**
+   * Helper function to get the replication of a new keyspace from the request
+   * @param replication the replication of the request, may be null
+   * @return the replication, SimpleStrategy with factor 1 if the request has none
+   * @throws KvstoreException if the replication is invalid
+   */
+  private Replication _getReplication(JsonNode replication) throws KvstoreException {
+    if (replication == null) {
+      return Replication.simpleStrategy(1);
     }
-    KVResponse resonse = kvcassandra.createKeyspace(db_name);
-    return resonse;
+    String strategy =
+        replication.has("strategy") ? replication.get("strategy").asText() : "SimpleStrategy";
+    if (strategy.equals("SimpleStrategy")) {
+      JsonNode factor = replication.get("replication_factor");
+      if (factor == null || !factor.isIntegralNumber() || factor.asInt() <= 0) {
+        throw new KvstoreException(
+            400, "Bad request, replication_factor must be a positive integer.");
+      }
+      return Replication.simpleStrategy(factor.asInt());
+    }
+    if (strategy.equals("NetworkTopologyStrategy")) {
+      JsonNode datacenters = replication.get("datacenters");
+      if (datacenters == null || !datacenters.isObject() || datacenters.size() == 0) {
+        throw new KvstoreException(
+            400, "Bad request, datacenters must map each datacenter to its replication factor.");
+      }
+      Map<String, Integer> factors = new HashMap<>();
+      Iterator<Map.Entry<String, JsonNode>> fields = datacenters.fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> datacenter = fields.next();
+        if (!datacenter.getValue().isIntegralNumber() || datacenter.getValue().asInt() <= 0) {
+          throw new KvstoreException(
+              400, "Bad request, datacenters must map each datacenter to its replication factor.");
+        }
+        factors.put(datacenter.getKey(), datacenter.getValue().asInt());
+      }
+      return Replication.networkTopologyStrategy(factors);
+    }
+    throw new KvstoreException(
+        400, "Bad request, strategy must be SimpleStrategy or NetworkTopologyStrategy.");
   }
 
   /**
    * Deletes a database (keyspace) based on the provided database name.
    *
    * @param db_name The name of the database to be deleted.
-   * @return KVResponse indicating the result of the database deletion operation.
+   * @return Uni of the KVResponse indicating the result of the database deletion operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @DELETE
   @Path("{db_name}")
-  public KVResponse deleteDB(@PathParam("db_name") String db_name) throws KvstoreException {
+  public Uni<KVResponse> deleteDB(@PathParam("db_name") String db_name) throws KvstoreException {
     if (db_name == null) {
-      return new KVResponse(400, "Bad request, must provide a valid database name.");
+      return _respond(new KVResponse(400, "Bad request, must provide a valid database name."));
     }
-    KVResponse response = kvcassandra.deleteKeyspace(db_name);
-    // clear cache
-    kvcache.resetCache(-1, null);
-    return response;
+    return kvcassandra
+        .deleteKeyspace(db_name)
+        // clear cache
+        .invoke(response -> kvcache.resetCache(-1, null));
   }
 
   /**
    * Creates a new table within a specified database.
    *
    * @param db_name The name of the database where the table will be created.
-   * @param table_name_json JSON string containing the table name.
-   * @return KVResponse indicating the result of the table creation operation.
+   * @param table_name_json JSON string containing the table name and optionally its layout, legacy
+   *     or compact (see KVTableLayout).
+   * @return Uni of the KVResponse indicating the result of the table creation operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    * @throws JsonProcessingException If there's an error in processing the JSON input.
    */
@@ -87,18 +210,29 @@ public class KeyValueResource {
   @Path("databases/{db_name}/tables")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse createTable(@PathParam("db_name") String db_name, String table_name_json)
+  public Uni<KVResponse> createTable(@PathParam("db_name") String db_name, String table_name_json)
       throws KvstoreException, JsonProcessingException {
     JsonNode jsonNode = objectMapper.readTree(table_name_json);
     String table_name;
     try {
       table_name = jsonNode.get("table_name").asText();
     } catch (Exception ex) {
-      return new KVResponse(400, "Bad request, must provide a valid table name.");
+      return _respond(new KVResponse(400, "Bad request, must provide a valid table name."));
+    }
+    KVTableLayout layout =
+        KVTableLayout.get(
+            jsonNode.has("layout") ? jsonNode.get("layout").asText() : defaultTableLayout);
+    if (layout == null) {
+      return _respond(
+          new KVResponse(400, "Bad request, the layout must be either legacy or compact."));
+    }
+    if (layout == KVTableLayout.COMPACT && !catalog.isEnabled()) {
+      // the layout of a table is only known to the schema catalog
+      return _respond(
+          new KVResponse(400, "Bad request, the compact layout requires the schema catalog."));
     }
 
-    KVResponse response = kvcassandra.createTable(db_name, table_name);
-    return response;
+    return kvcassandra.createTable(db_name, table_name, layout);
   }
 
   /**
@@ -106,52 +240,51 @@ public class KeyValueResource {
     *
     * @param db_name The name of the database where the table will be deleted.
     * @param table_name The name of the table to be deleted.
-    * @return KVResponse indicating the result of the table deletion operation.
+    * @return Uni of the KVResponse indicating the result of the table deletion operation.
     * @throws KvstoreException If there's an issue in the key-value store operation.
     */
   @DELETE
   @Path("{db_name}/{table_name}")
-  public KVResponse deleteTable(
+  public Uni<KVResponse> deleteTable(
       @PathParam("db_name") String db_name, @PathParam("table_name") String table_name)
       throws KvstoreException {
     if (db_name == null || table_name == null) {
-      return new KVResponse(400, "Bad request, must provide valid database name and table name.");
+      return _respond(
+          new KVResponse(400, "Bad request, must provide valid database name and table name."));
     }
-    KVResponse response = kvcassandra.deleteTable(db_name, table_name);
-    kvcache.resetCache(-1, null);
-    return response;
+    return kvcassandra
+        .deleteTable(db_name, table_name)
+        .invoke(response -> kvcache.resetCache(-1, null));
   }
 
   /**
    * Lists all the current databases (keyspaces).
    *
-   * @return KVResponse containing the list of databases.
+   * @return Uni of the KVResponse containing the list of databases.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @GET
   @Path("databases")
   @Produces(MediaType.APPLICATION_JSON)
-  public KVResponse listDBs() throws KvstoreException {
-    KVResponse response = kvcassandra.listKeyspaces();
-    return response;
+  public Uni<KVResponse> listDBs() throws KvstoreException {
+    return kvcassandra.listKeyspaces();
   }
 
   /**
    * Lists all the current tables in a specified database.
    *
    * @param db_name The name of the database.
-   * @return KVResponse containing the list of tables in the specified database.
+   * @return Uni of the KVResponse containing the list of tables in the specified database.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @GET
   @Path("{db_name}/tables")
   @Produces(MediaType.APPLICATION_JSON)
-  public KVResponse listTables(@PathParam("db_name") String db_name) throws KvstoreException {
+  public Uni<KVResponse> listTables(@PathParam("db_name") String db_name) throws KvstoreException {
     if (db_name == null) {
-      return new KVResponse(400, "Bad request, must provide valid database name.");
+      return _respond(new KVResponse(400, "Bad request, must provide valid database name."));
     }
-    KVResponse response = kvcassandra.listTables(db_name);
-    return response;
+    return kvcassandra.listTables(db_name);
   }
   
   /**
@@ -273,13 +406,51 @@ public class KeyValueResource {
 	  return type;
   }
 
+  /**
+   * Helper function to get the TTL of a PUT or PATCH request, see also _ttlError
+   * @param jsonNode the request
+   * @return the TTL in seconds, 0 if the request has none
+   * @throws KvstoreException if the TTL is invalid
+   */
+  private int _getTtl(JsonNode jsonNode) throws KvstoreException {
+    if (!jsonNode.has("ttl")) {
+      return 0;
+    }
+    JsonNode ttl = jsonNode.get("ttl");
+    if (!ttl.isIntegralNumber() || ttl.asLong() < 1 || ttl.asLong() > MAX_TTL) {
+      throw new KvstoreException(
+          400, "Bad request, ttl must be a number of seconds between 1 and " + MAX_TTL + ".");
+    }
+    return ttl.asInt();
+  }
+
+  /**
+   * Helper function to reject a TTL on a list or set of a legacy table. Cassandra cannot report the
+   * TTL of such a value, so the cache could not expire it after a refill. The layout of the table is
+   * only known once the schema catalog has looked it up, see _withTable.
+   * @param ttl the TTL in seconds, 0 for none
+   * @param type the type of the value
+   * @param db_name the database
+   * @param table_name the table
+   * @return the 400 response, null if the TTL is allowed
+   */
+  private KVResponse _ttlError(int ttl, KVDataType type, String db_name, String table_name) {
+    if (ttl > 0 && !catalog.layout(db_name, table_name).hasWritetime(type)) {
+      return new KVResponse(
+          400, "Bad request, list and set values of a legacy table cannot have a ttl.");
+    }
+    return null;
+  }
+
   /**
    * Puts a key-value pair into a specified table.
    *
    * @param db_name The name of the database.
    * @param table_name The name of the table.
-   * @param json_body JSON string containing the key-value pair to be inserted.
-   * @return KVResponse indicating the result of the put operation.
+   * @param json_body JSON string containing the key-value pair to be inserted, and optionally the
+   *     "ttl" in seconds after which Cassandra expires it.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @return Uni of the KVResponse indicating the result of the put operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    * @throws JsonMappingException If there's an error in mapping the JSON input.
    * @throws JsonProcessingException If there's an error in processing the JSON input.
@@ -288,9 +459,10 @@ public class KeyValueResource {
   @Path("{db_name}/{table_name}")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse putKeyVal(
+  public Uni<KVResponse> putKeyVal(
       @PathParam("db_name") String db_name,
       @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
       String json_body)
       throws KvstoreException, JsonMappingException, JsonProcessingException {
     if (db_name == null
@@ -310,28 +482,58 @@ public class KeyValueResource {
 
    
     KVDataType type = _getTypeForRequest(jsonNode, value);
+    KVData data = KVData.fromJson(value, type);
+    int ttl = _getTtl(jsonNode);
+    boolean blind_upsert = _isBlindUpsert(db_name, table_name);
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
     
-    JsonNode old_value = kvcache.get(key, db_name, table_name);
+    KVData old_value = blind_upsert ? null : kvcache.get(key, db_name, table_name);
     if(old_value != null) {
-    	if (old_value.equals(value)) {
-        return new KVResponse(409, "The key '" + key + "' already exists.");
+    	if (old_value.equals(data)) {
+        return _respond(new KVResponse(409, "The key '" + key + "' already exists."));
     	}
     }
 
     // first add this to the Cassandra database, then add to cache if no error
-    KVResponse response = kvcassandra.putKeyVal(db_name, table_name, key, value, type);
-    if (response.status_code == 201) {
-      kvcache.put(key, value, key, table_name, type);
-    } else {
-      // find the old value from cassandra
-      KVResponse old_response = kvcassandra.getVal(db_name, table_name, key);
-      if (old_response.status_code == 200) {
-        JsonNode old_value_from_cassandra = old_response.body.getJsonBody();
-        // add to cache after fetch from cassandra
-        kvcache.put(key, old_value_from_cassandra, db_name, table_name, old_response.body.type);
-      }
+    long version = clock.next();
+    long expires_at = KVCache.expiresAt(System.currentTimeMillis(), ttl);
+    return _withTable(
+        db_name,
+        table_name,
+        () -> {
+          KVResponse invalid = _ttlError(ttl, type, db_name, table_name);
+          if (invalid != null) {
+            return _respond(invalid);
+          }
+          return kvcassandra
+              .putKeyVal(db_name, table_name, key, value, type, version, blind_upsert, ttl, level)
+              .invoke(
+                  response -> {
+                    if (response.status_code == 201 && blind_upsert) {
+                      kvcache.put(key, data, db_name, table_name, version, expires_at);
+                    } else if (response.status_code == 201) {
+                      // the conditional insert gets its timestamp from Cassandra
+                      kvcache.putConditional(key, data, db_name, table_name, version, expires_at);
+                    }
+                    // the existing value of a 409 is not cached, its ttl is unknown
+                  });
+        });
+  }
+
+  /**
+   * Helper function to check if PUT overwrites existing keys of a table
+   * @param db_name the database
+   * @param table_name the table
+   * @return true if the table is configured for blind upserts
+   */
+  private boolean _isBlindUpsert(String db_name, String table_name) {
+    if (blindUpsertTables.isEmpty()) {
+      return false;
     }
-    return response;
+    List<String> tables = blindUpsertTables.get();
+    return tables.contains("*")
+        || tables.contains(db_name + ".*")
+        || tables.contains(db_name + "." + table_name);
   }
 
   /**
@@ -339,46 +541,916 @@ public class KeyValueResource {
    *
    * @param db_name The name of the database.
    * @param table_name The name of the table.
+   * @param consistency The consistency level of a read from Cassandra, missing for the level of the
+   *     table. Cache hits are answered without reading Cassandra.
+   * @param slice Only the elements from:to (to exclusive) of a list or set value, e.g. 0:10.
+   * @param count True for only the number of elements of a list or set value.
+   * @param contains Only whether a list or set value contains this element.
    * @param kvPair The key-value pair object containing the key to retrieve.
-   * @return KVResponse containing the value associated with the key.
+   * @return Uni of the KVResponse containing the value associated with the key. While Cassandra is
+   *     unavailable, the last cached or evicted value is served with the X-KV-Stale header.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @GET
   @Path("{db_name}/{table_name}")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse getKeyVal(
+  public Uni<KVResponse> getKeyVal(
       @PathParam("db_name") String db_name,
       @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
+      @QueryParam("slice") String slice,
+      @QueryParam("count") boolean count,
+      @QueryParam("contains") String contains,
       KeyValPair kvPair)
       throws KvstoreException {
     if (db_name == null || table_name == null || kvPair == null || kvPair.key == null) {
-      return new KVResponse(
-          400, "Bad request, must provide valid database, table name and key value pair.");
+      return _respond(
+          new KVResponse(
+              400, "Bad request, must provide valid database, table name and key value pair."));
     }
 
-    JsonNode value = kvcache.get(kvPair.key, db_name, table_name);
-    if (value == null) {
+    QueryOuterClass.Consistency level = kvconsistency.read(db_name, table_name, consistency);
+    KVElementRead elements = KVElementRead.parse(slice, count, contains);
+    Uni<KVResponse> value = _getKeyVal(db_name, table_name, kvPair, level);
+    // the whole value is cached, only the requested elements are serialized
+    return elements == null ? value : value.map(elements::answer);
+  }
+
+  /**
+   * Helper function to read the current value of a key, from the cache if possible
+   * @param db_name the database
+   * @param table_name the table
+   * @param kvPair the key
+   * @param level the consistency level of a read from Cassandra
+   * @return the response holding the whole value
+   */
+  private Uni<KVResponse> _getKeyVal(
+      String db_name, String table_name, KeyValPair kvPair, QueryOuterClass.Consistency level) {
+    CacheEntry entry = kvcache.getEntry(kvPair.key, db_name, table_name);
+    if (entry == null) {
+      if (breaker.isOpen()) {
+        // cassandra is unavailable, a value evicted earlier beats a 503
+        CacheEntry evicted = kvcache.getStale(kvPair.key, db_name, table_name);
+        if (evicted != null) {
+          return _respond(_staleResponse(db_name, table_name, evicted));
+        }
+      }
       // Does not exists in cache, read from cassandra first
-      KVResponse response = kvcassandra.getVal(db_name, table_name, kvPair.key);
-      if (response.status_code == 200) { 
-        value = response.body.getJsonBody();
-        // add to cache after fetch from cassandra
-        kvcache.put(kvPair.key, value, db_name, table_name, response.body.type);
+      long started_at = System.currentTimeMillis();
+      return _withTable(
+          db_name,
+          table_name,
+          () ->
+              kvcassandra
+                  .getVal(db_name, table_name, kvPair.key, level)
+                  .invoke(
+                      response -> {
+                        if (response.status_code == 200) {
+                          // add to cache after fetch from cassandra, unless a newer write got
+                          // cached meanwhile
+                          kvcache.fill(
+                              kvPair.key,
+                              response.body,
+                              db_name,
+                              table_name,
+                              response.writetime,
+                              KVCache.expiresAt(started_at, response.ttl));
+                          response.version = _version(response.writetime);
+                        }
+                      })
+                  .map(response -> _orStale(response, kvPair.key, db_name, table_name, null)));
+    }
+    KVData value = kvcache.getValue(entry);
+    if (kvcache.isStaleSuspect(entry)) {
+      if (breaker.isOpen()) {
+        // cannot be checked now, serve it marked as stale
+        return _respond(_staleResponse(db_name, table_name, entry));
       }
+      // the key might have been written by someone else, check before serving it
+      return _revalidate(db_name, table_name, kvPair.key, entry, value, level)
+          .map(response -> _orStale(response, kvPair.key, db_name, table_name, entry));
+    }
+    // serve the cached primitive value directly on the event loop, same body as a read from cassandra
+    KVResponse response = new KVResponse(value);
+    response.ttl = KVCache.remainingTtl(entry);
+    response.version = _version(db_name, table_name, entry, value);
+    return _respond(response);
+  }
+
+  /**
+   * Retrieves the current values of many keys from a specified table. Cache hits are answered in one
+   * pass, only the misses and stale-suspect entries are read from Cassandra.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param consistency The consistency level of the reads from Cassandra, missing for the level of
+   *     the table.
+   * @param json_body JSON string with the array of keys as "keys".
+   * @return Uni of the KVResponse with the response of each key in results, in request order.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @GET
+  @Path("{db_name}/{table_name}/keys")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> getKeyVals(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and keys.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    if (!jsonNode.has("keys") || !jsonNode.get("keys").isArray()) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and keys.");
+    }
+    ArrayNode items = (ArrayNode) jsonNode.get("keys");
+    if (items.size() > multigetMaxKeys) {
+      return _respond(
+          new KVResponse(
+              400, "Bad request, a multi-get holds at most " + multigetMaxKeys + " keys."));
+    }
+    QueryOuterClass.Consistency level = kvconsistency.read(db_name, table_name, consistency);
+
+    // answer the cache hits, collect each missing key once
+    KVResponse[] results = new KVResponse[items.size()];
+    List<String> misses = new ArrayList<>();
+    Set<String> missing = new HashSet<>();
+    Map<String, CacheEntry> suspects = new HashMap<>();
+    for (int i = 0; i < items.size(); i++) {
+      String key = items.get(i).asText();
+      CacheEntry entry = kvcache.getEntry(key, db_name, table_name);
+      if (entry != null && !kvcache.isStaleSuspect(entry)) {
+        KVData value = kvcache.getValue(entry);
+        results[i] = new KVResponse(value);
+        results[i].ttl = KVCache.remainingTtl(entry);
+        results[i].version = _version(db_name, table_name, entry, value);
+        results[i].key = key;
+      } else if (missing.add(key)) {
+        misses.add(key);
+        if (entry != null) {
+          suspects.put(key, entry);
+        }
+      }
+    }
+    if (misses.isEmpty()) {
+      return _respond(_getKeyValsResponse(results));
+    }
+
+    long started_at = System.currentTimeMillis();
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .getVals(db_name, table_name, misses, multigetParallelism, level)
+                .map(
+                    responses -> {
+                      Map<String, KVResponse> fetched = new HashMap<>();
+                      List<String> fill_keys = new ArrayList<>();
+                      List<KVData> fill_values = new ArrayList<>();
+                      List<Long> fill_writetimes = new ArrayList<>();
+                      List<Long> fill_expiries = new ArrayList<>();
+                      for (int i = 0; i < misses.size(); i++) {
+                        String key = misses.get(i);
+                        KVResponse response = responses.get(i);
+                        fetched.put(key, response);
+                        CacheEntry suspect = suspects.get(key);
+                        if (suspect != null) {
+                          // replace or drop the stale-suspect entry, unless it got a newer write meanwhile
+                          if (response.status_code == 200) {
+                            long version =
+                                response.writetime < 0 ? suspect.getVersion() : response.writetime;
+                            kvcache.revalidate(
+                                key,
+                                db_name,
+                                table_name,
+                                suspect.getVersion(),
+                                response.body,
+                                version,
+                                KVCache.expiresAt(started_at, response.ttl));
+                          } else if (response.status_code == 404) {
+                            // just newer than the entry that was read, a write that raced the read wins
+                            kvcache.delete(key, db_name, table_name, suspect.getVersion() + 1);
+                          }
+                        } else if (response.status_code == 200) {
+                          fill_keys.add(key);
+                          fill_values.add(response.body);
+                          fill_writetimes.add(response.writetime);
+                          fill_expiries.add(KVCache.expiresAt(started_at, response.ttl));
+                        }
+                      }
+                      // add all misses to the cache at once
+                      kvcache.fillAll(
+                          fill_keys,
+                          fill_values,
+                          db_name,
+                          table_name,
+                          fill_writetimes,
+                          fill_expiries);
+
+                      for (int i = 0; i < results.length; i++) {
+                        if (results[i] == null) {
+                          String key = items.get(i).asText();
+                          KVResponse response = fetched.get(key);
+                          // a key requested twice gets its own response object
+                          results[i] = new KVResponse(response.status_code, response.message);
+                          results[i].body = response.body;
+                          results[i].ttl = response.ttl;
+                          results[i].version = _version(response.writetime);
+                          results[i].key = key;
+                        }
+                      }
+                      return _getKeyValsResponse(results);
+                    }));
+  }
+
+  /**
+   * Helper function to build the response of a multi-get
+   * @param results the response of each key, in request order
+   * @return the response holding the results
+   */
+  private KVResponse _getKeyValsResponse(KVResponse[] results) {
+    int found = 0;
+    for (KVResponse result : results) {
+      if (result.status_code == 200) {
+        found++;
+      }
+    }
+    KVResponse response =
+        new KVResponse(200, found + " of " + results.length + " keys have been found.");
+    response.results = List.of(results);
+    return response;
+  }
+
+  /**
+   * Streams the keys of a specified table as NDJSON, one key with its value per line. The table is
+   * read page by page while the client consumes the stream. If pages stops the scan before the end
+   * of the table, the last line holds the cursor to resume from. The cache is not used.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param cursor The cursor of a previous scan with the same keys_only, missing to start at the
+   *     beginning of the table.
+   * @param page_size The number of rows per page.
+   * @param pages The maximum number of pages to stream, missing for the whole table.
+   * @param keys_only True to stream the keys without their values.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @return Multi of the lines of the scan.
+   * @throws KvstoreException If the paging parameters or the cursor are invalid.
+   */
+  @GET
+  @Path("{db_name}/{table_name}/scan")
+  @Produces(RestMediaType.APPLICATION_NDJSON)
+  @RestStreamElementType(MediaType.APPLICATION_JSON)
+  public Multi<KVScanEntry> scan(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("cursor") String cursor,
+      @QueryParam("page_size") Integer page_size,
+      @QueryParam("pages") Integer pages,
+      @QueryParam("keys_only") boolean keys_only,
+      @QueryParam("consistency") String consistency)
+      throws KvstoreException {
+    if (db_name == null || table_name == null) {
+      throw new KvstoreException(400, "Bad request, must provide valid database and table name.");
+    }
+    if (page_size == null) {
+      page_size = scanDefaultPageSize;
+    }
+    if (page_size <= 0 || page_size > scanMaxPageSize) {
+      throw new KvstoreException(
+          400, "Bad request, page_size must be between 1 and " + scanMaxPageSize + ".");
+    }
+    if (pages != null && pages <= 0) {
+      throw new KvstoreException(400, "Bad request, pages must be a positive integer.");
+    }
+    if (cursor != null) {
+      try {
+        KVCassandra.decodeCursor(cursor);
+      } catch (IllegalArgumentException ex) {
+        throw new KvstoreException(400, "Bad request, invalid cursor.");
+      }
+    }
+    int page_rows = page_size;
+    int max_pages = pages == null ? 0 : pages;
+    QueryOuterClass.Consistency level = kvconsistency.read(db_name, table_name, consistency);
+    return catalog
+        .checkTable(db_name, table_name)
+        .onItem()
+        .transformToMulti(
+            checked ->
+                kvcassandra.scan(
+                    db_name, table_name, cursor, page_rows, max_pages, keys_only, level));
+  }
+
+  /**
+   * Exports a specified table to a file in the export directory (kvstore.export.directory). The
+   * token ring is split into ranges that are scanned in parallel. An interrupted export is continued
+   * with resume set to true, only the missing ranges are scanned again.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param json_body JSON string with the file name as "file", optional number of token ranges as
+   *     "ranges" and optional "resume".
+   * @return Uni of the KVResponse indicating the result of the export.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/export")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> exportTable(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and file.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    String file = _getFileName(jsonNode);
+    int ranges = -1;
+    if (jsonNode.has("ranges")) {
+      if (!jsonNode.get("ranges").isIntegralNumber() || jsonNode.get("ranges").asInt() <= 0) {
+        return _respond(new KVResponse(400, "Bad request, ranges must be a positive integer."));
+      }
+      ranges = jsonNode.get("ranges").asInt();
+    }
+    boolean resume = jsonNode.has("resume") && jsonNode.get("resume").asBoolean();
+    int range_count = ranges;
+    // the export reads the rows with the layout of the table, which checkTable makes known
+    return _withTable(
+        db_name,
+        table_name,
+        () -> kvexporter.export(db_name, table_name, file, range_count, resume));
+  }
+
+  /**
+   * Imports an NDJSON upload into a specified table, one object with key, value and optional type
+   * (same rules as PUT) per line. Existing keys are overwritten. The upload is read while it is
+   * written to Cassandra, so a slow Cassandra slows down the upload instead of buffering it.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param bypass_cache True to keep the imported keys out of the cache.
+   * @param body The NDJSON upload.
+   * @return Uni of the KVResponse with the number of imported, failed and skipped rows.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/import")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(RestMediaType.APPLICATION_NDJSON)
+  @Blocking
+  public Uni<KVResponse> importRows(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("bypass_cache") boolean bypass_cache,
+      InputStream body)
+      throws KvstoreException {
+    if (db_name == null || table_name == null || body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and rows.");
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    return _importNdjson(db_name, table_name, reader, bypass_cache);
+  }
+
+  /**
+   * Imports a file of the export directory into a specified table, either an export file (see
+   * exportTable) or an NDJSON file in the format of importRows. Existing keys are overwritten.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table, it does not have to be the exported one.
+   * @param json_body JSON string with the file name as "file" and optional "bypass_cache".
+   * @return Uni of the KVResponse with the number of imported, failed and skipped rows.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/import/file")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Blocking
+  public Uni<KVResponse> importFile(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and file.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    String file = _getFileName(jsonNode);
+    boolean bypass_cache = jsonNode.has("bypass_cache") && jsonNode.get("bypass_cache").asBoolean();
+    java.nio.file.Path path = Paths.get(kvexporter.directory, file);
+    if (!Files.isRegularFile(path)) {
+      return _respond(new KVResponse(404, "The file '" + file + "' cannot be found."));
+    }
+
+    BufferedInputStream in = null;
+    try {
+      in = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+      // an export file starts with its magic number, anything else is read as NDJSON
+      in.mark(4);
+      DataInputStream data = new DataInputStream(in);
+      boolean exported = Files.size(path) >= 4 && data.readInt() == KVExportFile.MAGIC;
+      in.reset();
+      if (!exported) {
+        return _importNdjson(
+            db_name,
+            table_name,
+            new BufferedReader(new InputStreamReader(data, StandardCharsets.UTF_8)),
+            bypass_cache);
+      }
+      KVExportFile.readHeader(data);
+      // entries are only read when the importer requests more rows
+      Multi<KVMutation> rows =
+          Multi.createFrom()
+              .iterable(KVExportFile.entries(data))
+              .onItem()
+              .transform(
+                  entry ->
+                      new KVMutation(entry.key, entry.body.getJsonBody(), entry.body.type, true))
+              .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+      return _import(db_name, table_name, rows, new KVImporter.Progress(), bypass_cache, data);
+    } catch (IOException ex) {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException ignored) {
+          // the read already failed
+        }
+      }
+      return _respond(
+          new KVResponse(500, "The file '" + file + "' cannot be read: " + ex.getMessage()));
+    }
+  }
+
+  /**
+   * Helper function to import NDJSON rows, blank lines are skipped and invalid lines counted
+   * @param db_name the database
+   * @param table_name the table
+   * @param reader the NDJSON source, closed at the end of the import
+   * @param bypass_cache true to keep the imported keys out of the cache
+   * @return the response of the import
+   */
+  private Uni<KVResponse> _importNdjson(
+      String db_name, String table_name, BufferedReader reader, boolean bypass_cache) {
+    KVImporter.Progress progress = new KVImporter.Progress();
+    // lines are only read when the importer requests more rows
+    Multi<KVMutation> rows =
+        Multi.createFrom()
+            .iterable(() -> reader.lines().iterator())
+            .filter(line -> !line.isBlank())
+            .onItem()
+            .transformToIterable(line -> _parseImportRow(line, progress))
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    return _import(db_name, table_name, rows, progress, bypass_cache, reader);
+  }
+
+  /**
+   * Helper function to parse an NDJSON row of an import
+   * @param line the row
+   * @param progress the progress of the import, counts invalid rows
+   * @return the row as update, empty if the row is invalid
+   */
+  private List<KVMutation> _parseImportRow(String line, KVImporter.Progress progress) {
+    try {
+      JsonNode item = objectMapper.readTree(line);
+      if (!item.isObject() || !item.has("key") || !item.has("value")) {
+        progress.skip();
+        return List.of();
+      }
+      JsonNode value = item.get("value");
+      KVDataType type = _getTypeForRequest(item, value);
+      return List.of(new KVMutation(item.get("key").asText(), value, type, true));
+    } catch (JsonProcessingException | KvstoreException ex) {
+      progress.skip();
+      return List.of();
+    }
+  }
+
+  /**
+   * Helper function to run an import and close its source at the end
+   * @param db_name the database
+   * @param table_name the table
+   * @param rows the rows
+   * @param progress the progress of the import
+   * @param bypass_cache true to keep the imported keys out of the cache
+   * @param source the source of the rows
+   * @return the response of the import
+   */
+  private Uni<KVResponse> _import(
+      String db_name,
+      String table_name,
+      Multi<KVMutation> rows,
+      KVImporter.Progress progress,
+      boolean bypass_cache,
+      Closeable source) {
+    return _withTable(
+            db_name,
+            table_name,
+            () -> kvimporter.importRows(db_name, table_name, rows, progress, bypass_cache))
+        .onTermination()
+        .invoke(
+            () -> {
+              try {
+                source.close();
+              } catch (IOException ignored) {
+                // nothing left to read
+              }
+            });
+  }
+
+  /**
+   * Helper function to get the name of an export file, it must not point outside the export
+   * directory
+   * @param jsonNode the request
+   * @return the file name
+   * @throws KvstoreException if the file name is missing or invalid
+   */
+  private String _getFileName(JsonNode jsonNode) throws KvstoreException {
+    if (!jsonNode.has("file") || !jsonNode.get("file").isTextual()) {
+      throw new KvstoreException(400, "Bad request, must provide a valid file name.");
+    }
+    String file = jsonNode.get("file").asText();
+    if (file.isEmpty() || file.startsWith(".") || file.contains("/") || file.contains("\\")) {
+      throw new KvstoreException(400, "Bad request, must provide a valid file name.");
+    }
+    return file;
+  }
+
+  /**
+   * Helper function to revalidate a stale-suspect cache entry. Scalar values are checked with a
+   * writetime-only query and only refetched if the writetime changed. Collections of a legacy table
+   * have no readable writetime and provisional entries no known one, they are always refetched.
+   * @param db_name the database
+   * @param table_name the table
+   * @param key the key
+   * @param entry the cache entry, its version is the writetime of the cached value
+   * @param value the cached value
+   * @param level the consistency level of the reads
+   * @return the response for the GET request
+   */
+  private Uni<KVResponse> _revalidate(
+      String db_name,
+      String table_name,
+      String key,
+      CacheEntry entry,
+      KVData value,
+      QueryOuterClass.Consistency level) {
+    long version = entry.getVersion();
+    if (entry.isProvisional() || !_hasWritetime(db_name, table_name, value.type)) {
+      return _refetch(db_name, table_name, key, version, level);
+    }
+    return kvcassandra
+        .getWritetime(db_name, table_name, key, level)
+        .chain(
+            probe -> {
+              if (probe.status_code == 200 && probe.writetime == version) {
+                // the same write, so the same expiry
+                kvcache.revalidate(
+                    key, db_name, table_name, version, null, version, CacheEntry.NO_EXPIRY);
+                KVResponse response = new KVResponse(value);
+                response.ttl = KVCache.remainingTtl(entry);
+                response.version = _version(version);
+                return _respond(response);
+              }
+              if (probe.status_code != 200) {
+                if (probe.status_code == 404) {
+                  // just newer than the entry that was read, a write that raced the probe wins
+                  kvcache.delete(key, db_name, table_name, version + 1);
+                }
+                return _respond(probe);
+              }
+              return _refetch(db_name, table_name, key, version, level);
+            });
+  }
+
+  /**
+   * Helper function to answer a failed read with a stale value while Cassandra is unavailable
+   * @param response the response of the read
+   * @param key the key
+   * @param db_name the database
+   * @param table_name the table
+   * @param entry the cache entry that was checked, null to look up an evicted value
+   * @return the response, or the stale value if the read failed with 503 and one is known
+   */
+  private KVResponse _orStale(
+      KVResponse response, String key, String db_name, String table_name, CacheEntry entry) {
+    if (response.status_code != 503) {
       return response;
-    } else {
-      return new KVResponse(200, "The key '" + kvPair.key + "' has a value of " + value);
     }
+    CacheEntry stale = entry != null ? entry : kvcache.getStale(key, db_name, table_name);
+    return stale == null ? response : _staleResponse(db_name, table_name, stale);
+  }
+
+  /**
+   * Helper function to build the response of a value that could not be checked against Cassandra
+   * @param db_name the database
+   * @param table_name the table
+   * @param entry the cached or evicted entry
+   * @return the response, marked with the age of the value
+   */
+  private KVResponse _staleResponse(String db_name, String table_name, CacheEntry entry) {
+    KVData value = kvcache.getValue(entry);
+    KVResponse response = new KVResponse(value);
+    response.ttl = KVCache.remainingTtl(entry);
+    response.version = _version(db_name, table_name, entry, value);
+    response.stale_ms = Math.max(0, System.currentTimeMillis() - entry.getValidatedAt());
+    return response;
+  }
+
+  /**
+   * Helper function to replace a changed cache entry with the current value from Cassandra
+   * @param db_name the database
+   * @param table_name the table
+   * @param key the key
+   * @param version the version (writetime) of the cached value
+   * @param level the consistency level of the read
+   * @return the response for the GET request
+   */
+  private Uni<KVResponse> _refetch(
+      String db_name,
+      String table_name,
+      String key,
+      long version,
+      QueryOuterClass.Consistency level) {
+    long started_at = System.currentTimeMillis();
+    return kvcassandra
+        .getVal(db_name, table_name, key, level)
+        .invoke(
+            response -> {
+              if (response.status_code == 200) {
+                long new_version = response.writetime < 0 ? version : response.writetime;
+                kvcache.revalidate(
+                    key,
+                    db_name,
+                    table_name,
+                    version,
+                    response.body,
+                    new_version,
+                    KVCache.expiresAt(started_at, response.ttl));
+                response.version = _version(response.writetime);
+              } else if (response.status_code == 404) {
+                // just newer than the entry that was read, a write that raced the read wins
+                kvcache.delete(key, db_name, table_name, version + 1);
+              }
+            });
+  }
+
+  /**
+   * Helper function to make a request once the schema catalog has looked up its table, so that the
+   * layout of the table is known to the request
+   * @param db_name the database
+   * @param table_name the table
+   * @param call the request
+   * @return the response of the request
+   */
+  private Uni<KVResponse> _withTable(
+      String db_name, String table_name, Supplier<Uni<KVResponse>> call) {
+    return catalog.checkTable(db_name, table_name).chain(checked -> call.get());
+  }
+
+  /**
+   * Helper function to answer a request without calling Cassandra
+   * @param response the response
+   * @return a Uni completed with the response
+   */
+  private Uni<KVResponse> _respond(KVResponse response) {
+    return Uni.createFrom().item(response);
+  }
+
+  /**
+   * Helper function to get the version a GET reports for a cache or Cassandra version
+   * @param version the version of a cache entry or the writetime of a read
+   * @return the version, null if it is unknown
+   */
+  private Long _version(long version) {
+    return version > KVCache.FILL_VERSION ? version : null;
+  }
+
+  /**
+   * Helper function to get the version a GET reports for a cache entry. Only a writetime Cassandra
+   * can read back is a version, conditional writes compare against it
+   * @param db_name the database
+   * @param table_name the table
+   * @param entry the cache entry
+   * @param value the cached value
+   * @return the version, null if it is unknown, provisional or the value has no readable writetime
+   */
+  private Long _version(String db_name, String table_name, CacheEntry entry, KVData value) {
+    if (entry.isProvisional() || !_hasWritetime(db_name, table_name, value.type)) {
+      return null;
+    }
+    return _version(entry.getVersion());
+  }
+
+  /**
+   * Helper function to check whether Cassandra can read the writetime of a value, it does not allow
+   * writetime() on the list and set columns of a legacy table
+   * @param db_name the database
+   * @param table_name the table
+   * @param type the type of the value
+   * @return true if the value has a readable writetime
+   */
+  private boolean _hasWritetime(String db_name, String table_name, KVDataType type) {
+    return catalog.layout(db_name, table_name).hasWritetime(type);
+  }
+
+  /**
+   * Helper function to overwrite or delete the value of a key with a single conditional write, if it
+   * holds the expected version or value. A version is checked against the cached entry, or else
+   * read from Cassandra, and turned into the value the conditional write expects. Cassandra cannot
+   * put a condition on a writetime, so the write itself only checks that value: if the key changed
+   * away from it and back (A to B to A) after the version was checked, the write is applied although
+   * the version changed.
+   * @param db_name the database
+   * @param table_name the table
+   * @param key the key
+   * @param value the new value, null to delete the key
+   * @param expected_version the version the key must hold, see GET, null if expected_value is set
+   * @param expected_value the value the key must hold, null if expected_version is set
+   * @param expected_type the type of expected_value, null to infer it
+   * @param level the consistency level of the write, also used by a read of the version
+   * @return the response of the write, 409 with the current value if the key changed, 400 if the
+   *     value has no version
+   * @throws KvstoreException if the expectation is invalid
+   */
+  private Uni<KVResponse> _writeIfExpected(
+      String db_name,
+      String table_name,
+      String key,
+      KVData value,
+      Long expected_version,
+      JsonNode expected_value,
+      String expected_type,
+      QueryOuterClass.Consistency level)
+      throws KvstoreException {
+    if ((expected_version == null) == (expected_value == null)) {
+      throw new KvstoreException(
+          400, "Bad request, must provide exactly one of expected_version and expected_value.");
+    }
+    if (expected_value != null) {
+      ObjectNode typed = objectMapper.createObjectNode();
+      if (expected_type != null) {
+        typed.put("type", expected_type);
+      }
+      KVData expected =
+          KVData.fromJson(expected_value, _getTypeForRequest(typed, expected_value));
+      return _withTable(
+          db_name,
+          table_name,
+          () -> _compareAndSet(db_name, table_name, key, value, expected, level));
+    }
+    long version = expected_version;
+    // the cached value has a version only if the layout of the table is known
+    return _withTable(
+        db_name,
+        table_name,
+        () -> _writeIfVersion(db_name, table_name, key, value, version, level));
   }
 
   /**
-   * Updates the current key-value pair in a specified table.
+   * Helper function to make the conditional write of _writeIfExpected for an expected version
+   * @param db_name the database
+   * @param table_name the table
+   * @param key the key
+   * @param value the new value, null to delete the key
+   * @param version the version the key must hold
+   * @param level the consistency level of the write, also used by a read of the version
+   * @return the response of the write, 409 with the current value if the key changed, 400 if the
+   *     value has no version
+   */
+  private Uni<KVResponse> _writeIfVersion(
+      String db_name,
+      String table_name,
+      String key,
+      KVData value,
+      long version,
+      QueryOuterClass.Consistency level) {
+    CacheEntry entry = kvcache.getEntry(key, db_name, table_name);
+    // a provisional entry is stale-suspect, its version is not a writetime
+    if (entry != null && !kvcache.isStaleSuspect(entry)) {
+      KVData cached = kvcache.getValue(entry);
+      if (!_hasWritetime(db_name, table_name, cached.type)) {
+        return _respond(_unversioned(key));
+      }
+      if (entry.getVersion() == version) {
+        // most attempts: the version came from this cache, no read needed
+        return _compareAndSet(db_name, table_name, key, value, cached, level);
+      }
+      if (entry.getVersion() > version) {
+        // a newer write is cached, the condition cannot hold
+        KVResponse conflict =
+            new KVResponse(409, "The key '" + key + "' does not hold the expected version.");
+        conflict.body = cached;
+        conflict.version = _version(db_name, table_name, entry, cached);
+        return _respond(conflict);
+      }
+    }
+    // the version is not cached, or newer than the cached one: read it from Cassandra
+    long started_at = System.currentTimeMillis();
+    return kvcassandra
+        .getVal(db_name, table_name, key, level)
+        .chain(
+            current -> {
+              if (current.status_code != 200) {
+                return _respond(current);
+              }
+              kvcache.fill(
+                  key,
+                  current.body,
+                  db_name,
+                  table_name,
+                  current.writetime,
+                  KVCache.expiresAt(started_at, current.ttl));
+              if (current.writetime < 0) {
+                return _respond(_unversioned(key));
+              }
+              if (current.writetime != version) {
+                KVResponse conflict =
+                    new KVResponse(409, "The key '" + key + "' does not hold the expected version.");
+                conflict.body = current.body;
+                conflict.version = _version(current.writetime);
+                return _respond(conflict);
+              }
+              return _compareAndSet(db_name, table_name, key, value, current.body, level);
+            });
+  }
+
+  /**
+   * Helper function to reject an expected version for a value that has none
+   * @param key the key
+   * @return the 400 response
+   */
+  private KVResponse _unversioned(String key) {
+    return new KVResponse(
+        400,
+        "Bad request, the value of the key '"
+            + key
+            + "' is a list or set of a legacy table and has no version, use expected_value.");
+  }
+
+  /**
+   * Helper function to make the conditional write of _writeIfExpected and update the cache
+   * @param db_name the database
+   * @param table_name the table
+   * @param key the key
+   * @param value the new value, null to delete the key
+   * @param expected the value the key must hold
+   * @param level the consistency level of the write
+   * @return the response of the write
+   */
+  private Uni<KVResponse> _compareAndSet(
+      String db_name,
+      String table_name,
+      String key,
+      KVData value,
+      KVData expected,
+      QueryOuterClass.Consistency level) {
+    // the conditional write gets its timestamp from Cassandra, the clock value only orders it
+    long version = clock.next();
+    return kvcassandra
+        .compareAndSet(db_name, table_name, key, value, expected, level)
+        .invoke(
+            response -> {
+              if (response.status_code == 200 && value == null) {
+                kvcache.delete(key, db_name, table_name, version);
+              } else if (response.status_code == 200) {
+                // the next read reports the version Cassandra assigned
+                kvcache.putConditional(
+                    key, value, db_name, table_name, version, CacheEntry.NO_EXPIRY);
+              } else if (response.status_code == 409) {
+                // the cached value is outdated, the next read fetches it with its version
+                kvcache.invalidateAll(List.of(key), db_name, table_name, version);
+              }
+            });
+  }
+
+  /**
+   * Updates the current key-value pair in a specified table. With "op" (append, prepend, add or
+   * remove) only the elements in "value" are added to or removed from a list or set value. The
+   * value expires after the optional "ttl" in seconds, without it the value never expires. With
+   * "expected_version" (see GET) or "expected_value" the update is a single conditional write that
+   * answers 409 with the current value if the key holds another one.
    *
    * @param db_name The name of the database.
    * @param table_name The name of the table.
    * @param json_body JSON string containing the key-value pair to be updated.
-   * @return KVResponse indicating the result of the update operation.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @return Uni of the KVResponse indicating the result of the update operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    * @throws JsonMappingException If there's an error in mapping the JSON input.
    * @throws JsonProcessingException If there's an error in processing the JSON input.
@@ -387,9 +1459,10 @@ public class KeyValueResource {
   @Path("{db_name}/{table_name}")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse updateKeyVal(
+  public Uni<KVResponse> updateKeyVal(
       @PathParam("db_name") String db_name,
       @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
       String json_body)
       throws KvstoreException, JsonMappingException, JsonProcessingException {
 	  if (db_name == null
@@ -406,16 +1479,289 @@ public class KeyValueResource {
 	    }
 	    String key = jsonNode.get("key").asText();
 	    JsonNode value = jsonNode.get("value");
+    boolean conditional = jsonNode.has("expected_version") || jsonNode.has("expected_value");
+    if (jsonNode.has("op")) {
+      if (jsonNode.has("ttl") || conditional) {
+        throw new KvstoreException(
+            400, "Bad request, op cannot be combined with ttl or an expected version or value.");
+      }
+      return _updateCollection(db_name, table_name, consistency, jsonNode, key, value);
+    }
 
 	   
 	    KVDataType type = _getTypeForRequest(jsonNode, value);
+    int ttl = _getTtl(jsonNode);
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
+    if (conditional) {
+      if (ttl > 0) {
+        throw new KvstoreException(
+            400, "Bad request, an expected version or value cannot be combined with ttl.");
+      }
+      JsonNode expected_version = jsonNode.get("expected_version");
+      if (expected_version != null && !expected_version.isIntegralNumber()) {
+        throw new KvstoreException(400, "Bad request, expected_version must be a number.");
+      }
+      return _writeIfExpected(
+          db_name,
+          table_name,
+          key,
+          KVData.fromJson(value, type),
+          expected_version == null ? null : expected_version.asLong(),
+          jsonNode.get("expected_value"),
+          jsonNode.has("expected_type") ? jsonNode.get("expected_type").asText() : null,
+          level);
+    }
 
-    // first update to cassandra to achieve consistency
-    KVResponse response = kvcassandra.updateVal(db_name, table_name, key, value, type);
-    if (response.status_code == 200) {
-      kvcache.put(key, value, db_name, table_name, type);
+    // first update to cassandra to achieve consistency, the cache keeps the newest write
+    long version = clock.next();
+    long expires_at = KVCache.expiresAt(System.currentTimeMillis(), ttl);
+    return _withTable(
+        db_name,
+        table_name,
+        () -> {
+          KVResponse invalid = _ttlError(ttl, type, db_name, table_name);
+          if (invalid != null) {
+            return _respond(invalid);
+          }
+          return kvcassandra
+              .updateVal(db_name, table_name, key, value, type, version, ttl, level)
+              .invoke(
+                  response -> {
+                    if (response.status_code == 200) {
+                      kvcache.put(
+                          key, KVData.fromJson(value, type), db_name, table_name, version, expires_at);
+                    }
+                  });
+        });
+  }
+
+  /**
+   * Helper function to add elements to or remove them from a list or set value
+   * @param db_name the database
+   * @param table_name the table
+   * @param consistency the consistency level of the request, null for the level of the table
+   * @param jsonNode the request
+   * @param key the key
+   * @param value the elements, an array or a single element
+   * @return the response of the update
+   */
+  private Uni<KVResponse> _updateCollection(
+      String db_name,
+      String table_name,
+      String consistency,
+      JsonNode jsonNode,
+      String key,
+      JsonNode value)
+      throws KvstoreException {
+    KVCollectionOp op = KVCollectionOp.get(jsonNode.get("op").asText().toLowerCase());
+    if (op == null) {
+      throw new KvstoreException(
+          400, "Bad request, op must be one of append, prepend, add and remove.");
     }
-    return response;
+    JsonNode elements = value.isArray() ? value : objectMapper.createArrayNode().add(value);
+    if (elements.size() == 0) {
+      throw new KvstoreException(400, "Bad request, must provide at least one element.");
+    }
+    KVDataType type = _getTypeForRequest(jsonNode, elements);
+    if (!jsonNode.has("type") && op == KVCollectionOp.ADD) {
+      // the elements alone look like a list
+      type = KVDataType.get(type.label.replace("list", "set"));
+    }
+    if (!op.appliesTo(type)) {
+      throw new KvstoreException(
+          400, "Bad request, " + op.label + " does not apply to values of type " + type.label + ".");
+    }
+    KVDataType collection_type = type;
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
+
+    // the cached value is mutated on a copy, it may be shared with other keys
+    CacheEntry entry = kvcache.getEntry(key, db_name, table_name);
+    KVData cached = entry == null ? null : kvcache.getValue(entry);
+    KVData delta = KVData.fromJson(elements, collection_type);
+    long version = clock.next();
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .updateCollection(
+                    db_name,
+                    table_name,
+                    key,
+                    op,
+                    elements,
+                    collection_type,
+                    cached,
+                    incrementMaxAttempts,
+                    version,
+                    level)
+                .invoke(
+                    response -> {
+                      if (response.status_code != 200) {
+                        return;
+                      }
+                      KVData updated;
+                      if (catalog.layout(db_name, table_name) == KVTableLayout.COMPACT) {
+                        // the value written, null if the key does not exist
+                        updated = response.body;
+                        if (updated != null && !updated.isEmptyCollection()) {
+                          // written with a conditional update, see _compareAndSet
+                          kvcache.putConditional(
+                              key, updated, db_name, table_name, version, CacheEntry.NO_EXPIRY);
+                          return;
+                        }
+                      } else if (entry != null && !kvcache.isStaleSuspect(entry)) {
+                        updated = op.apply(cached, delta);
+                        // a value left unchanged keeps its ttl, a written one has none
+                        long expires_at =
+                            updated == cached ? entry.getExpiresAt() : CacheEntry.NO_EXPIRY;
+                        if (updated != null
+                            && !updated.isEmptyCollection()
+                            && kvcache.revalidate(
+                                key,
+                                db_name,
+                                table_name,
+                                entry.getVersion(),
+                                updated,
+                                version,
+                                expires_at)) {
+                          return;
+                        }
+                      }
+                      // an emptied collection is no value, or the entry changed meanwhile
+                      kvcache.invalidateAll(List.of(key), db_name, table_name, version);
+                    }));
+  }
+
+  /**
+   * Atomically adds a delta to the int or double value of a key, a missing key is created with the
+   * delta. The cached value is used as the expected current value, so a hot counter costs a single
+   * conditional update.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @param json_body JSON string with the key, the optional delta (default 1) and the optional type
+   *     of a new key (int or double, default from the delta).
+   * @return Uni of the KVResponse with the new value.
+   * @throws KvstoreException If the request is not a valid increment.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/increment")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> incrementKeyVal(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    return _increment(db_name, table_name, consistency, json_body, false);
+  }
+
+  /**
+   * Atomically subtracts a delta from the int or double value of a key, see incrementKeyVal.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @param json_body JSON string with the key, the optional delta (default 1) and the optional type
+   *     of a new key.
+   * @return Uni of the KVResponse with the new value.
+   * @throws KvstoreException If the request is not a valid decrement.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/decrement")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> decrementKeyVal(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    return _increment(db_name, table_name, consistency, json_body, true);
+  }
+
+  /**
+   * Helper function to run an increment or decrement
+   * @param db_name the database
+   * @param table_name the table
+   * @param consistency the consistency level of the request, null for the level of the table
+   * @param json_body the request
+   * @param negate true to subtract the delta
+   * @return the response with the new value
+   */
+  private Uni<KVResponse> _increment(
+      String db_name, String table_name, String consistency, String json_body, boolean negate)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and key.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    if (!jsonNode.has("key")) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and key.");
+    }
+    String key = jsonNode.get("key").asText();
+    JsonNode delta = jsonNode.has("delta") ? jsonNode.get("delta") : LongNode.valueOf(1);
+    if (!delta.isNumber()) {
+      throw new KvstoreException(400, "Bad request, delta must be a number.");
+    }
+    if (negate) {
+      delta =
+          delta.isIntegralNumber()
+              ? LongNode.valueOf(-delta.asLong())
+              : DoubleNode.valueOf(-delta.asDouble());
+    }
+    // the type of a key that does not exist yet
+    KVDataType type =
+        delta.isIntegralNumber() && delta.canConvertToInt() ? KVDataType.INT : KVDataType.DOUBLE;
+    if (jsonNode.has("type")) {
+      type = KVDataType.get(jsonNode.get("type").asText().toLowerCase().trim());
+      if (type != KVDataType.INT && type != KVDataType.DOUBLE) {
+        throw new KvstoreException(400, "Bad request, the type of a counter must be int or double.");
+      }
+      if (type == KVDataType.INT && !(delta.isIntegralNumber() && delta.canConvertToInt())) {
+        throw new KvstoreException(400, "Bad request, delta must be an int.");
+      }
+    }
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
+
+    // the cached value saves the read, the conditional update catches it if it is outdated
+    KVData cached = kvcache.get(key, db_name, table_name);
+    KVData expected =
+        cached != null && (cached.type == KVDataType.INT || cached.type == KVDataType.DOUBLE)
+            ? cached
+            : null;
+    JsonNode amount = delta;
+    KVDataType new_type = type;
+    long version = clock.next();
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .increment(
+                    db_name,
+                    table_name,
+                    key,
+                    amount,
+                    new_type,
+                    expected,
+                    incrementMaxAttempts,
+                    level)
+                .invoke(
+                    response -> {
+                      if (response.status_code == 200) {
+                        // the conditional update gets its timestamp from Cassandra
+                        kvcache.putConditional(
+                            key, response.body, db_name, table_name, version, CacheEntry.NO_EXPIRY);
+                      }
+                    }));
   }
 
   /**
@@ -423,42 +1769,299 @@ public class KeyValueResource {
    *
    * @param db_name The name of the database.
    * @param table_name The name of the table.
-   * @param kvPair The key-value pair object containing the key to be deleted.
-   * @return KVResponse indicating the result of the delete operation.
+   * @param fire_and_forget True to return without waiting for the delete and without checking
+   *     whether the key exists.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @param kvPair The key-value pair object containing the key to be deleted, and optionally the
+   *     expected_version or expected_value it must hold to be deleted.
+   * @return Uni of the KVResponse indicating the result of the delete operation, 409 with the
+   *     current value if the key does not hold the expected version or value.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @DELETE
   @Path("{db_name}/{table_name}/key")
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse deleteKey(
+  public Uni<KVResponse> deleteKey(
       @PathParam("db_name") String db_name,
       @PathParam("table_name") String table_name,
+      @QueryParam("fire_and_forget") boolean fire_and_forget,
+      @QueryParam("consistency") String consistency,
       KeyValPair kvPair)
       throws KvstoreException {
     if (db_name == null
         || table_name == null
         || kvPair == null
         || kvPair.key == null) {
-      return new KVResponse(
-          400, "Bad request, must provide valid database, table name and key value pair.");
+      return _respond(
+          new KVResponse(
+              400, "Bad request, must provide valid database, table name and key value pair."));
+    }
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
+    if (kvPair.expected_version != null || kvPair.expected_value != null) {
+      if (fire_and_forget) {
+        throw new KvstoreException(
+            400, "Bad request, a conditional delete cannot be fire and forget.");
+      }
+      return _writeIfExpected(
+          db_name,
+          table_name,
+          kvPair.key,
+          null,
+          kvPair.expected_version,
+          kvPair.expected_value,
+          kvPair.expected_type,
+          level);
+    }
+    long version = clock.next();
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .deleteKey(db_name, table_name, kvPair.key, version, fire_and_forget, level)
+                // invalidate whatever the outcome, a tombstone also keeps older writes and fills still in
+                // flight from bringing the key back
+                .invoke(response -> kvcache.delete(kvPair.key, db_name, table_name, version)));
+  }
+
+  /**
+   * Deletes many keys from a specified table with one request.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param skip_existence_check True to delete with unlogged batches without checking whether the
+   *     keys exist, every key is then answered with 200.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @param json_body JSON string with the array of keys as "keys".
+   * @return Uni of the KVResponse with the response of each key in results, in request order.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @DELETE
+  @Path("{db_name}/{table_name}/keys")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> batchDelete(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("skip_existence_check") boolean skip_existence_check,
+      @QueryParam("consistency") String consistency,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and keys.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    if (!jsonNode.has("keys") || !jsonNode.get("keys").isArray()) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and keys.");
+    }
+    ArrayNode items = (ArrayNode) jsonNode.get("keys");
+    if (items.size() > batchMaxMutations) {
+      return _respond(
+          new KVResponse(400, "Bad request, a batch holds at most " + batchMaxMutations + " keys."));
     }
-    KVResponse response = kvcassandra.deleteKey(db_name, table_name, kvPair.key);
-    if (response.status_code==200) {
-      JsonNode value = kvcache.get(kvPair.key, db_name, table_name);
-      if (value != null) {
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
 
-        kvcache.delete(kvPair.key, db_name, table_name);
+    KVResponse[] results = new KVResponse[items.size()];
+    List<Integer> indices = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < items.size(); i++) {
+      String key = items.get(i).asText();
+      if (!seen.add(key)) {
+        results[i] =
+            new KVResponse(400, "Bad request, the key '" + key + "' occurs more than once.");
+        results[i].key = key;
+        continue;
       }
+      indices.add(i);
+      keys.add(key);
     }
-    
-    return response;
+
+    long version = clock.next();
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .batchDelete(
+                    db_name,
+                    table_name,
+                    keys,
+                    version,
+                    !skip_existence_check,
+                    batchGroupSize,
+                    batchParallelism,
+                    level)
+                .map(
+                    responses -> {
+                      // invalidate whatever the outcome, see deleteKey; keys found missing only drop
+                      // a cached value, so they do not crowd the tombstones of real deletes out
+                      List<String> invalidated = new ArrayList<>();
+                      List<String> missing = new ArrayList<>();
+                      int deleted = 0;
+                      for (int i = 0; i < responses.size(); i++) {
+                        KVResponse response = responses.get(i);
+                        response.key = keys.get(i);
+                        results[indices.get(i)] = response;
+                        if (response.status_code == 200) {
+                          deleted++;
+                        }
+                        if (response.status_code == 404) {
+                          missing.add(keys.get(i));
+                        } else {
+                          invalidated.add(keys.get(i));
+                        }
+                      }
+                      kvcache.deleteAll(invalidated, db_name, table_name, version);
+                      kvcache.invalidateAll(missing, db_name, table_name, version);
+                      KVResponse result =
+                          new KVResponse(200, deleted + " of " + results.length + " keys have been deleted.");
+                      result.results = List.of(results);
+                      return result;
+                    }));
+  }
+
+  /**
+   * Writes many key-value pairs into a specified table with one request. Each mutation is an object
+   * with key, value, optional type (same rules as PUT) and optional op ("put" or "patch", default
+   * "put"). Invalid mutations are answered with 400 and the others are still written.
+   *
+   * @param db_name The name of the database.
+   * @param table_name The name of the table.
+   * @param consistency The consistency level of the request, missing for the level of the table.
+   * @param json_body JSON string with the array of mutations as "mutations".
+   * @return Uni of the KVResponse with the response of each mutation in results, in request order.
+   * @throws KvstoreException If there's an issue in the key-value store operation.
+   * @throws JsonProcessingException If there's an error in processing the JSON input.
+   */
+  @POST
+  @Path("{db_name}/{table_name}/batch")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Uni<KVResponse> batchWrite(
+      @PathParam("db_name") String db_name,
+      @PathParam("table_name") String table_name,
+      @QueryParam("consistency") String consistency,
+      String json_body)
+      throws KvstoreException, JsonProcessingException {
+    if (db_name == null || table_name == null || json_body == null) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and mutations.");
+    }
+    JsonNode jsonNode = objectMapper.readTree(json_body);
+    if (!jsonNode.has("mutations") || !jsonNode.get("mutations").isArray()) {
+      throw new KvstoreException(
+          400, "Bad request, must provide valid database, table name and mutations.");
+    }
+    ArrayNode items = (ArrayNode) jsonNode.get("mutations");
+    if (items.size() > batchMaxMutations) {
+      return _respond(
+          new KVResponse(
+              400, "Bad request, a batch holds at most " + batchMaxMutations + " mutations."));
+    }
+    QueryOuterClass.Consistency level = kvconsistency.write(db_name, table_name, consistency);
+
+    // validate each mutation, the valid ones are written and the others answered with 400
+    KVResponse[] results = new KVResponse[items.size()];
+    List<Integer> indices = new ArrayList<>();
+    List<KVMutation> mutations = new ArrayList<>();
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < items.size(); i++) {
+      try {
+        mutations.add(_getMutation(items.get(i), keys));
+        indices.add(i);
+      } catch (KvstoreException ex) {
+        results[i] = new KVResponse(ex.error_code, ex.error_message);
+        results[i].key = items.get(i).has("key") ? items.get(i).get("key").asText() : null;
+      }
+    }
+
+    // one timestamp for the whole request, each key occurs at most once
+    long version = clock.next();
+    boolean blind_upsert = _isBlindUpsert(db_name, table_name);
+    return _withTable(
+        db_name,
+        table_name,
+        () ->
+            kvcassandra
+                .batchWrite(
+                    db_name,
+                    table_name,
+                    mutations,
+                    version,
+                    blind_upsert,
+                    batchGroupSize,
+                    batchParallelism,
+                    level)
+                .map(
+                    responses -> {
+                      List<String> written_keys = new ArrayList<>();
+                      List<KVData> written_values = new ArrayList<>();
+                      List<String> inserted_keys = new ArrayList<>();
+                      List<KVData> inserted_values = new ArrayList<>();
+                      int applied = 0;
+                      for (int i = 0; i < responses.size(); i++) {
+                        KVMutation mutation = mutations.get(i);
+                        KVResponse response = responses.get(i);
+                        response.key = mutation.key;
+                        results[indices.get(i)] = response;
+                        if (response.status_code == 201 && !blind_upsert) {
+                          // a conditional insert gets its timestamp from Cassandra
+                          inserted_keys.add(mutation.key);
+                          inserted_values.add(KVData.fromJson(mutation.value, mutation.type));
+                          applied++;
+                        } else if (response.status_code == 200 || response.status_code == 201) {
+                          written_keys.add(mutation.key);
+                          written_values.add(KVData.fromJson(mutation.value, mutation.type));
+                          applied++;
+                        }
+                        // the existing value of a 409 is not cached, its ttl is unknown
+                      }
+                      // update the cache once for all written keys
+                      kvcache.putAll(written_keys, written_values, db_name, table_name, version);
+                      kvcache.putAll(
+                          inserted_keys, inserted_values, db_name, table_name, version, true);
+
+                      KVResponse result =
+                          new KVResponse(
+                              200, applied + " of " + results.length + " mutations have been applied.");
+                      result.results = List.of(results);
+                      return result;
+                    }));
+  }
+
+  /**
+   * Helper function to validate one mutation of a batch request
+   * @param item the mutation
+   * @param keys the keys of the mutations validated so far, the key of item is added
+   * @return the mutation
+   * @throws KvstoreException if the mutation is invalid or its key occurs twice
+   */
+  private KVMutation _getMutation(JsonNode item, Set<String> keys) throws KvstoreException {
+    if (!item.isObject() || !item.has("key") || !item.has("value")) {
+      throw new KvstoreException(400, "Bad request, must provide valid key value pair.");
+    }
+    String op = item.has("op") ? item.get("op").asText().toLowerCase() : "put";
+    if (!op.equals("put") && !op.equals("patch")) {
+      throw new KvstoreException(400, "Bad request, op must be put or patch.");
+    }
+    String key = item.get("key").asText();
+    JsonNode value = item.get("value");
+    KVDataType type = _getTypeForRequest(item, value);
+    if (!keys.add(key)) {
+      throw new KvstoreException(400, "Bad request, the key '" + key + "' occurs more than once.");
+    }
+    return new KVMutation(key, value, type, op.equals("patch"));
   }
 
   /**
    * Resets the cache based on the provided JSON input specifying cache configuration.
    *
    * @param json_body JSON string containing cache configuration parameters.
-   * @return KVResponse indicating the result of the cache reset operation.
+   * @return Uni of the KVResponse indicating the result of the cache reset operation.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    * @throws JsonProcessingException If there's an error in processing the JSON input.
    */
@@ -466,26 +2069,32 @@ public class KeyValueResource {
   @Path("resetcache")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes(MediaType.APPLICATION_JSON)
-  public KVResponse resetCache(String json_body)
+  public Uni<KVResponse> resetCache(String json_body)
       throws KvstoreException, JsonProcessingException {
     JsonNode jsonNode = objectMapper.readTree(json_body);
     int max_size;
     String eviction_policy;
+    Boolean deduplication = null;
 
     // validate max_size and eviction_policy
     try {
       max_size = jsonNode.get("max_size").asInt();
       eviction_policy = jsonNode.get("eviction_policy").asText();
     } catch (Exception ex) {
-      return new KVResponse(
-          400, "Bad request, must provide valid max_size and eviction_policy.");
+      return _respond(new KVResponse(400, "Bad request, must provide valid max_size and eviction_policy."));
+    }
+    // deduplication is optional, missing means unchanged
+    if (jsonNode.has("deduplication")) {
+      if (!jsonNode.get("deduplication").isBoolean()) {
+        return _respond(new KVResponse(400, "Bad request, deduplication must be true or false."));
+      }
+      deduplication = jsonNode.get("deduplication").asBoolean();
     }
     if (max_size == 0 || max_size < -1) {
-      return new KVResponse(400, "Bad request, max_size must be a positive integer.");
+      return _respond(new KVResponse(400, "Bad request, max_size must be a positive integer."));
     }
     if (!eviction_policy.equals("FIFO") && !eviction_policy.equals("RANDOM") && !eviction_policy.equals("NONE") && !eviction_policy.equals("LRU") && !eviction_policy.equals("NOCHANGE")) {
-      return new KVResponse(
-          400, "Bad request, eviction_policy must be FIFO or RANDOM or NONE.");
+      return _respond(new KVResponse(400, "Bad request, eviction_policy must be FIFO or RANDOM or NONE."));
     }
 
     // translate eviction_policy to EvictionPolicy
@@ -501,22 +2110,23 @@ public class KeyValueResource {
     } else {
       policy = null;
     }
-    kvcache.resetCache(max_size, policy);
-    return new KVResponse(200, "Cache reset successfully. Cache status: " + kvcache.getCacheInfo());
+    kvcache.resetCache(max_size, policy, deduplication);
+    return _respond(
+        new KVResponse(200, "Cache reset successfully. Cache status: " + kvcache.getCacheInfo()));
   }
 
   /**
    * Retrieves the current status of the cache.
    *
-   * @return KVResponse containing the current cache status.
+   * @return Uni of the KVResponse containing the current cache status.
    * @throws KvstoreException If there's an issue in the key-value store operation.
    */
   @GET
   @Path("getcachestatus")
   @Produces(MediaType.APPLICATION_JSON)
-  public KVResponse getCacheStatus() throws KvstoreException {
+  public Uni<KVResponse> getCacheStatus() throws KvstoreException {
     String response = kvcache.getCacheInfo();
-    return new KVResponse(200, response);
+    return _respond(new KVResponse(200, response));
   }
 
 }
@@ -0,0 +1,135 @@
+package org.stargate.rest.json.Cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.stargate.rest.json.KVData;
+import org.stargate.rest.json.KVDataType;
+
+class CacheVersionOrderingTest {
+  /** The operations the ordering tests need, implemented by each eviction policy. */
+  private interface Cache {
+    boolean put(String key, CacheValue value, long version, boolean provisional);
+
+    boolean delete(String key, long version);
+
+    CacheEntry get(String key);
+  }
+
+  private static Cache fifo(int maxSlots) {
+    FIFOCache cache = new FIFOCache(maxSlots);
+    return new Cache() {
+      public boolean put(String key, CacheValue value, long version, boolean provisional) {
+        return cache.put(
+            key, value, "ks", "t", KVDataType.INT, version, CacheEntry.NO_EXPIRY, provisional);
+      }
+
+      public boolean delete(String key, long version) {
+        return cache.delete(key, "ks", "t", version);
+      }
+
+      public CacheEntry get(String key) {
+        return cache.get(key, "ks", "t");
+      }
+    };
+  }
+
+  private static Cache lru(int maxSlots) {
+    LRUCache cache = new LRUCache(maxSlots);
+    return new Cache() {
+      public boolean put(String key, CacheValue value, long version, boolean provisional) {
+        return cache.put(
+            key, value, "ks", "t", KVDataType.INT, version, CacheEntry.NO_EXPIRY, provisional);
+      }
+
+      public boolean delete(String key, long version) {
+        return cache.delete(key, "ks", "t", version);
+      }
+
+      public CacheEntry get(String key) {
+        return cache.get(key, "ks", "t");
+      }
+    };
+  }
+
+  private static Cache random(int maxSize) {
+    RandomCache cache = new RandomCache(maxSize);
+    return new Cache() {
+      public boolean put(String key, CacheValue value, long version, boolean provisional) {
+        return cache.put(key, value, "ks", "t", version, CacheEntry.NO_EXPIRY, provisional);
+      }
+
+      public boolean delete(String key, long version) {
+        return cache.delete(key, "ks", "t", version);
+      }
+
+      public CacheEntry get(String key) {
+        return cache.get(key, "ks", "t");
+      }
+    };
+  }
+
+  private static Cache[] caches(int maxSize) {
+    return new Cache[] {fifo(maxSize), lru(maxSize), random(maxSize)};
+  }
+
+  private static CacheValue number(int number) {
+    KVData data = new KVData(KVDataType.INT);
+    data.value_int = number;
+    return CacheValue.plain(data);
+  }
+
+  @Test
+  void olderFillDoesNotOverwriteNewerWrite() {
+    for (Cache cache : caches(4)) {
+      assertTrue(cache.put("a", number(2), 20, false));
+      assertFalse(cache.put("a", number(1), 10, false));
+      assertFalse(cache.put("a", number(1), 20, false));
+      CacheEntry entry = cache.get("a");
+      assertEquals(20, entry.getVersion());
+      assertEquals(number(2), entry.getValue());
+      assertTrue(cache.put("a", number(3), 30, false));
+      assertEquals(number(3), cache.get("a").getValue());
+    }
+  }
+
+  @Test
+  void olderFillDoesNotOverwriteTombstone() {
+    for (Cache cache : caches(4)) {
+      cache.put("a", number(1), 10, false);
+      assertTrue(cache.delete("a", 20));
+      assertNull(cache.get("a"));
+      assertFalse(cache.put("a", number(1), 10, false));
+      assertNull(cache.get("a"));
+      // an older delete does not remove a newer write either
+      assertTrue(cache.put("a", number(2), 30, false));
+      assertFalse(cache.delete("a", 25));
+      assertEquals(number(2), cache.get("a").getValue());
+    }
+  }
+
+  @Test
+  void deleteOfUncachedKeyKeepsLiveEntries() {
+    for (Cache cache : caches(2)) {
+      cache.put("a", number(1), 10, false);
+      cache.put("b", number(2), 10, false);
+      assertFalse(cache.delete("c", 20));
+      assertNotNull(cache.get("a"));
+      assertNotNull(cache.get("b"));
+    }
+  }
+
+  @Test
+  void reportsProvisionalVersions() {
+    for (Cache cache : caches(4)) {
+      cache.put("a", number(1), 10, true);
+      assertTrue(cache.get("a").isProvisional());
+      cache.put("a", number(2), 20, false);
+      assertFalse(cache.get("a").isProvisional());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.stargate.rest.json.Cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stargate.rest.json.KVData;
+import org.stargate.rest.json.KVDataType;
+
+class ValuePoolTest {
+  private ValuePool pool;
+  private FIFOCache cache;
+
+  @BeforeEach
+  void setUp() {
+    pool = new ValuePool();
+    cache = new FIFOCache(2, pool);
+  }
+
+  private static CacheValue text(String text) {
+    KVData data = new KVData(KVDataType.TEXT);
+    data.value_text = text;
+    return CacheValue.plain(data);
+  }
+
+  /** Puts a value the way KVCache does, the slot takes over the reference of intern. */
+  private boolean put(String key, String text, long version) {
+    return cache.put(
+        key,
+        pool.intern(text(text)),
+        "ks",
+        "t",
+        KVDataType.TEXT,
+        version,
+        CacheEntry.NO_EXPIRY,
+        false);
+  }
+
+  private void assertPool(int references, int unique) {
+    String info = pool.getPoolInfo();
+    assertTrue(
+        info.endsWith("(" + references + " references, " + unique + " unique values)"), info);
+  }
+
+  @Test
+  void sharesEqualValues() {
+    assertTrue(put("a", "same", 1));
+    assertTrue(put("b", "same", 1));
+    assertPool(2, 1);
+    assertSame(cache.get("a", "ks", "t").getValue(), cache.get("b", "ks", "t").getValue());
+  }
+
+  @Test
+  void releasesOverwrittenValues() {
+    put("a", "old", 1);
+    put("a", "new", 2);
+    assertPool(1, 1);
+    // a rejected older write gives its reference back as well
+    assertFalse(put("a", "older", 1));
+    assertPool(1, 1);
+  }
+
+  @Test
+  void releasesDeletedValues() {
+    put("a", "value", 1);
+    assertTrue(cache.delete("a", "ks", "t", 2));
+    assertPool(0, 0);
+  }
+
+  @Test
+  void releasesEvictedValues() {
+    put("a", "first", 1);
+    put("b", "second", 1);
+    put("c", "first", 1);
+    put("d", "third", 1);
+    // a and b were evicted, c and d are left
+    assertPool(2, 2);
+  }
+}
@@ -0,0 +1,55 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stargate.rest.json.Cache.CacheEntry;
+
+class KVCacheTest {
+  private KVCache cache;
+
+  @BeforeEach
+  void setUp() {
+    KVCompressor compressor = new KVCompressor();
+    compressor.threshold = -1;
+    compressor.registry = new SimpleMeterRegistry();
+    compressor.init();
+    cache = new KVCache();
+    cache.compressor = compressor;
+    cache.revalidateAfterMs = -1;
+    cache.staleSize = 0;
+    cache.init();
+  }
+
+  private static KVData number(int number) {
+    KVData data = new KVData(KVDataType.INT);
+    data.value_int = number;
+    return data;
+  }
+
+  @Test
+  void fillDoesNotResurrectDeletedUncachedKey() {
+    assertFalse(cache.delete("a", "ks", "t", 10));
+    assertFalse(cache.fill("a", number(1), "ks", "t", 5, CacheEntry.NO_EXPIRY));
+    assertNull(cache.get("a", "ks", "t"));
+    assertTrue(cache.fill("a", number(2), "ks", "t", 11, CacheEntry.NO_EXPIRY));
+    assertEquals(number(2), cache.get("a", "ks", "t"));
+  }
+
+  @Test
+  void conditionalWritesAreStaleSuspect() {
+    cache.put("a", number(1), "ks", "t", 10);
+    assertFalse(cache.isStaleSuspect(cache.getEntry("a", "ks", "t")));
+    cache.putConditional("a", number(2), "ks", "t", 20, CacheEntry.NO_EXPIRY);
+    CacheEntry entry = cache.getEntry("a", "ks", "t");
+    assertTrue(entry.isProvisional());
+    assertTrue(cache.isStaleSuspect(entry));
+    assertTrue(cache.revalidate("a", "ks", "t", 20, number(2), 25, CacheEntry.NO_EXPIRY));
+    assertFalse(cache.isStaleSuspect(cache.getEntry("a", "ks", "t")));
+  }
+}
@@ -0,0 +1,105 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.protobuf.ByteString;
+import io.stargate.bridge.proto.QueryOuterClass.Row;
+import io.stargate.bridge.proto.QueryOuterClass.Value;
+import io.stargate.sgv2.api.common.cql.builder.Column;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KVCassandraTest {
+  private KVCassandra cassandra;
+
+  @BeforeEach
+  void setUp() {
+    cassandra = new KVCassandra();
+    cassandra.catalog = new KVSchemaCatalog();
+  }
+
+  @Test
+  void selectsTheValueColumnsInTheOrderTheyAreRead() {
+    // rows of a legacy table are read by position, see valueIndices and scanIndices
+    String names = cassandra.columns.stream().map(Column::name).collect(Collectors.joining(", "));
+    assertTrue(
+        cassandra
+            .templates
+            .get("ks", "t", KVQueryTemplates.Operation.SELECT_VALUE, null)
+            .startsWith("SELECT " + names + ", writetime("));
+    assertEquals(
+        "SELECT key, " + names + " FROM \"ks\".\"t\"",
+        cassandra.templates.get("ks", "t", KVQueryTemplates.Operation.SCAN_VALUES, null));
+  }
+
+  @Test
+  void batchInsertOfAnotherTypeClearsTheOldColumn() {
+    KVMutation number = new KVMutation("a", IntNode.valueOf(1), KVDataType.INT, false);
+    KVMutation text = new KVMutation("a", TextNode.valueOf("one"), KVDataType.TEXT, false);
+    assertEquals(
+        "INSERT INTO \"ks\".\"t\" (key, value_text, value_int, value_double, value_list_int,"
+            + " value_list_text, value_list_double, value_set_int, value_set_text,"
+            + " value_set_double) VALUES (?, null, ?, null, null, null, null, null, null, null)",
+        cassandra._batchCql("ks", "t", number));
+    // the second write of the key leaves no value_int behind for reads to pick up
+    assertEquals(
+        "INSERT INTO \"ks\".\"t\" (key, value_text, value_int, value_double, value_list_int,"
+            + " value_list_text, value_list_double, value_set_int, value_set_text,"
+            + " value_set_double) VALUES (?, ?, null, null, null, null, null, null, null, null)",
+        cassandra._batchCql("ks", "t", text));
+  }
+
+  @Test
+  void batchUpdateClearsTheOtherColumns() {
+    KVMutation text = new KVMutation("a", TextNode.valueOf("one"), KVDataType.TEXT, true);
+    assertEquals(
+        "UPDATE \"ks\".\"t\" SET value_text = ?, value_int = null, value_double = null,"
+            + " value_list_int = null, value_list_text = null, value_list_double = null,"
+            + " value_set_int = null, value_set_text = null, value_set_double = null WHERE key = ?",
+        cassandra._batchCql("ks", "t", text));
+  }
+
+  @Test
+  void onlyUnknownSchemaErrorsInvalidateTheCatalog() {
+    assertTrue(KVCassandra._isUnknownSchema("INVALID_ARGUMENT: Keyspace 'ks' does not exist"));
+    assertTrue(KVCassandra._isUnknownSchema("INVALID_ARGUMENT: unconfigured table t"));
+    assertFalse(
+        KVCassandra._isUnknownSchema(
+            "INVALID_ARGUMENT: Invalid INTEGER constant (1.5) for \"value_int\" of type int"));
+    assertFalse(KVCassandra._isUnknownSchema(null));
+  }
+
+  private static Value nullValue() {
+    return Value.newBuilder().setNull(Value.Null.newBuilder().build()).build();
+  }
+
+  @Test
+  void readsTheCompactValueBlob() {
+    KVData data = KVData.fromJson(TextNode.valueOf("one"), KVDataType.TEXT);
+    Value blob = Value.newBuilder().setBytes(ByteString.copyFrom(KVDataCodec.encode(data))).build();
+    Row row = Row.newBuilder().addValues(blob).build();
+    assertEquals(data, cassandra._readRow(row, 0, KVTableLayout.COMPACT));
+    // a scan row starts with the key
+    Row scanned = Row.newBuilder().addValues(Value.newBuilder().setString("a").build()).addValues(blob).build();
+    assertEquals(data, cassandra._readRow(scanned, 1, KVTableLayout.COMPACT));
+    assertNull(cassandra._readRow(Row.newBuilder().addValues(nullValue()).build(), 0, KVTableLayout.COMPACT));
+  }
+
+  @Test
+  void readsTheTypedLegacyColumn() {
+    Row.Builder row = Row.newBuilder();
+    for (int i = 0; i < 9; i++) {
+      // value_text is the first column
+      row.addValues(i == 0 ? Value.newBuilder().setString("one").build() : nullValue());
+    }
+    assertEquals(
+        KVData.fromJson(TextNode.valueOf("one"), KVDataType.TEXT),
+        cassandra._readRow(row.build(), 0, KVTableLayout.LEGACY));
+  }
+}
@@ -0,0 +1,103 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KVCircuitBreakerTest {
+  private KVCircuitBreaker breaker;
+
+  @BeforeEach
+  void setUp() {
+    breaker = new KVCircuitBreaker();
+    breaker.failureRatio = 0.5;
+    breaker.window = 10;
+    breaker.minimumCalls = 4;
+    breaker.openMs = 60000;
+    breaker.probeRatio = 1;
+    breaker.probeSuccesses = 2;
+    breaker.registry = new SimpleMeterRegistry();
+    breaker.init();
+  }
+
+  private void succeed() {
+    breaker.call(() -> Uni.createFrom().item("ok")).await().indefinitely();
+  }
+
+  private void fail(Throwable ex) {
+    breaker
+        .call(() -> Uni.createFrom().failure(ex))
+        .onFailure()
+        .recoverWithNull()
+        .await()
+        .indefinitely();
+  }
+
+  @Test
+  void opensOnceFailuresReachTheRatio() {
+    succeed();
+    succeed();
+    fail(new RuntimeException("down"));
+    assertEquals(KVCircuitBreaker.State.CLOSED, breaker.getState());
+    fail(new RuntimeException("down"));
+    assertEquals(KVCircuitBreaker.State.OPEN, breaker.getState());
+    assertTrue(breaker.isOpen());
+  }
+
+  @Test
+  void rejectsCallsWhileOpen() {
+    for (int i = 0; i < 4; i++) {
+      fail(new RuntimeException("down"));
+    }
+    Throwable rejected =
+        breaker
+            .call(() -> Uni.createFrom().item("ok"))
+            .onItem()
+            .transform(item -> (Throwable) null)
+            .onFailure()
+            .recoverWithItem(ex -> ex)
+            .await()
+            .indefinitely();
+    assertEquals(
+        Status.Code.UNAVAILABLE, ((StatusRuntimeException) rejected).getStatus().getCode());
+  }
+
+  @Test
+  void closesAfterSuccessfulProbes() {
+    breaker.openMs = 0;
+    for (int i = 0; i < 4; i++) {
+      fail(new RuntimeException("down"));
+    }
+    assertEquals(KVCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    succeed();
+    assertEquals(KVCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    succeed();
+    assertEquals(KVCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void reopensOnFailedProbe() {
+    breaker.openMs = 0;
+    for (int i = 0; i < 4; i++) {
+      fail(new RuntimeException("down"));
+    }
+    assertEquals(KVCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    breaker.openMs = 60000;
+    fail(new RuntimeException("still down"));
+    assertEquals(KVCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  void ignoresFailuresOfTheRequest() {
+    for (int i = 0; i < 10; i++) {
+      fail(new StatusRuntimeException(Status.NOT_FOUND));
+    }
+    assertEquals(KVCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+}
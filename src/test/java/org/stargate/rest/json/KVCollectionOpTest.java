@@ -0,0 +1,71 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+class KVCollectionOpTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static KVData value(String json, KVDataType type) throws Exception {
+    return KVData.fromJson(MAPPER.readTree(json), type);
+  }
+
+  @Test
+  void appendsAndPrependsListElements() throws Exception {
+    KVData current = value("[1, 2]", KVDataType.LISTINT);
+    KVData elements = value("[2, 3]", KVDataType.LISTINT);
+    assertArrayEquals(new int[] {1, 2, 2, 3}, KVCollectionOp.APPEND.apply(current, elements).list_int);
+    assertArrayEquals(
+        new int[] {2, 3, 1, 2}, KVCollectionOp.PREPEND.apply(current, elements).list_int);
+    // the arguments may be shared by the cache
+    assertArrayEquals(new int[] {1, 2}, current.list_int);
+  }
+
+  @Test
+  void addsSetElementsOnce() throws Exception {
+    KVData current = value("[\"b\", \"d\"]", KVDataType.SETTEXT);
+    KVData elements = value("[\"d\", \"a\"]", KVDataType.SETTEXT);
+    assertArrayEquals(
+        new String[] {"a", "b", "d"}, KVCollectionOp.ADD.apply(current, elements).list_text);
+  }
+
+  @Test
+  void removesEveryOccurrence() throws Exception {
+    KVData current = value("[1.5, 2.5, 1.5]", KVDataType.LISTDOUBLE);
+    KVData elements = value("[1.5]", KVDataType.LISTDOUBLE);
+    assertArrayEquals(
+        new double[] {2.5}, KVCollectionOp.REMOVE.apply(current, elements).list_double);
+  }
+
+  @Test
+  void keepsTheCurrentValueIfNothingChanges() throws Exception {
+    KVData current = value("[1, 2]", KVDataType.SETINT);
+    assertSame(current, KVCollectionOp.REMOVE.apply(current, value("[3]", KVDataType.SETINT)));
+    KVData text = value("\"abc\"", KVDataType.TEXT);
+    assertSame(text, KVCollectionOp.REMOVE.apply(text, value("[3]", KVDataType.SETINT)));
+    assertNull(KVCollectionOp.REMOVE.apply(null, value("[3]", KVDataType.SETINT)));
+  }
+
+  @Test
+  void replacesMissingOrOtherValuesWithTheElements() throws Exception {
+    KVData elements = value("[1]", KVDataType.LISTINT);
+    assertSame(elements, KVCollectionOp.APPEND.apply(null, elements));
+    assertSame(elements, KVCollectionOp.APPEND.apply(value("7", KVDataType.INT), elements));
+  }
+
+  @Test
+  void appliesOnlyToMatchingCollections() {
+    assertTrue(KVCollectionOp.APPEND.appliesTo(KVDataType.LISTTEXT));
+    assertFalse(KVCollectionOp.APPEND.appliesTo(KVDataType.SETTEXT));
+    assertTrue(KVCollectionOp.ADD.appliesTo(KVDataType.SETINT));
+    assertFalse(KVCollectionOp.ADD.appliesTo(KVDataType.LISTINT));
+    assertTrue(KVCollectionOp.REMOVE.appliesTo(KVDataType.SETDOUBLE));
+    assertFalse(KVCollectionOp.REMOVE.appliesTo(KVDataType.TEXT));
+  }
+}
@@ -0,0 +1,77 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KVCompressorTest {
+  private KVCompressor compressor;
+
+  @BeforeEach
+  void setUp() {
+    compressor = new KVCompressor();
+    compressor.threshold = 64;
+    compressor.registry = new SimpleMeterRegistry();
+    compressor.init();
+  }
+
+  private static byte[] repetitive(int size) {
+    byte[] raw = new byte[size];
+    byte[] pattern = "key-value ".getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < size; i++) {
+      raw[i] = pattern[i % pattern.length];
+    }
+    return raw;
+  }
+
+  @Test
+  void roundTripsCompressedBytes() {
+    byte[] raw = repetitive(10000);
+    byte[] compressed = compressor.compress(raw);
+    assertNotNull(compressed);
+    assertTrue(compressed.length < raw.length);
+    assertArrayEquals(raw, compressor.decompress(compressed, raw.length));
+    assertTrue(compressor.getCompressionRatio() > 1.0);
+  }
+
+  @Test
+  void compressesOnlyFromTheThreshold() {
+    assertFalse(compressor.shouldCompress(63));
+    assertTrue(compressor.shouldCompress(64));
+    compressor.threshold = -1;
+    assertFalse(compressor.shouldCompress(Integer.MAX_VALUE));
+  }
+
+  @Test
+  void leavesIncompressibleBytesAlone() {
+    byte[] raw = new byte[4096];
+    new Random(7).nextBytes(raw);
+    assertNull(compressor.compress(raw));
+  }
+
+  @Test
+  void rejectsTruncatedInput() {
+    byte[] raw = repetitive(10000);
+    byte[] compressed = compressor.compress(raw);
+    byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+    assertThrows(IllegalStateException.class, () -> compressor.decompress(truncated, raw.length));
+  }
+
+  @Test
+  void rejectsAWrongRawSize() {
+    byte[] raw = repetitive(10000);
+    byte[] compressed = compressor.compress(raw);
+    assertThrows(
+        IllegalStateException.class, () -> compressor.decompress(compressed, raw.length + 1));
+  }
+}
@@ -0,0 +1,53 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class KVDataCodecTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static KVData value(String json, KVDataType type) throws Exception {
+    return KVData.fromJson(MAPPER.readTree(json), type);
+  }
+
+  @Test
+  void roundTripsEveryType() throws Exception {
+    Map<KVDataType, String> samples = new EnumMap<>(KVDataType.class);
+    samples.put(KVDataType.INT, "-42");
+    samples.put(KVDataType.DOUBLE, "3.25");
+    samples.put(KVDataType.TEXT, "\"h\\u00e9llo \\u2603\"");
+    samples.put(KVDataType.LISTINT, "[3, 1, 3, " + Integer.MIN_VALUE + "]");
+    samples.put(KVDataType.LISTDOUBLE, "[1.5, -0.0, 1e300]");
+    samples.put(KVDataType.LISTTEXT, "[\"a\", \"\", \"a\"]");
+    samples.put(KVDataType.SETINT, "[1, 2, 3]");
+    samples.put(KVDataType.SETDOUBLE, "[0.5, 2.5]");
+    samples.put(KVDataType.SETTEXT, "[\"x\", \"y\"]");
+    assertEquals(KVDataType.values().length, samples.size());
+    for (Map.Entry<KVDataType, String> sample : samples.entrySet()) {
+      KVData data = value(sample.getValue(), sample.getKey());
+      KVData decoded = KVDataCodec.decode(KVDataCodec.encode(data));
+      assertEquals(data, decoded, sample.getKey().label);
+      assertEquals(sample.getKey(), decoded.type);
+    }
+  }
+
+  @Test
+  void roundTripsEmptyCollections() throws Exception {
+    KVDataType[] collections = {
+      KVDataType.LISTINT,
+      KVDataType.LISTDOUBLE,
+      KVDataType.LISTTEXT,
+      KVDataType.SETINT,
+      KVDataType.SETDOUBLE,
+      KVDataType.SETTEXT
+    };
+    for (KVDataType type : collections) {
+      KVData data = value("[]", type);
+      assertEquals(data, KVDataCodec.decode(KVDataCodec.encode(data)), type.label);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+class KVElementReadTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static KVResponse response(String json, KVDataType type) throws Exception {
+    return new KVResponse(KVData.fromJson(MAPPER.readTree(json), type));
+  }
+
+  private static int[] slice(String slice) throws Exception {
+    return KVElementRead.parse(slice, false, null)
+        .answer(response("[0, 1, 2, 3, 4]", KVDataType.LISTINT))
+        .body
+        .list_int;
+  }
+
+  @Test
+  void parsesSlices() throws Exception {
+    assertArrayEquals(new int[] {1, 2}, slice("1:3"));
+    assertArrayEquals(new int[] {0, 1}, slice(":2"));
+    assertArrayEquals(new int[] {3, 4}, slice("3:"));
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4}, slice(":"));
+    assertArrayEquals(new int[] {4}, slice(" 4 : 99 "));
+    assertArrayEquals(new int[] {}, slice("7:9"));
+  }
+
+  @Test
+  void rejectsInvalidSlices() {
+    for (String slice : new String[] {"", "3", "a:b", "-1:2", "3:1", "1:-1"}) {
+      KvstoreException ex =
+          assertThrows(KvstoreException.class, () -> KVElementRead.parse(slice, false, null));
+      assertEquals(400, ex.error_code.intValue());
+    }
+  }
+
+  @Test
+  void allowsOneOptionAtATime() throws Exception {
+    assertNull(KVElementRead.parse(null, false, null));
+    assertThrows(KvstoreException.class, () -> KVElementRead.parse("0:1", true, null));
+    assertThrows(KvstoreException.class, () -> KVElementRead.parse(null, true, "1"));
+  }
+
+  @Test
+  void countsAndChecksElements() throws Exception {
+    KVResponse count =
+        KVElementRead.parse(null, true, null).answer(response("[\"a\", \"b\"]", KVDataType.SETTEXT));
+    assertEquals(2, count.count.intValue());
+    assertNull(count.body);
+    assertEquals(
+        true,
+        KVElementRead.parse(null, false, "2.5")
+            .answer(response("[1.0, 2.5]", KVDataType.LISTDOUBLE))
+            .contains);
+    assertEquals(
+        false,
+        KVElementRead.parse(null, false, "x")
+            .answer(response("[1, 2]", KVDataType.LISTINT))
+            .contains);
+  }
+
+  @Test
+  void rejectsScalarValues() throws Exception {
+    KVResponse answer =
+        KVElementRead.parse(null, true, null).answer(response("5", KVDataType.INT));
+    assertEquals(400, answer.status_code);
+  }
+}
@@ -0,0 +1,103 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stargate.rest.json.KVQueryTemplates.Operation;
+
+class KVQueryTemplatesTest {
+  private static final String COLUMNS =
+      "value_text, value_int, value_double, value_list_int, value_list_text, value_list_double,"
+          + " value_set_int, value_set_text, value_set_double";
+
+  private final Map<String, KVTableLayout> layouts = new HashMap<>();
+  private KVQueryTemplates templates;
+
+  @BeforeEach
+  void setUp() {
+    layouts.put("legacy", KVTableLayout.LEGACY);
+    layouts.put("compact", KVTableLayout.COMPACT);
+    templates = new KVQueryTemplates(new KVCassandra().columns, (ks, t) -> layouts.get(t));
+  }
+
+  @Test
+  void upsertClearsTheOtherLegacyColumns() {
+    assertEquals(
+        "INSERT INTO \"ks\".\"legacy\" (key, "
+            + COLUMNS
+            + ") VALUES (?, null, ?, null, null, null, null, null, null, null)",
+        templates.get("ks", "legacy", Operation.UPSERT, KVDataType.INT));
+    assertEquals(
+        "INSERT INTO \"ks\".\"legacy\" (key, "
+            + COLUMNS
+            + ") VALUES (?, null, null, null, null, null, null, null, null, ?) USING TTL ?",
+        templates.get("ks", "legacy", Operation.UPSERT_TTL, KVDataType.SETDOUBLE));
+  }
+
+  @Test
+  void conditionalInsertSetsOneLegacyColumn() {
+    // a key that does not exist has no other column to clear
+    assertEquals(
+        "INSERT INTO \"ks\".\"legacy\" (key, value_text) VALUES (?, ?) IF NOT EXISTS",
+        templates.get("ks", "legacy", Operation.INSERT_IF_NOT_EXISTS, KVDataType.TEXT));
+  }
+
+  @Test
+  void compactUpsertIsAPlainInsert() {
+    for (KVDataType type : KVDataType.values()) {
+      assertEquals(
+          "INSERT INTO \"ks\".\"compact\" (key, value) VALUES (?, ?)",
+          templates.get("ks", "compact", Operation.UPSERT, type));
+    }
+  }
+
+  @Test
+  void compactStatementsTouchTheValueBlob() {
+    assertEquals(
+        "SELECT value, writetime(value), ttl(value) FROM \"ks\".\"compact\" WHERE key = ?",
+        templates.get("ks", "compact", Operation.SELECT_VALUE, null));
+    assertEquals(
+        "SELECT writetime(value) FROM \"ks\".\"compact\" WHERE key = ?",
+        templates.get("ks", "compact", Operation.SELECT_WRITETIME, null));
+    assertEquals(
+        "UPDATE \"ks\".\"compact\" USING TTL ? SET value = ? WHERE key = ?",
+        templates.get("ks", "compact", Operation.UPDATE_TTL, KVDataType.LISTTEXT));
+    assertEquals(
+        "UPDATE \"ks\".\"compact\" SET value = ? WHERE key = ? IF value = ?",
+        templates.getUpdateIf("ks", "compact", KVDataType.TEXT, KVDataType.INT));
+    assertEquals(
+        "DELETE FROM \"ks\".\"compact\" WHERE key = ? IF value = ?",
+        templates.get("ks", "compact", Operation.DELETE_IF, KVDataType.SETINT));
+    // a blob cannot be appended to, collection updates read and rewrite the value
+    assertNull(templates.get("ks", "compact", Operation.COLLECTION_APPEND, KVDataType.LISTINT));
+  }
+
+  @Test
+  void legacyStatementsSelectTheScalarWritetimes() {
+    assertEquals(
+        "SELECT "
+            + COLUMNS
+            + ", writetime(value_text), writetime(value_int), writetime(value_double),"
+            + " ttl(value_text), ttl(value_int), ttl(value_double)"
+            + " FROM \"ks\".\"legacy\" WHERE key = ?",
+        templates.get("ks", "legacy", Operation.SELECT_VALUE, null));
+  }
+
+  @Test
+  void rendersAgainWhenTheLayoutChanges() {
+    layouts.put("t", KVTableLayout.LEGACY);
+    assertEquals(
+        "UPDATE \"ks\".\"t\" SET value_list_int = value_list_int + ? WHERE key = ?",
+        templates
+            .get("ks", "t", Operation.COLLECTION_APPEND, KVDataType.LISTINT)
+            .replaceAll("value_[a-z_]+ = null, ", ""));
+    layouts.put("t", KVTableLayout.COMPACT);
+    assertEquals(
+        "INSERT INTO \"ks\".\"t\" (key, value) VALUES (?, ?)",
+        templates.get("ks", "t", Operation.INSERT, KVDataType.LISTINT));
+  }
+}
@@ -0,0 +1,33 @@
+package org.stargate.rest.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class KVTableLayoutTest {
+  @Test
+  void legacyCollectionsHaveNoWritetime() {
+    assertTrue(KVTableLayout.LEGACY.hasWritetime(KVDataType.INT));
+    assertTrue(KVTableLayout.LEGACY.hasWritetime(KVDataType.DOUBLE));
+    assertTrue(KVTableLayout.LEGACY.hasWritetime(KVDataType.TEXT));
+    assertFalse(KVTableLayout.LEGACY.hasWritetime(KVDataType.LISTINT));
+    assertFalse(KVTableLayout.LEGACY.hasWritetime(KVDataType.SETTEXT));
+  }
+
+  @Test
+  void compactValuesAlwaysHaveAWritetime() {
+    for (KVDataType type : KVDataType.values()) {
+      assertTrue(KVTableLayout.COMPACT.hasWritetime(type), type.label);
+    }
+  }
+
+  @Test
+  void looksUpLabels() {
+    assertEquals(KVTableLayout.COMPACT, KVTableLayout.get("compact"));
+    assertEquals(KVTableLayout.LEGACY, KVTableLayout.get("legacy"));
+    assertNull(KVTableLayout.get("wide"));
+  }
+}